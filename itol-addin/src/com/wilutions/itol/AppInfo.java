@@ -196,14 +196,26 @@ public class AppInfo {
 		write(configFile);
 	}
 	
-	private static File getConfigFile(String manufacturerName, String appName) {
+	/**
+	 * Directory of the application's data in %APPDATA%.
+	 * @return Directory, created if it does not exist.
+	 */
+	public File getDataDir() {
+		return getDataDir(manufacturerName, appName);
+	}
+
+	private static File getDataDir(String manufacturerName, String appName) {
 		String appData = System.getenv("APPDATA");
 		if (Default.value(appData).isEmpty()) {
 			appData = ".";
 		}
 		File dataDir = new File(new File(new File(appData), manufacturerName), appName).getAbsoluteFile();
 		dataDir.mkdirs();
-		File configFile = new File(dataDir, "application.json");
+		return dataDir;
+	}
+
+	private static File getConfigFile(String manufacturerName, String appName) {
+		File configFile = new File(getDataDir(manufacturerName, appName), "application.json");
 		return configFile;
 	}
 	
@@ -15,6 +15,7 @@ import java.net.URL;
 import java.util.ResourceBundle;
 import java.util.logging.Logger;
 
+import com.wilutions.fx.util.ProgressPresenter;
 import com.wilutions.itol.db.ProgressCallback;
 import com.wilutions.itol.db.ProgressCallbackImpl;
 import com.wilutions.joa.fx.ModalDialogFX;
@@ -35,6 +36,7 @@ public class DlgProgress extends ModalDialogFX<Boolean> implements Initializable
 	//private static Logger log = Logger.getLogger("DlgProgress");
 	private volatile ProgressCallback progressCallback;
 	private volatile boolean cancelled = false;
+	private volatile ProgressPresenter progressPresenter;
 
 	private class MyProgressCallback extends ProgressCallbackImpl {
 
@@ -44,35 +46,34 @@ public class DlgProgress extends ModalDialogFX<Boolean> implements Initializable
 			super(name);
 		}
 
-		public void setProgress(final double current) {
-			super.setProgress(current);
-			double currentSum = childSum + current;
-			final double quote = currentSum / total;
+		@Override
+		protected void progressChanged(double current, double total) {
+			final double quote = current / total;
 			int percent = (int) Math.ceil(100.0 * quote);
 			if (percent > lastPercent) {
 				lastPercent = percent;
 			}
 
-			Platform.runLater(() -> {
-				pgProgressBar.setProgress(quote);
-			});
+			ProgressPresenter presenter = progressPresenter;
+			if (presenter != null) {
+				presenter.setProgress(quote);
+			}
 		}
 
 		@Override
 		public void setParams(String... params) {
 			super.setParams(params);
-			Platform.runLater(() -> {
-				if (params != null && params.length != 0) {
-					StringBuilder sbuf = new StringBuilder();
-					for (int i = 0; i < params.length; i++) {
-						if (i != 0) {
-							sbuf.append(", ");
-						}
-						sbuf.append(params[i]);
+			ProgressPresenter presenter = progressPresenter;
+			if (presenter != null && params != null && params.length != 0) {
+				StringBuilder sbuf = new StringBuilder();
+				for (int i = 0; i < params.length; i++) {
+					if (i != 0) {
+						sbuf.append(", ");
 					}
-					lbProgress.setText(sbuf.toString());
+					sbuf.append(params[i]);
 				}
-			});
+				presenter.setText(sbuf.toString());
+			}
 		}
 
 		@Override
@@ -126,6 +127,9 @@ public class DlgProgress extends ModalDialogFX<Boolean> implements Initializable
 		if (progressCallback != null) {
 			progressCallback.setFinished();
 		}
+		if (progressPresenter != null) {
+			progressPresenter.close();
+		}
 		super.finish(result);
 	}
 
@@ -163,6 +167,7 @@ public class DlgProgress extends ModalDialogFX<Boolean> implements Initializable
 	public void initialize(URL location, ResourceBundle resources) {
 		bnOK.setVisible(false);
 		bnOK.setManaged(false);
+		progressPresenter = new ProgressPresenter(pgProgressBar, lbProgress);
 	}
 
 }
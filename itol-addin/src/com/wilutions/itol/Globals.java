@@ -24,6 +24,7 @@ import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 import com.wilutions.com.BackgTask;
+import com.wilutions.itol.db.HttpClient;
 import com.wilutions.itol.db.IssueService;
 import com.wilutions.itol.db.IssueServiceFactory;
 import com.wilutions.itol.db.Property;
@@ -118,6 +119,13 @@ public class Globals {
 			issueService = fact.getService(appDir, appInfo.getServiceFactoryParams());
 			
 			initProxy();
+			
+			HttpClient.setCacheDirectory(new File(appInfo.getDataDir(), "httpcache"));
+			HttpClient.setConfig(appInfo.getConfigProps());
+			HttpClient.setDownloadDirectory(getTempDir());
+			HttpClient.getRedirections().setFile(new File(appInfo.getDataDir(), "redirections.properties"));
+			// Connect to the issue tracker while the service initializes.
+			HttpClient.prewarm(appInfo.getConfigPropertyString(Property.URL, ""));
 
 			if (log.isLoggable(Level.FINE)) log.log(Level.FINE, "issueService.setConfig");
 			issueService.setConfig(appInfo.getConfigProps());
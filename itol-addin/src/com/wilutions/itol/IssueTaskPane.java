@@ -34,6 +34,7 @@ import com.wilutions.com.IDispatch;
 import com.wilutions.fx.acpl.AutoCompletionBinding;
 import com.wilutions.fx.acpl.AutoCompletions;
 import com.wilutions.fx.acpl.ExtractImage;
+import com.wilutions.fx.util.ProgressPresenter;
 import com.wilutions.itol.db.Attachment;
 import com.wilutions.itol.db.DefaultSuggest;
 import com.wilutions.itol.db.IdName;
@@ -163,6 +164,7 @@ public class IssueTaskPane extends TaskPaneFX implements Initializable {
 	private TextField edIssueId;
 	@FXML
 	private ProgressBar pgProgress;
+	private volatile ProgressPresenter progressPresenter;
 	@FXML
 	private Button bnReply;
 
@@ -461,6 +463,10 @@ public class IssueTaskPane extends TaskPaneFX implements Initializable {
 
 		detectIssueModifiedStop();
 
+		if (progressPresenter != null) {
+			progressPresenter.close();
+		}
+
 		attachmentHelper.releaseResources();
 		
 		inspectorOrExplorer = null;
@@ -501,6 +507,8 @@ public class IssueTaskPane extends TaskPaneFX implements Initializable {
 	@Override
 	// This method is called by the FXMLLoader when initialization is complete
 	public void initialize(URL fxmlFileLocation, ResourceBundle resources) {
+		// The presenter starts drawing with the first progress value.
+		progressPresenter = new ProgressPresenter(pgProgress, null);
 		try {
 			edIssueId.setOnKeyPressed(new EventHandler<KeyEvent>() {
 				public void handle(KeyEvent event) {
@@ -1390,18 +1398,19 @@ public class IssueTaskPane extends TaskPaneFX implements Initializable {
 
 		protected void internalSetProgress(final double current) {
 			super.setProgress(current);
-			double currentSum = childSum + current;
-			final double quote = currentSum / total;
+		}
+
+		@Override
+		protected void progressChanged(double current, double total) {
+			final double quote = current / total;
 			int percent = (int) Math.ceil(100.0 * quote);
 			if (percent > lastPercent) {
 				lastPercent = percent;
 			}
-			Platform.runLater(() -> {
-				if (pgProgress != null) {
-					pgProgress.setProgress(quote);
-					// System.out.println("progress " + quote);
-				}
-			});
+			ProgressPresenter presenter = progressPresenter;
+			if (presenter != null) {
+				presenter.setProgress(quote);
+			}
 		}
 
 		@Override
@@ -1416,12 +1425,11 @@ public class IssueTaskPane extends TaskPaneFX implements Initializable {
 
 		@Override
 		public void setFinished() {
-			Platform.runLater(() -> {
-				if (pgProgress != null) {
-					pgProgress.setProgress(0);
-					// System.out.println("progress 0");
-				}
-			});
+			ProgressPresenter presenter = progressPresenter;
+			if (presenter != null) {
+				presenter.setProgress(0);
+				presenter.stop();
+			}
 		}
 
 	}
@@ -10,13 +10,15 @@
  */
 package com.wilutions.itol;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.OutputStream;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -28,6 +30,8 @@ import org.json.JSONObject;
 import com.wilutions.com.ComEnum;
 import com.wilutions.com.ComException;
 import com.wilutions.com.reg.DeclRegistryValue;
+import com.wilutions.itol.db.BeanAccessors;
+import com.wilutions.itol.db.BeanAccessors.FieldAccessor;
 import com.wilutions.itol.db.Default;
 
 /**
@@ -90,9 +94,27 @@ public class UserProfile {
 		return userProfile;
 	}
 	
+	/**
+	 * Write the profile into a temporary file and replace the profile file with it,
+	 * so that the profile is not lost if the application stops while writing.
+	 */
 	private void write(File configFile) throws Exception {
-        String json = root.toString(2);
-        Files.write(configFile.toPath(), json.getBytes("UTF-8"), StandardOpenOption.CREATE);
+		File tempFile = File.createTempFile(configFile.getName(), ".tmp", configFile.getParentFile());
+		try {
+			try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tempFile.toPath()))) {
+				root.write(os, 2);
+			}
+			try {
+				Files.move(tempFile.toPath(), configFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), configFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			tempFile.delete();
+		}
 	}
 
 	/**
@@ -152,41 +174,33 @@ public class UserProfile {
 	}
 
 	private void readFields(String key, Object obj, int opts) {
-		Class<?> clazz = obj.getClass();
-		while (clazz != null && clazz != Object.class) {
-			for (Field field : clazz.getDeclaredFields()) {
-				String fieldName = field.getName();
-				int mods = field.getModifiers();
-
-				if (Modifier.isStatic(mods)) continue;
-				if (Modifier.isFinal(mods)) continue;
-				if (Modifier.isTransient(mods)) continue;
-
-				if ((opts & OPT_ONLY_ANNOTATED_FIELDS) != 0) {
-					DeclRegistryValue regValueAnno = field.getAnnotation(DeclRegistryValue.class);
-					if (regValueAnno == null) continue;
-					String s = regValueAnno.value();
-					if (s != null && s.length() != 0) {
-						fieldName = s;
-					}
+		for (FieldAccessor field : getFields(obj.getClass(), opts)) {
+			String fieldName = getValueName(field, opts);
+			try {
+				Object fieldValue = getFieldValue(key, fieldName, field.getType());
+				if (fieldValue != null) {
+					field.set(obj, fieldValue);
 				}
+			}
+			catch (Throwable ignored) {
+			}
+		}
+	}
 
-				if (!Modifier.isPublic(mods)) {
-					field.setAccessible(true);
-				}
+	private static List<FieldAccessor> getFields(Class<?> clazz, int opts) {
+		BeanAccessors accessors = BeanAccessors.of(clazz);
+		return (opts & OPT_ONLY_ANNOTATED_FIELDS) != 0 ? accessors.getFields(DeclRegistryValue.class) : accessors.getFields();
+	}
 
-				try {
-					Object fieldValue = getFieldValue(key, fieldName, field.getType());
-					if (fieldValue != null) {
-						field.set(obj, fieldValue);
-					}
-				}
-				catch (Throwable ignored) {
-				}
+	private static String getValueName(FieldAccessor field, int opts) {
+		String fieldName = field.getName();
+		if ((opts & OPT_ONLY_ANNOTATED_FIELDS) != 0) {
+			String s = field.getField().getAnnotation(DeclRegistryValue.class).value();
+			if (s != null && s.length() != 0) {
+				fieldName = s;
 			}
-
-			clazz = clazz.getSuperclass();
 		}
+		return fieldName;
 	}
 	
 	private Object readObject(String key) {
@@ -484,39 +498,16 @@ public class UserProfile {
 				return;
 			}
 
-			while (clazz != null && clazz != Object.class) {
-				for (Field field : clazz.getDeclaredFields()) {
-					String fieldName = field.getName();
-					int mods = field.getModifiers();
-
-					if (Modifier.isStatic(mods)) continue;
-					if (Modifier.isFinal(mods)) continue;
-					if (Modifier.isTransient(mods)) continue;
-
-					if ((opts & OPT_ONLY_ANNOTATED_FIELDS) != 0) {
-						DeclRegistryValue regValueAnno = field.getAnnotation(DeclRegistryValue.class);
-						if (regValueAnno == null) continue;
-						String s = regValueAnno.value();
-						if (s != null && s.length() != 0) {
-							fieldName = s;
-						}
-					}
-
-					if (!Modifier.isPublic(mods)) {
-						field.setAccessible(true);
-					}
-
-					try {
-						Object fieldValue = field.get(obj);
-						Class<?> fieldClass = field.getType();
-						setFieldValue(key, fieldName, fieldValue, fieldClass);
-					}
-					catch (Throwable e) {
-						e.printStackTrace();
-					}
+			for (FieldAccessor field : getFields(clazz, opts)) {
+				String fieldName = getValueName(field, opts);
+				try {
+					Object fieldValue = field.get(obj);
+					Class<?> fieldClass = field.getType();
+					setFieldValue(key, fieldName, fieldValue, fieldClass);
+				}
+				catch (Throwable e) {
+					e.printStackTrace();
 				}
-
-				clazz = clazz.getSuperclass();
 			}
 		}
 		catch (Throwable e) {
@@ -0,0 +1,125 @@
+package com.wilutions.fx.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.control.Labeled;
+import javafx.scene.control.ProgressBar;
+
+/**
+ * Shows progress published by background threads in a ProgressBar and a label.
+ * Background threads only store the latest value, they do not post events to
+ * the FX thread. An AnimationTimer reads the latest value once per frame and
+ * updates the controls, if it has changed. The timer is started by the first
+ * published value and runs until stop() is called, e.g. when the operation
+ * has finished. Create one instance per window and close it with the window.
+ */
+public class ProgressPresenter {
+
+	private final ProgressBar progressBar;
+	private final Labeled label;
+	private final AtomicLong progressBits = new AtomicLong();
+	private final AtomicBoolean progressChanged = new AtomicBoolean();
+	private final AtomicReference<String> text = new AtomicReference<String>();
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private final AnimationTimer timer = new AnimationTimer() {
+		@Override
+		public void handle(long now) {
+			update();
+		}
+	};
+
+	/**
+	 * Constructor.
+	 * @param progressBar Progress bar or null
+	 * @param label Label for the text or null
+	 */
+	public ProgressPresenter(ProgressBar progressBar, Labeled label) {
+		this.progressBar = progressBar;
+		this.label = label;
+	}
+
+	/**
+	 * Publish the progress and start updating the controls.
+	 * Can be called from any thread.
+	 * @param progress Value between 0 and 1, or -1 for indeterminate progress.
+	 */
+	public void setProgress(double progress) {
+		progressBits.set(Double.doubleToRawLongBits(progress));
+		progressChanged.set(true);
+		start();
+	}
+
+	/**
+	 * Publish the text and start updating the controls.
+	 * Can be called from any thread.
+	 * @param text Text
+	 */
+	public void setText(String text) {
+		this.text.set(text != null ? text : "");
+		start();
+	}
+
+	/**
+	 * Start updating the controls. Does nothing, if already running or closed.
+	 * Can be called from any thread.
+	 */
+	public void start() {
+		if (!closed.get() && running.compareAndSet(false, true)) {
+			runInFxThread(() -> {
+				if (running.get()) {
+					timer.start();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Show the last published values and stop updating the controls.
+	 * The next published value starts the timer again.
+	 * Can be called from any thread.
+	 */
+	public void stop() {
+		if (running.compareAndSet(true, false)) {
+			runInFxThread(() -> {
+				timer.stop();
+				update();
+			});
+		}
+	}
+
+	/**
+	 * Stop updating the controls for good, e.g. when the window is closed.
+	 * Can be called from any thread.
+	 */
+	public void close() {
+		closed.set(true);
+		stop();
+	}
+
+	private void update() {
+		// Clear the flag before reading the value. A value published in between
+		// is shown in the next frame again, which does no harm.
+		if (progressChanged.getAndSet(false) && progressBar != null) {
+			progressBar.setProgress(Double.longBitsToDouble(progressBits.get()));
+		}
+		String s = text.getAndSet(null);
+		if (s != null && label != null) {
+			label.setText(s);
+		}
+	}
+
+	private static void runInFxThread(Runnable run) {
+		if (Platform.isFxApplicationThread()) {
+			run.run();
+		}
+		else {
+			Platform.runLater(run);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cached field accessors of a class.
+ * The fields of a class are collected once and accessed through method handles,
+ * so that objects can be converted repeatedly without scanning the class again.
+ */
+public class BeanAccessors {
+
+	private final static Logger log = Logger.getLogger(BeanAccessors.class.getName());
+
+	private final static ClassValue<BeanAccessors> cache = new ClassValue<BeanAccessors>() {
+		@Override
+		protected BeanAccessors computeValue(Class<?> type) {
+			return new BeanAccessors(type);
+		}
+	};
+
+	private final static MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private final static MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private final List<FieldAccessor> fields;
+	private final ConcurrentHashMap<Class<? extends Annotation>, List<FieldAccessor>> annotatedFields = new ConcurrentHashMap<Class<? extends Annotation>, List<FieldAccessor>>();
+
+	/**
+	 * Accessor of a field.
+	 */
+	public static class FieldAccessor {
+		private final Field field;
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		FieldAccessor(Field field, MethodHandle getter, MethodHandle setter) {
+			this.field = field;
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		public Field getField() {
+			return field;
+		}
+
+		public String getName() {
+			return field.getName();
+		}
+
+		public Class<?> getType() {
+			return field.getType();
+		}
+
+		/**
+		 * Get the field value.
+		 * @param obj Object
+		 * @return Value, primitive values are boxed.
+		 */
+		public Object get(Object obj) {
+			try {
+				return (Object) getter.invokeExact(obj);
+			}
+			catch (RuntimeException | Error e) {
+				throw e;
+			}
+			catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Set the field value.
+		 * @param obj Object
+		 * @param value Value, unboxed for primitive fields.
+		 */
+		public void set(Object obj, Object value) {
+			try {
+				setter.invokeExact(obj, value);
+			}
+			catch (RuntimeException | Error e) {
+				throw e;
+			}
+			catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		public String toString() {
+			return field.toString();
+		}
+	}
+
+	/**
+	 * Get the accessors of a class.
+	 * @param clazz Class
+	 * @return Cached accessors
+	 */
+	public static BeanAccessors of(Class<?> clazz) {
+		return cache.get(clazz);
+	}
+
+	private BeanAccessors(Class<?> clazz) {
+		List<FieldAccessor> list = new ArrayList<FieldAccessor>();
+		for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				int mods = field.getModifiers();
+				if (Modifier.isStatic(mods) || Modifier.isFinal(mods) || Modifier.isTransient(mods)) {
+					continue;
+				}
+				try {
+					if (!Modifier.isPublic(mods)) {
+						field.setAccessible(true);
+					}
+					MethodHandles.Lookup lookup = MethodHandles.lookup();
+					MethodHandle getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+					MethodHandle setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+					list.add(new FieldAccessor(field, getter, setter));
+				}
+				catch (Exception e) {
+					if (log.isLoggable(Level.FINE)) log.fine("Cannot access field " + field + ", " + e);
+				}
+			}
+		}
+		this.fields = Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Get the fields of the class and its super classes, except static, final and transient fields.
+	 * Fields of the class come before the fields of its super class.
+	 * @return Unmodifiable list
+	 */
+	public List<FieldAccessor> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Get the fields that have the given annotation.
+	 * @param annotationClass Annotation
+	 * @return Unmodifiable list
+	 */
+	public List<FieldAccessor> getFields(Class<? extends Annotation> annotationClass) {
+		List<FieldAccessor> ret = annotatedFields.get(annotationClass);
+		if (ret == null) {
+			List<FieldAccessor> list = new ArrayList<FieldAccessor>();
+			for (FieldAccessor accessor : fields) {
+				if (accessor.getField().isAnnotationPresent(annotationClass)) {
+					list.add(accessor);
+				}
+			}
+			ret = Collections.unmodifiableList(list);
+			annotatedFields.put(annotationClass, ret);
+		}
+		return ret;
+	}
+
+	public String toString() {
+		return "[BeanAccessors " + fields + "]";
+	}
+}
@@ -0,0 +1,59 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+/**
+ * Progress callback that only forwards cancellation and the deadline of its parent.
+ * Used for sub-tasks whose progress is reported by the caller in aggregated form.
+ */
+public class CancelOnlyProgressCallback implements ProgressCallback {
+
+	private final ProgressCallback parent;
+
+	public CancelOnlyProgressCallback(ProgressCallback parent) {
+		this.parent = parent;
+	}
+
+	@Override
+	public void setParams(String... params) {
+	}
+
+	@Override
+	public void setProgress(double current) {
+	}
+
+	@Override
+	public void setTotal(double total) {
+	}
+
+	@Override
+	public void setFinished() {
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return parent.isCancelled();
+	}
+
+	@Override
+	public long getDeadline() {
+		return parent.getDeadline();
+	}
+
+	@Override
+	public ProgressCallback createChild(String name) {
+		return this;
+	}
+
+	@Override
+	public void childFinished(double total) {
+	}
+}
@@ -0,0 +1,63 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Request body that is written directly into the connection.
+ * Pass it as content of an HttpRequest to serialize large bodies without
+ * building them in memory first. Unless the request has a Content-Length
+ * header, the body is sent with Transfer-Encoding: chunked.
+ */
+@FunctionalInterface
+public interface HttpBodyWriter {
+
+	/**
+	 * Write the request body.
+	 * @param os Request body stream. Must not be closed by this function.
+	 * @throws IOException
+	 */
+	void writeTo(OutputStream os) throws IOException;
+
+	/**
+	 * Make a body writer for a JSON value.
+	 * @param value JSONObject, JSONArray or another value accepted by JSONObject.valueToString.
+	 * @return Body writer that writes the value in UTF-8.
+	 */
+	public static HttpBodyWriter forJSON(Object value) {
+		return (os) -> {
+			try {
+				if (value instanceof JSONObject) {
+					((JSONObject) value).write(os, 0);
+				}
+				else if (value instanceof JSONArray) {
+					((JSONArray) value).write(os, 0);
+				}
+				else {
+					os.write(JSONObject.valueToString(value).getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			catch (JSONException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e);
+			}
+		};
+	}
+}
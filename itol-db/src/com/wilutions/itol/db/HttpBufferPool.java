@@ -0,0 +1,109 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of buffers used to copy request and response bodies between files and streams.
+ */
+public class HttpBufferPool {
+
+	public final static int BUFFER_SIZE = 64 * 1024;
+
+	private final static int MAX_POOLED_BUFFERS = 16;
+
+	private final static ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+	private final static AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * Get a buffer. Has to be given back with release().
+	 * @return Buffer of size BUFFER_SIZE
+	 */
+	public static byte[] acquire() {
+		byte[] ret = buffers.poll();
+		if (ret != null) {
+			pooled.decrementAndGet();
+		}
+		else {
+			ret = new byte[BUFFER_SIZE];
+		}
+		return ret;
+	}
+
+	/**
+	 * Give a buffer back to the pool.
+	 * @param buf Buffer obtained from acquire()
+	 */
+	public static void release(byte[] buf) {
+		if (pooled.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+			buffers.offer(buf);
+		}
+		else {
+			pooled.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Copy a part of a file into a stream.
+	 * @param file Source file
+	 * @param position Position in the file
+	 * @param count Maximum number of bytes to copy. At most BUFFER_SIZE bytes are copied.
+	 * @param os Destination stream
+	 * @return Number of bytes copied or -1 at the end of the file.
+	 * @throws IOException
+	 */
+	public static long transfer(FileChannel file, long position, long count, OutputStream os) throws IOException {
+		byte[] buf = acquire();
+		try {
+			int n = file.read(ByteBuffer.wrap(buf, 0, (int) Math.min(buf.length, count)), position);
+			if (n > 0) {
+				os.write(buf, 0, n);
+			}
+			return n;
+		}
+		finally {
+			release(buf);
+		}
+	}
+
+	/**
+	 * Copy bytes from a stream into a file.
+	 * @param is Source stream
+	 * @param file Destination file
+	 * @param position Position in the file
+	 * @param count Maximum number of bytes to copy. At most BUFFER_SIZE bytes are copied.
+	 * @return Number of bytes copied or -1 at the end of the stream.
+	 * @throws IOException
+	 */
+	public static long transfer(InputStream is, FileChannel file, long position, long count) throws IOException {
+		byte[] buf = acquire();
+		try {
+			int n = is.read(buf, 0, (int) Math.min(buf.length, count));
+			if (n > 0) {
+				ByteBuffer bbuf = ByteBuffer.wrap(buf, 0, n);
+				while (bbuf.hasRemaining()) {
+					file.write(bbuf, position + bbuf.position());
+				}
+			}
+			return n;
+		}
+		finally {
+			release(buf);
+		}
+	}
+}
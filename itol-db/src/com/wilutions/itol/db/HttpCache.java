@@ -0,0 +1,580 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Disk cache for responses of GET requests.
+ * Cached responses are revalidated with If-None-Match and If-Modified-Since.
+ * A response can be served without revalidation, if a time-to-live is
+ * configured for its URL. The cache size is limited, least recently used
+ * entries are removed first.
+ */
+public class HttpCache {
+
+	private final static Logger log = Logger.getLogger(HttpCache.class.getName());
+
+	public final static int DEFAULT_MAX_SIZE_MB = 50;
+
+	private final static String META_EXT = ".meta";
+	private final static String BODY_EXT = ".body";
+
+	/**
+	 * Headers that identify the user. Responses are cached per user.
+	 * Session cookies are not part of the key, they change with each login.
+	 */
+	private final static String[] AUTH_HEADERS = new String[] { "Authorization", "X-Redmine-API-Key" };
+
+	/**
+	 * Response headers that belong to the connection or the user's session
+	 * and are not stored with a cached response.
+	 */
+	private final static Set<String> UNCACHED_HEADERS = new HashSet<String>(Arrays.asList("set-cookie", "set-cookie2",
+			"connection", "keep-alive", "proxy-authenticate", "proxy-connection", "te", "trailer", "transfer-encoding",
+			"upgrade", "www-authenticate", "authorization"));
+
+	private final File dir;
+	private volatile long maxSizeBytes;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final LinkedHashMap<String, Integer> ttlSeconds = new LinkedHashMap<String, Integer>();
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Cached response.
+	 */
+	public static class Entry {
+		private final String key;
+		private String url;
+		private String etag;
+		private String lastModified;
+		private long storedAt;
+		private long size;
+		private String[] headers;
+
+		Entry(String key) {
+			this.key = key;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public String getETag() {
+			return etag;
+		}
+
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return Time when the response was received or revalidated.
+		 */
+		public long getStoredAt() {
+			return storedAt;
+		}
+
+		public long getSize() {
+			return size;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param dir Cache directory. Entries stored in this directory by a previous instance are loaded.
+	 * @param maxSizeBytes Maximum number of bytes of all cached responses.
+	 */
+	public HttpCache(File dir, long maxSizeBytes) {
+		this.dir = dir;
+		this.maxSizeBytes = maxSizeBytes;
+		dir.mkdirs();
+		load();
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	public long getMaxSizeBytes() {
+		return maxSizeBytes;
+	}
+
+	public synchronized void setMaxSizeBytes(long maxSizeBytes) {
+		this.maxSizeBytes = maxSizeBytes;
+		evict();
+	}
+
+	/**
+	 * Serve responses for URLs that contain the given pattern for the given
+	 * time without asking the server.
+	 * @param urlPattern Part of the URL, e.g. "/trackers.json"
+	 * @param seconds Time-to-live in seconds. 0 removes the override.
+	 */
+	public synchronized void setTTL(String urlPattern, int seconds) {
+		if (seconds > 0) {
+			ttlSeconds.put(urlPattern, seconds);
+		}
+		else {
+			ttlSeconds.remove(urlPattern);
+		}
+	}
+
+	/**
+	 * Set time-to-live overrides.
+	 * @param spec Comma separated list of url-pattern=seconds, e.g. "/trackers.json=3600, /roles.json=3600"
+	 */
+	public synchronized void setTTLs(String spec) {
+		ttlSeconds.clear();
+		for (String item : Default.value(spec).split(",")) {
+			int p = item.lastIndexOf('=');
+			if (p > 0) {
+				try {
+					setTTL(item.substring(0, p).trim(), Integer.parseInt(item.substring(p + 1).trim()));
+				}
+				catch (NumberFormatException e) {
+					log.warning("Invalid cache TTL " + item);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get time-to-live for an URL.
+	 * @param url URL
+	 * @return Seconds. The longest matching URL pattern is used. 0, if no pattern matches.
+	 */
+	public synchronized int getTTL(String url) {
+		int ret = 0;
+		int matchLength = -1;
+		for (Map.Entry<String, Integer> e : ttlSeconds.entrySet()) {
+			if (url.contains(e.getKey()) && e.getKey().length() > matchLength) {
+				matchLength = e.getKey().length();
+				ret = e.getValue();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Check whether the response of a request can be taken from the cache.
+	 * @param request Request
+	 * @return true for GET requests that are not in streaming mode.
+	 * Requests that identify the user by a cookie only are not cached, see makeKey.
+	 */
+	public boolean isCacheable(HttpRequest request) {
+		return request.getMethod().equals("GET") && !request.isStreaming() && request.getContent() == null
+				&& request.getDestination() == null && (request.getHeader("Cookie") == null || hasAuthHeader(request));
+	}
+
+	private static boolean hasAuthHeader(HttpRequest request) {
+		for (String authHeader : AUTH_HEADERS) {
+			if (request.getHeader(authHeader) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove headers that must not be stored.
+	 * @param headers Response headers
+	 * @return Headers without UNCACHED_HEADERS
+	 */
+	private static String[] getStorableHeaders(String[] headers) {
+		List<String> ret = new ArrayList<String>(headers.length);
+		for (String header : headers) {
+			int p = header.indexOf(':');
+			String name = p >= 0 ? header.substring(0, p).trim() : header;
+			if (!UNCACHED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+				ret.add(header);
+			}
+		}
+		return ret.toArray(new String[ret.size()]);
+	}
+
+	/**
+	 * Make the cache key of a request. The key consists of the URL and the
+	 * authentication headers, so that users do not see each other's data.
+	 * @param request Request
+	 * @return Key
+	 */
+	public static String makeKey(HttpRequest request) {
+		StringBuilder sbuf = new StringBuilder(request.getUrl());
+		for (String authHeader : AUTH_HEADERS) {
+			String value = request.getHeader(authHeader);
+			if (value != null) {
+				sbuf.append('\n').append(authHeader).append(": ").append(value);
+			}
+		}
+		return sha256(sbuf.toString());
+	}
+
+	/**
+	 * Find a cached response.
+	 * @param key Key, see makeKey
+	 * @return Entry or null.
+	 */
+	public synchronized Entry get(String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Check whether the entry can be served without asking the server.
+	 * @param entry Entry
+	 * @return true, if the entry is younger than the TTL configured for its URL.
+	 */
+	public boolean isFresh(Entry entry) {
+		int ttl = getTTL(entry.url);
+		return ttl > 0 && System.currentTimeMillis() - entry.storedAt < ttl * 1000L;
+	}
+
+	/**
+	 * Add If-None-Match and If-Modified-Since headers.
+	 * @param entry Cached response
+	 * @param request Request to be sent.
+	 */
+	public void addConditionalHeaders(Entry entry, HttpRequest request) {
+		if (entry.etag != null) {
+			request.setHeader("If-None-Match", entry.etag);
+		}
+		if (entry.lastModified != null) {
+			request.setHeader("If-Modified-Since", entry.lastModified);
+		}
+	}
+
+	/**
+	 * Remove the headers added by addConditionalHeaders.
+	 * @param request Request to be sent again.
+	 */
+	public void removeConditionalHeaders(HttpRequest request) {
+		request.setHeader("If-None-Match", null);
+		request.setHeader("If-Modified-Since", null);
+	}
+
+	/**
+	 * Make a response from a cache entry, if it is fresh.
+	 * @param entry Cached response
+	 * @return Response or null, if the body cannot be read.
+	 */
+	public HttpResponse getFreshResponse(Entry entry) {
+		HttpResponse ret = makeResponse(entry);
+		if (ret != null) {
+			hits.incrementAndGet();
+		}
+		return ret;
+	}
+
+	/**
+	 * Make a response from a cache entry after the server answered "304 Not Modified".
+	 * @param entry Cached response
+	 * @param notModified Response of the server
+	 * @return Cached response or null, if the body cannot be read.
+	 */
+	public HttpResponse getRevalidatedResponse(Entry entry, HttpResponse notModified) {
+		HttpResponse ret = makeResponse(entry);
+		if (ret != null) {
+			revalidations.incrementAndGet();
+			// Cookies of the 304 response belong to the session, they are passed on but not stored.
+			List<String> headers = new ArrayList<String>(Arrays.asList(entry.headers));
+			if (notModified.getHeaders() != null) {
+				for (String header : notModified.getHeaders()) {
+					if (header.regionMatches(true, 0, "Set-Cookie", 0, 10)) {
+						headers.add(header);
+					}
+				}
+			}
+			ret.setHeaders(headers.toArray(new String[headers.size()]));
+			synchronized (this) {
+				entry.storedAt = System.currentTimeMillis();
+				String etag = notModified.getHeader("ETag");
+				if (etag != null) {
+					entry.etag = etag;
+				}
+				try {
+					writeMeta(entry);
+				}
+				catch (IOException e) {
+					log.log(Level.WARNING, "Failed to update cache entry " + entry.url, e);
+				}
+			}
+		}
+		return ret;
+	}
+
+	private HttpResponse makeResponse(Entry entry) {
+		HttpResponse ret = null;
+		File bodyFile = new File(dir, entry.key + BODY_EXT);
+		try {
+			byte[] body = Files.readAllBytes(bodyFile.toPath());
+			ret = new HttpResponse();
+			ret.setStatus(200);
+			ret.setHeaders(entry.headers);
+			ret.setContent(new String(body, StandardCharsets.UTF_8));
+			bodyFile.setLastModified(System.currentTimeMillis());
+		}
+		catch (IOException e) {
+			log.log(Level.WARNING, "Failed to read cache entry " + entry.url, e);
+			remove(entry.key);
+		}
+		return ret;
+	}
+
+	/**
+	 * Store a response.
+	 * Only successful responses with text content are stored, that have an
+	 * ETag or Last-Modified header or a TTL configured.
+	 * @param key Key, see makeKey
+	 * @param url Request URL
+	 * @param response Response
+	 */
+	public void put(String key, String url, HttpResponse response) {
+		misses.incrementAndGet();
+		if (response.getStatus() != 200 || response.getFile() != null) {
+			return;
+		}
+		String[] headers = response.getHeaders();
+		String cacheControl = Default.value(HttpResponse.findHeader(headers, "Cache-Control")).toLowerCase();
+		if (cacheControl.contains("no-store")) {
+			return;
+		}
+		String etag = HttpResponse.findHeader(headers, "ETag");
+		String lastModified = HttpResponse.findHeader(headers, "Last-Modified");
+		if (etag == null && lastModified == null && getTTL(url) == 0) {
+			return;
+		}
+
+		Entry entry = new Entry(key);
+		entry.url = url;
+		entry.etag = etag;
+		entry.lastModified = lastModified;
+		entry.storedAt = System.currentTimeMillis();
+		entry.headers = getStorableHeaders(headers);
+		byte[] body = response.getContent().getBytes(StandardCharsets.UTF_8);
+		entry.size = body.length;
+		if (entry.size > maxSizeBytes) {
+			return;
+		}
+
+		synchronized (this) {
+			try {
+				writeAtomic(new File(dir, key + BODY_EXT), body);
+				writeMeta(entry);
+				Entry old = entries.put(key, entry);
+				if (old != null) {
+					size -= old.size;
+				}
+				size += entry.size;
+				evict();
+			}
+			catch (IOException e) {
+				log.log(Level.WARNING, "Failed to store cache entry " + url, e);
+				remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public synchronized void clear() {
+		for (String key : new ArrayList<String>(entries.keySet())) {
+			remove(key);
+		}
+	}
+
+	private synchronized void remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			size -= entry.size;
+		}
+		new File(dir, key + BODY_EXT).delete();
+		new File(dir, key + META_EXT).delete();
+	}
+
+	private void evict() {
+		for (Iterator<Entry> it = entries.values().iterator(); size > maxSizeBytes && it.hasNext();) {
+			Entry entry = it.next();
+			it.remove();
+			size -= entry.size;
+			new File(dir, entry.key + BODY_EXT).delete();
+			new File(dir, entry.key + META_EXT).delete();
+			evictions.incrementAndGet();
+			if (log.isLoggable(Level.FINE)) log.fine("evict " + entry.url);
+		}
+	}
+
+	private void writeMeta(Entry entry) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("url", entry.url);
+		if (entry.etag != null) props.setProperty("etag", entry.etag);
+		if (entry.lastModified != null) props.setProperty("lastModified", entry.lastModified);
+		props.setProperty("storedAt", Long.toString(entry.storedAt));
+		props.setProperty("size", Long.toString(entry.size));
+		StringBuilder sbuf = new StringBuilder();
+		for (String header : entry.headers) {
+			if (sbuf.length() != 0) sbuf.append('\n');
+			sbuf.append(header);
+		}
+		props.setProperty("headers", sbuf.toString());
+		File metaFile = new File(dir, entry.key + META_EXT);
+		File tempFile = new File(dir, entry.key + ".tmp");
+		OutputStream os = new FileOutputStream(tempFile);
+		try {
+			props.store(os, null);
+		}
+		finally {
+			os.close();
+		}
+		Files.move(tempFile.toPath(), metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void writeAtomic(File file, byte[] data) throws IOException {
+		File tempFile = new File(dir, file.getName() + ".tmp");
+		Files.write(tempFile.toPath(), data);
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Load entries of a previous session. Least recently used entries first.
+	 */
+	private synchronized void load() {
+		File[] metaFiles = dir.listFiles((d, name) -> name.endsWith(META_EXT));
+		if (metaFiles == null) {
+			return;
+		}
+		List<File> bodyFiles = new ArrayList<File>();
+		for (File metaFile : metaFiles) {
+			String key = metaFile.getName().substring(0, metaFile.getName().length() - META_EXT.length());
+			File bodyFile = new File(dir, key + BODY_EXT);
+			if (bodyFile.exists()) {
+				bodyFiles.add(bodyFile);
+			}
+			else {
+				metaFile.delete();
+			}
+		}
+		bodyFiles.sort(Comparator.comparingLong(File::lastModified));
+
+		for (File bodyFile : bodyFiles) {
+			String key = bodyFile.getName().substring(0, bodyFile.getName().length() - BODY_EXT.length());
+			Properties props = new Properties();
+			try {
+				InputStream is = new FileInputStream(new File(dir, key + META_EXT));
+				try {
+					props.load(is);
+				}
+				finally {
+					is.close();
+				}
+				Entry entry = new Entry(key);
+				entry.url = props.getProperty("url", "");
+				entry.etag = props.getProperty("etag");
+				entry.lastModified = props.getProperty("lastModified");
+				entry.storedAt = Long.parseLong(props.getProperty("storedAt", "0"));
+				entry.size = Long.parseLong(props.getProperty("size", "0"));
+				entry.headers = getStorableHeaders(props.getProperty("headers", "").split("\n"));
+				entries.put(key, entry);
+				size += entry.size;
+			}
+			catch (IOException | NumberFormatException e) {
+				log.log(Level.WARNING, "Failed to load cache entry " + bodyFile, e);
+				bodyFile.delete();
+				new File(dir, key + META_EXT).delete();
+			}
+		}
+		evict();
+		if (log.isLoggable(Level.FINE)) log.fine("loaded " + entries.size() + " cache entries, #bytes=" + size);
+	}
+
+	private static String sha256(String s) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] digest = md.digest(s.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sbuf = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sbuf.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sbuf.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return Number of responses served from the cache without asking the server.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return Number of responses served from the cache after the server answered "304 Not Modified".
+	 */
+	public long getRevalidations() {
+		return revalidations.get();
+	}
+
+	/**
+	 * @return Number of responses received from the server.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	public synchronized String toString() {
+		return "[HttpCache " + dir + ", #entries=" + getEntryCount() + ", #bytes=" + getSize() + ", hits=" + hits
+				+ ", revalidations=" + revalidations + ", misses=" + misses + ", evictions=" + evictions
+				+ ", ttl=" + Arrays.toString(ttlSeconds.entrySet().toArray()) + "]";
+	}
+}
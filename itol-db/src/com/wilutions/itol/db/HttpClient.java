@@ -11,9 +11,11 @@
 package com.wilutions.itol.db;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -21,40 +23,698 @@ import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 
+import org.json.JSONException;
+
 public class HttpClient {
 
 	private final static Logger log = Logger.getLogger(HttpClient.class.getName());
 
-	private static HashMap<String, String> redirections = new HashMap<>();
-	
+	/**
+	 * Learned redirections, kept in memory until the application sets the file.
+	 */
+	private final static HttpRedirections redirections = new HttpRedirections(null);
+
 	public final static int CONNECT_TIMEOUT_SECONDS = 10;
 
+	public final static int DEFAULT_READ_TIMEOUT_SECONDS = 60;
+
+	private static volatile int readTimeoutSeconds = DEFAULT_READ_TIMEOUT_SECONDS;
+
+	private final static HttpWatchdog watchdog = new HttpWatchdog();
+
+	/**
+	 * Number of bytes transferred between two progress notifications for uploaded and downloaded files.
+	 */
+	private final static long TRANSFER_CHUNK_SIZE = 256 * 1024;
+
+	public final static int DEFAULT_BULK_MAX_CONNECTIONS_PER_ROUTE = HttpRangeDownload.DEFAULT_PARALLEL_RANGES;
+
+	public final static int DEFAULT_BULK_MAX_THREADS = HttpRangeDownload.DEFAULT_PARALLEL_RANGES;
+
+	private final static HttpConnectionPool connectionPool = new HttpConnectionPool();
+
+	/**
+	 * Connections for BULK requests. Uploads and downloads of large files
+	 * cannot occupy the connections of INTERACTIVE requests.
+	 */
+	private final static HttpConnectionPool bulkConnectionPool = new HttpConnectionPool();
+
+	private static volatile HttpTransport transport = new PooledHttpTransport(connectionPool, bulkConnectionPool);
+
+	private final static HttpExecutor executor = new HttpExecutor("HttpClient");
+
+	private final static HttpExecutor bulkExecutor = new HttpExecutor("HttpClient-bulk", DEFAULT_BULK_MAX_THREADS);
+
+	private static volatile HttpCache cache;
+
+	/**
+	 * Directory of the cache. The cache holds issue data and must not be stored in a shared location.
+	 */
+	private static volatile File cacheDirectory;
+
+	private static volatile File downloadDirectory = new File(System.getProperty("java.io.tmpdir"));
+
+	private static volatile int downloadRanges = HttpRangeDownload.DEFAULT_PARALLEL_RANGES;
+
+	private final static HttpMetrics metrics = new HttpMetrics();
+
+	/**
+	 * Bandwidth limit shared by all BULK uploads.
+	 */
+	private final static HttpRateLimiter uploadLimiter = new HttpRateLimiter(0);
+
+	private static volatile HttpSingleFlight singleFlight = new HttpSingleFlight();
+
+	private static volatile HttpRequestCompression requestCompression;
+
+	private static volatile boolean prewarmEnabled = true;
+
+	/**
+	 * Origins passed to prewarm(). They are warmed up again after a network change.
+	 */
+	private final static Set<String> prewarmOrigins = ConcurrentHashMap.newKeySet();
+
+	private final static HttpNetworkMonitor networkMonitor = new HttpNetworkMonitor(() -> networkChanged());
+
 	static {
 		// see #12 "handshake alert: unrecognized_name"
 		// http://stackoverflow.com/questions/7615645/ssl-handshake-alert-unrecognized-name-error-since-upgrade-to-java-1-7-0
 		System.setProperty("jsse.enableSNIExtension", "false");
 	}
 	
+	/**
+	 * Apply the HTTP options of the add-in configuration.
+	 * @param configProps Configuration properties, see Property.HTTP_...
+	 */
+	public static void setConfig(List<Property> configProps) {
+		connectionPool.setMaxConnectionsPerRoute(getConfigInt(configProps, Property.HTTP_MAX_CONNECTIONS_PER_ROUTE,
+				HttpConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+		connectionPool.setIdleTimeoutSeconds(getConfigInt(configProps, Property.HTTP_IDLE_TIMEOUT_SECONDS,
+				HttpConnectionPool.DEFAULT_IDLE_TIMEOUT_SECONDS));
+		executor.configure(getConfigInt(configProps, Property.HTTP_MAX_THREADS, HttpExecutor.DEFAULT_MAX_THREADS),
+				getConfigInt(configProps, Property.HTTP_QUEUE_CAPACITY, HttpExecutor.DEFAULT_QUEUE_CAPACITY),
+				getConfigBoolean(configProps, Property.HTTP_VIRTUAL_THREADS, true));
+
+		bulkConnectionPool.setMaxConnectionsPerRoute(getConfigInt(configProps, Property.HTTP_BULK_MAX_CONNECTIONS_PER_ROUTE,
+				DEFAULT_BULK_MAX_CONNECTIONS_PER_ROUTE));
+		bulkConnectionPool.setIdleTimeoutSeconds(getConfigInt(configProps, Property.HTTP_IDLE_TIMEOUT_SECONDS,
+				HttpConnectionPool.DEFAULT_IDLE_TIMEOUT_SECONDS));
+		bulkExecutor.configure(getConfigInt(configProps, Property.HTTP_BULK_MAX_THREADS, DEFAULT_BULK_MAX_THREADS),
+				getConfigInt(configProps, Property.HTTP_QUEUE_CAPACITY, HttpExecutor.DEFAULT_QUEUE_CAPACITY),
+				getConfigBoolean(configProps, Property.HTTP_VIRTUAL_THREADS, true));
+
+		readTimeoutSeconds = Math.max(0, getConfigInt(configProps, Property.HTTP_READ_TIMEOUT_SECONDS, DEFAULT_READ_TIMEOUT_SECONDS));
+
+		uploadLimiter.setBytesPerSecond(Math.max(0, getConfigInt(configProps, Property.HTTP_UPLOAD_LIMIT_KBPS, 0)) * 1024L);
+
+		downloadRanges = getConfigInt(configProps, Property.HTTP_DOWNLOAD_RANGES, HttpRangeDownload.DEFAULT_PARALLEL_RANGES);
+
+		prewarmEnabled = getConfigBoolean(configProps, Property.HTTP_PREWARM, true);
+		if (!prewarmEnabled) {
+			networkMonitor.stop();
+		}
+
+		if (getConfigBoolean(configProps, Property.HTTP_COALESCE_REQUESTS, true)) {
+			if (singleFlight == null) {
+				singleFlight = new HttpSingleFlight();
+			}
+		}
+		else {
+			singleFlight = null;
+		}
+
+		if (getConfigBoolean(configProps, Property.HTTP_COMPRESS_REQUESTS, false)) {
+			if (requestCompression == null) {
+				requestCompression = new HttpRequestCompression();
+			}
+		}
+		else {
+			requestCompression = null;
+		}
+
+		if (getConfigBoolean(configProps, Property.HTTP_CACHE_ENABLED, false)) {
+			long maxSizeBytes = getConfigInt(configProps, Property.HTTP_CACHE_MAX_SIZE_MB, HttpCache.DEFAULT_MAX_SIZE_MB) * 1024L * 1024L;
+			HttpCache c = cache;
+			File dir = cacheDirectory;
+			if (dir == null) {
+				log.warning("HTTP cache disabled, no cache directory set.");
+				c = null;
+			}
+			else {
+				if (c == null || !c.getDirectory().equals(dir)) {
+					c = new HttpCache(dir, maxSizeBytes);
+				}
+				c.setMaxSizeBytes(maxSizeBytes);
+				c.setTTLs(getConfigString(configProps, Property.HTTP_CACHE_TTL, ""));
+			}
+			cache = c;
+		}
+		else {
+			cache = null;
+		}
+
+		String replayDir = getConfigString(configProps, Property.HTTP_REPLAY_DIRECTORY, "").trim();
+		String recordDir = getConfigString(configProps, Property.HTTP_RECORD_DIRECTORY, "").trim();
+		double latencyScale = 1;
+		try {
+			latencyScale = Double.parseDouble(getConfigString(configProps, Property.HTTP_REPLAY_LATENCY_SCALE, "1").trim());
+		}
+		catch (NumberFormatException e) {
+			log.warning("Invalid " + Property.HTTP_REPLAY_LATENCY_SCALE + ", " + e);
+		}
+		try {
+			setReplayDirectory(!replayDir.isEmpty() ? new File(replayDir) : null, latencyScale);
+			if (replayDir.isEmpty()) {
+				setRecordDirectory(!recordDir.isEmpty() ? new File(recordDir) : null);
+			}
+		}
+		catch (IOException e) {
+			log.log(Level.WARNING, "Failed to record or replay HTTP traffic", e);
+		}
+	}
+
+	/**
+	 * Get the transport used to send requests.
+	 * @return HttpTransport
+	 */
+	public static HttpTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Replace the transport used to send requests.
+	 * An active recording is stopped.
+	 * @param transport Transport or null to restore the default transport.
+	 */
+	public static synchronized void setTransport(HttpTransport transport) {
+		HttpTransport t = HttpClient.transport;
+		if (t instanceof HttpRecordingTransport && t != transport) {
+			t.close();
+		}
+		HttpClient.transport = transport != null ? transport : new PooledHttpTransport(connectionPool, bulkConnectionPool);
+	}
+
+	/**
+	 * Record the requests and responses into a directory, see HttpRecordingTransport.
+	 * @param dir Directory or null to stop recording.
+	 * @throws IOException
+	 */
+	public static synchronized void setRecordDirectory(File dir) throws IOException {
+		HttpTransport t = transport;
+		if (t instanceof HttpRecordingTransport) {
+			HttpRecordingTransport recorder = (HttpRecordingTransport) t;
+			if (recorder.getDirectory().equals(dir)) {
+				return;
+			}
+			recorder.close();
+			t = recorder.getTransport();
+		}
+		transport = dir != null ? new HttpRecordingTransport(t, dir) : t;
+	}
+
+	/**
+	 * Answer requests from a recording instead of sending them, see HttpReplayTransport.
+	 * @param dir Directory of the recording or null to restore the default transport.
+	 * @param latencyScale Factor applied to the recorded latencies.
+	 * @throws IOException
+	 */
+	public static synchronized void setReplayDirectory(File dir, double latencyScale) throws IOException {
+		HttpTransport t = transport;
+		if (t instanceof HttpReplayTransport) {
+			HttpReplayTransport replay = (HttpReplayTransport) t;
+			if (replay.getDirectory().equals(dir)) {
+				replay.setLatencyScale(latencyScale);
+				return;
+			}
+			if (dir == null) {
+				setTransport(null);
+			}
+		}
+		if (dir != null) {
+			setTransport(new HttpReplayTransport(dir, latencyScale));
+		}
+	}
+
+	/**
+	 * Pool of the default transport.
+	 * @return HttpConnectionPool
+	 */
+	public static HttpConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
+	/**
+	 * Executor of the ...Async functions.
+	 * @return HttpExecutor
+	 */
+	public static HttpExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Bandwidth limit of uploads of files and streams in the BULK lane.
+	 * The rate can be changed while uploads are running.
+	 * @return HttpRateLimiter
+	 */
+	public static HttpRateLimiter getUploadLimiter() {
+		return uploadLimiter;
+	}
+
+	/**
+	 * Executor of a lane.
+	 * @param priority Lane
+	 * @return HttpExecutor
+	 */
+	public static HttpExecutor getExecutor(HttpRequest.Priority priority) {
+		return priority == HttpRequest.Priority.BULK ? bulkExecutor : executor;
+	}
+
+	/**
+	 * Pool of a lane of the default transport.
+	 * @param priority Lane
+	 * @return HttpConnectionPool
+	 */
+	public static HttpConnectionPool getConnectionPool(HttpRequest.Priority priority) {
+		return priority == HttpRequest.Priority.BULK ? bulkConnectionPool : connectionPool;
+	}
+
+	/**
+	 * URL rewrite rules learned from redirected requests.
+	 * @return HttpRedirections
+	 */
+	public static HttpRedirections getRedirections() {
+		return redirections;
+	}
+
+	/**
+	 * Cache for GET requests.
+	 * @return HttpCache or null, if caching is disabled.
+	 */
+	public static HttpCache getCache() {
+		return cache;
+	}
+
+	public static File getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	/**
+	 * Set the directory of the cache for GET requests.
+	 * It takes effect with the next call to setConfig().
+	 * @param cacheDirectory Directory, only readable by the user.
+	 */
+	public static void setCacheDirectory(File cacheDirectory) {
+		HttpClient.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * Set the cache for GET requests.
+	 * @param cache HttpCache or null to disable caching.
+	 */
+	public static void setCache(HttpCache cache) {
+		HttpClient.cache = cache;
+	}
+
+	/**
+	 * Timings of the requests.
+	 * @return HttpMetrics
+	 */
+	public static HttpMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Maximum time to wait for data from the server, see Property.HTTP_READ_TIMEOUT_SECONDS.
+	 * @return Seconds, 0 waits infinitely.
+	 */
+	public static int getReadTimeoutSeconds() {
+		return readTimeoutSeconds;
+	}
+
+	/**
+	 * Directory of partially downloaded files, see downloadResumable.
+	 * @return Directory
+	 */
+	public static File getDownloadDirectory() {
+		return downloadDirectory;
+	}
+
+	public static void setDownloadDirectory(File downloadDirectory) {
+		HttpClient.downloadDirectory = downloadDirectory;
+	}
+
+	/**
+	 * Coalescing of identical GET requests.
+	 * @return HttpSingleFlight or null, if coalescing is disabled.
+	 */
+	public static HttpSingleFlight getSingleFlight() {
+		return singleFlight;
+	}
+
+	/**
+	 * Compression of JSON request bodies.
+	 * @return HttpRequestCompression or null, if request bodies are not compressed.
+	 */
+	public static HttpRequestCompression getRequestCompression() {
+		return requestCompression;
+	}
+
+	/**
+	 * Enable or disable compression of JSON request bodies.
+	 * @param enabled true to compress request bodies, if the server accepts it.
+	 */
+	public static void setRequestCompression(boolean enabled) {
+		if (!enabled) {
+			requestCompression = null;
+		}
+		else if (requestCompression == null) {
+			requestCompression = new HttpRequestCompression();
+		}
+	}
+
+	static String getConfigString(List<Property> configProps, String propId, String defaultValue) {
+		String ret = defaultValue;
+		if (configProps != null) {
+			for (Property prop : configProps) {
+				if (prop.getId().equals(propId) && prop.getValue() != null) {
+					ret = prop.getValue().toString();
+					break;
+				}
+			}
+		}
+		return ret;
+	}
+
+	static int getConfigInt(List<Property> configProps, String propId, int defaultValue) {
+		int ret = defaultValue;
+		if (configProps != null) {
+			for (Property prop : configProps) {
+				if (prop.getId().equals(propId) && prop.getValue() != null) {
+					try {
+						ret = Integer.parseInt(prop.getValue().toString().trim());
+					}
+					catch (NumberFormatException e) {
+						log.warning("Invalid value for configuration property " + propId + "=" + prop.getValue());
+					}
+					break;
+				}
+			}
+		}
+		return ret;
+	}
+
+	static boolean getConfigBoolean(List<Property> configProps, String propId, boolean defaultValue) {
+		boolean ret = defaultValue;
+		if (configProps != null) {
+			for (Property prop : configProps) {
+				if (prop.getId().equals(propId) && prop.getValue() != null) {
+					ret = Boolean.parseBoolean(prop.getValue().toString().trim());
+					break;
+				}
+			}
+		}
+		return ret;
+	}
+
 	public static CompletableFuture<HttpResponse> sendAsync(String surl, String method, String[] headers, Object content, ProgressCallback cb) {
-		return CompletableFuture.supplyAsync(() -> send(surl, method, headers, content, cb));
+		return sendAsync(new HttpRequest(surl, method, headers, content), cb);
+	}
+
+	public static CompletableFuture<HttpResponse> sendAsync(HttpRequest request, ProgressCallback cb) {
+		try {
+			return CompletableFuture.supplyAsync(() -> send(request, cb), getExecutor(request.getPriority()));
+		}
+		catch (RejectedExecutionException e) {
+			CompletableFuture<HttpResponse> ret = new CompletableFuture<HttpResponse>();
+			ret.completeExceptionally(e);
+			return ret;
+		}
+	}
+
+	/**
+	 * Open a connection to the server in the background.
+	 * Resolves the host name, connects and negotiates TLS, so that the next
+	 * request does not have to. The TLS session is kept for resumption by further
+	 * connections. The origin is warmed up again after a network change.
+	 * @param url URL of the server, only scheme, host and port are used.
+	 * @return Future, true if a connection was opened.
+	 */
+	public static CompletableFuture<Boolean> prewarm(String url) {
+		if (!prewarmEnabled || url == null || url.isEmpty()) {
+			return CompletableFuture.completedFuture(false);
+		}
+		String origin = null;
+		try {
+			URL u = new URL(redirections.rewrite(url));
+			origin = new URL(u.getProtocol(), u.getHost(), u.getPort(), "/").toString();
+		}
+		catch (MalformedURLException e) {
+			log.warning("Cannot prewarm connection to URL=" + url + ", " + e);
+			return CompletableFuture.completedFuture(false);
+		}
+		prewarmOrigins.add(origin);
+		networkMonitor.start(HttpNetworkMonitor.DEFAULT_INTERVAL_SECONDS);
+
+		final String prewarmUrl = origin;
+		try {
+			return CompletableFuture.supplyAsync(() -> {
+				boolean ret = false;
+				long startTime = System.currentTimeMillis();
+				try {
+					ret = transport.prewarm(prewarmUrl);
+					log.info("[" + (System.currentTimeMillis() - startTime) + "] prewarm " + prewarmUrl + ", connected="
+							+ ret);
+				}
+				catch (IOException e) {
+					log.info("Failed to prewarm connection to " + prewarmUrl + ", " + e);
+				}
+				return ret;
+			}, executor);
+		}
+		catch (RejectedExecutionException e) {
+			return CompletableFuture.completedFuture(false);
+		}
+	}
+
+	/**
+	 * Check whether a request to the given URL would find an open connection.
+	 * @param url URL
+	 * @return true, if warm; false, if the request has to connect first.
+	 */
+	public static boolean isWarm(String url) {
+		return transport.isWarm(redirections.rewrite(url));
+	}
+
+	/**
+	 * Close idle connections and warm up the origins passed to prewarm() again.
+	 * Called by the network monitor, if the addresses of the network interfaces have changed.
+	 */
+	public static void networkChanged() {
+		connectionPool.closeIdle();
+		bulkConnectionPool.closeIdle();
+		for (String origin : prewarmOrigins) {
+			prewarm(origin);
+		}
+	}
+
+	/**
+	 * Send requests in parallel.
+	 * The calling thread sends requests too, the others are sent by the executor
+	 * of the lane of the first request. The calling thread only waits for requests
+	 * that are being sent, never for workers still queued in the executor. So it
+	 * can be a thread of the executor itself.
+	 * @param requests Requests
+	 * @param maxParallel Maximum number of requests sent at the same time.
+	 * Limited to the connections per route of the lane's connection pool.
+	 * @param cb Progress callback or null. Progress is the number of finished requests.
+	 * If it is cancelled, requests not sent yet are answered with an error message.
+	 * @return Responses in the order of the requests.
+	 */
+	public static List<HttpResponse> sendAll(List<HttpRequest> requests, int maxParallel, ProgressCallback cb) {
+		if (cb == null) {
+			cb = HttpOperation.current();
+		}
+		ProgressCallback batchCb = cb != null ? cb : new ProgressCallbackImpl("HttpClient.sendAll");
+		int nbOfRequests = requests.size();
+		HttpResponse[] responses = new HttpResponse[nbOfRequests];
+		AtomicInteger nextIndex = new AtomicInteger();
+		AtomicInteger nbOfFinished = new AtomicInteger();
+		CountDownLatch finished = new CountDownLatch(nbOfRequests);
+		AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		batchCb.setTotal(nbOfRequests);
+
+		Runnable worker = () -> {
+			int idx;
+			while ((idx = nextIndex.getAndIncrement()) < nbOfRequests) {
+				HttpRequest request = requests.get(idx);
+				HttpResponse response = null;
+				try {
+					if (batchCb.isCancelled()) {
+						response = new HttpResponse();
+						response.setErrorMessage("HTTP request to URL=" + request.getUrl() + " failed. "
+								+ new InterruptedIOException().toString());
+					}
+					else {
+						response = send(request, new CancelOnlyProgressCallback(batchCb));
+					}
+					responses[idx] = response;
+					synchronized (batchCb) {
+						batchCb.setProgress(nbOfFinished.incrementAndGet());
+					}
+				}
+				catch (RuntimeException e) {
+					failure.compareAndSet(null, e);
+				}
+				finally {
+					finished.countDown();
+				}
+			}
+		};
+
+		HttpRequest.Priority priority = nbOfRequests != 0 ? requests.get(0).getPriority() : HttpRequest.Priority.INTERACTIVE;
+		HttpExecutor laneExecutor = getExecutor(priority);
+		// More workers would only wait for a connection of the lane.
+		maxParallel = Math.min(maxParallel, getConnectionPool(priority).getMaxConnectionsPerRoute());
+		int nbOfWorkers = Math.min(Math.max(1, maxParallel), nbOfRequests);
+		for (int i = 1; i < nbOfWorkers; i++) {
+			try {
+				laneExecutor.execute(worker);
+			}
+			catch (RejectedExecutionException e) {
+				// Remaining requests are sent by the other workers.
+				break;
+			}
+		}
+		worker.run();
+
+		// Workers that start after all requests have been taken return immediately.
+		boolean interrupted = false;
+		while (true) {
+			try {
+				finished.await();
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return Arrays.asList(responses);
+	}
+
+	public static CompletableFuture<List<HttpResponse>> sendAllAsync(List<HttpRequest> requests, int maxParallel, ProgressCallback cb) {
+		try {
+			HttpExecutor laneExecutor = !requests.isEmpty() ? getExecutor(requests.get(0).getPriority()) : executor;
+			return CompletableFuture.supplyAsync(() -> sendAll(requests, maxParallel, cb), laneExecutor);
+		}
+		catch (RejectedExecutionException e) {
+			CompletableFuture<List<HttpResponse>> ret = new CompletableFuture<List<HttpResponse>>();
+			ret.completeExceptionally(e);
+			return ret;
+		}
 	}
 
 	public static HttpResponse send(String surl, String method, String[] headers, Object content, ProgressCallback cb) {
+		return send(new HttpRequest(surl, method, headers, content), cb);
+	}
+
+	/**
+	 * Send a request.
+	 * @param request Request
+	 * @param cb Progress callback or null to use the callback of the current HttpOperation.
+	 * The request is aborted, if the callback is cancelled or its deadline has passed.
+	 * @return Response
+	 */
+	public static HttpResponse send(HttpRequest request, ProgressCallback cb) {
+		if (cb == null) {
+			cb = HttpOperation.current();
+		}
+		HttpSingleFlight singleFlight = HttpClient.singleFlight;
+		if (singleFlight != null && singleFlight.isCoalescable(request)) {
+			return singleFlight.send(request, cb, HttpClient::sendCached);
+		}
+		HttpRequestCompression requestCompression = HttpClient.requestCompression;
+		if (requestCompression != null && requestCompression.isCompressible(request)) {
+			return requestCompression.send(request, cb, HttpClient::sendCached);
+		}
+		return sendCached(request, cb);
+	}
+
+	private static HttpResponse sendCached(HttpRequest request, ProgressCallback cb) {
+		HttpCache cache = HttpClient.cache;
+		if (cache == null || !cache.isCacheable(request)) {
+			return internalSend(request, cb);
+		}
+
+		String url = request.getUrl();
+		String key = HttpCache.makeKey(request);
+		HttpCache.Entry entry = cache.get(key);
+		if (entry != null) {
+			if (cache.isFresh(entry)) {
+				HttpResponse ret = cache.getFreshResponse(entry);
+				if (ret != null) {
+					log.info("GET " + url + " from cache");
+					return ret;
+				}
+			}
+			cache.addConditionalHeaders(entry, request);
+		}
+
+		HttpResponse ret = internalSend(request, cb);
+
+		if (entry != null && ret.getStatus() == 304) {
+			HttpResponse cachedResponse = cache.getRevalidatedResponse(entry, ret);
+			if (cachedResponse != null) {
+				ret = cachedResponse;
+			}
+			else {
+				// The entry was removed after the conditional headers were added.
+				// The 304 response has no body, send the request unconditionally.
+				log.info("GET " + url + " again, cache entry removed");
+				cache.removeConditionalHeaders(request);
+				ret = internalSend(request, cb);
+				cache.put(key, url, ret);
+			}
+		}
+		else {
+			cache.put(key, url, ret);
+		}
+		return ret;
+	}
+
+	private static HttpResponse internalSend(HttpRequest request, ProgressCallback cb) {
+		String surl = request.getUrl();
+		String method = request.getMethod();
+		Object content = request.getContent();
 		if (log.isLoggable(Level.FINE)) {
 			log.fine("send(" + method + ", surl=" + surl);
-			log.fine("headers=" + Arrays.toString(headers));
+			log.fine("headers=" + request.getHeaders());
 			log.fine("content=" + content);
 		}
 
@@ -63,30 +723,31 @@ public class HttpClient {
 		}
 
 		long startTime = System.currentTimeMillis();
-		HttpURLConnection conn = null;
+		HttpExchange exchange = null;
 		HttpResponse ret = new HttpResponse();
 
-		for (String key : redirections.keySet()) {
-			int p = surl.indexOf(key);
-			if (p >= 0) {
-				String srepl = redirections.get(key);
-				log.fine("redirect, replace part=" + key + " with " + srepl);
-
-				String nurl = surl.substring(0, p) + srepl + surl.substring(p + key.length());
-				log.info("redirect, new-url=" + nurl);
-				surl = nurl;
-			}
+		String nurl = redirections.rewrite(surl);
+		if (!nurl.equals(surl)) {
+			log.info("redirect, new-url=" + nurl);
+			surl = nurl;
 		}
+		request.setUrl(surl);
 
+		HttpRequestMetrics requestMetrics = new HttpRequestMetrics(method, surl);
+		requestMetrics.setPriority(request.getPriority());
+		boolean streaming = false;
+		HttpWatchdog.Watch watch = null;
+		boolean defaultReadTimeout = request.getReadTimeoutMillis() < 0;
 		try {
 			URL url = new URL(surl);
-			conn = (HttpURLConnection) (url.openConnection());
-
-			conn.setConnectTimeout(CONNECT_TIMEOUT_SECONDS * 1000);
 
-			conn.setRequestMethod(method);
-			conn.setDoOutput(content != null);
-			// conn.setInstanceFollowRedirects(false);
+			if (cb.isCancelled()) {
+				throw new InterruptedIOException("Request cancelled.");
+			}
+			if (defaultReadTimeout) {
+				request.setReadTimeoutMillis(getReadTimeoutMillis(cb.getDeadline()));
+			}
+			request.setCancelled(cb::isCancelled);
 
 			long contentLength = -1;
 			String contentDisposition = "";
@@ -96,63 +757,68 @@ public class HttpClient {
 				byte[] buf = ((String)content).getBytes("UTF-8");
 				content = new ByteArrayInputStream(buf);
 				contentLength = buf.length;
-				conn.setRequestProperty("Content-Length", Long.toString(contentLength));
+				request.setContent(content);
 			}
 
-			conn.addRequestProperty("Accept-Encoding", "gzip");
-			
-			for (String header : headers) {
-				int p = header.indexOf(":");
-				String key = header.trim();
-				String value = "";
-				if (p >= 0) {
-					key = header.substring(0, p).trim();
-					value = header.substring(p + 1).trim();
-				}
-				conn.setRequestProperty(key, value);
+			if (request.getHeader("Accept-Encoding") == null) {
+				request.setHeader("Accept-Encoding", "gzip");
+			}
 
-				if (key.equalsIgnoreCase("Content-Length")) {
-					try {
-						contentLength = Long.parseLong(value);
-					}
-					catch (NumberFormatException ignored) {
-					}
+			String contentLengthHeader = request.getHeader("Content-Length");
+			if (contentLengthHeader != null) {
+				try {
+					contentLength = Long.parseLong(contentLengthHeader);
+				}
+				catch (NumberFormatException ignored) {
 				}
 			}
+			if (content instanceof File && contentLength < 0) {
+				contentLength = ((File) content).length();
+			}
+			request.setContentLength(content != null ? contentLength : -1);
 			
 			log.info(method + " " + url + " #" + contentLength);
 
-			if (content != null) {
-
-				conn.setUseCaches(false);
-				if (contentLength >= 0) {
-					conn.setFixedLengthStreamingMode(contentLength);
-				}
-				else if (!(content instanceof String)) {
-					conn.setChunkedStreamingMode(9000);
-				}
+			exchange = getTransport().open(request);
+			watch = watchdog.watch(exchange, cb);
+			requestMetrics.setOpenMillis(System.currentTimeMillis() - startTime);
 
+			if (content != null) {
 				ProgressCallback subcb = cb.createChild("upload");
+				long uploadStartTime = System.currentTimeMillis();
+				long uploadBytes = 0;
+				HttpRateLimiter limiter = request.getPriority() == HttpRequest.Priority.BULK ? uploadLimiter : null;
 				if (content instanceof File) {
-					writeFileIntoStream(conn.getOutputStream(), ((File) content), subcb);
+					uploadBytes = writeFileIntoExchange(exchange, ((File) content), contentLength, limiter, subcb);
 				}
 				else if (content instanceof InputStream) {
-					writeFileIntoStream(conn.getOutputStream(), ((InputStream) content), contentLength, subcb);
+					uploadBytes = writeFileIntoStream(exchange.getRequestBody(), ((InputStream) content), contentLength, limiter, subcb);
 				}
+				else if (content instanceof HttpBodyWriter) {
+					uploadBytes = writeBodyIntoStream(exchange.getRequestBody(), (HttpBodyWriter) content, contentLength, subcb);
+				}
+				exchange.getRequestBody().close();
+				requestMetrics.setUpload(uploadBytes, System.currentTimeMillis() - uploadStartTime);
 				subcb.setFinished();
 			}
 
 			ProgressCallback subcbRecv = cb.createChild("receive");
 			if (log.isLoggable(Level.FINE)) log.fine("getResponseCode...");
-			ret.setStatus(conn.getResponseCode());
+			ret.setStatus(exchange.getStatus());
 			if (log.isLoggable(Level.FINE)) log.fine("status=" + ret.getStatus());
+			requestMetrics.setTimeToFirstByteMillis(System.currentTimeMillis() - startTime);
+			requestMetrics.setStatus(ret.getStatus());
+			requestMetrics.setConnectionReused(exchange.isConnectionReused());
+			requestMetrics.setConnectMillis(exchange.getConnectMillis());
+			requestMetrics.setHandshakeMillis(exchange.getHandshakeMillis());
 
 			contentLength = -1;
 			contentDisposition = "";
 
 			ArrayList<String> responseHeaders = new ArrayList<String>();
-			for (String headerName : conn.getHeaderFields().keySet()) {
-				List<String> headerValues = conn.getHeaderFields().get(headerName);
+			Map<String, List<String>> headerFields = exchange.getHeaderFields();
+			for (String headerName : headerFields.keySet()) {
+				List<String> headerValues = headerFields.get(headerName);
 				if (log.isLoggable(Level.FINE)) log.fine("response header=" + headerName + ", values=" + headerValues);
 
 				String headerValue = "";
@@ -162,6 +828,12 @@ public class HttpClient {
 
 				String header = (headerName != null ? headerName : "") + ": " + headerValue;
 				responseHeaders.add(header);
+				if (headerName != null) {
+					// Keep repeated headers like Set-Cookie
+					for (int i = 1; i < headerValues.size(); i++) {
+						responseHeaders.add(headerName + ": " + headerValues.get(i));
+					}
+				}
 
 				if (headerName == null) {
 
@@ -181,20 +853,12 @@ public class HttpClient {
 			ret.setHeaders(responseHeaders.toArray(new String[responseHeaders.size()]));
 			subcbRecv.setFinished();
 
-			if (!url.equals(conn.getURL())) {
-				String ol = surl;
-				String nl = conn.getURL().toString();
-				log.info("was redirected, old-url=" + ol + ", new-url=" + nl);
-				for (int i = 0; i < ol.length(); i++) {
-					String sub = ol.substring(i);
-					int p = nl.indexOf(sub);
-					if (p >= 0) {
-						String sfind = ol.substring(0, i);
-						String srepl = nl.substring(0, p);
-						log.fine("add redirection replacement " + sfind + " -> " + srepl);
-						redirections.put(sfind, srepl);
-						break;
-					}
+			if (!url.equals(exchange.getURL())) {
+				String nl = exchange.getURL().toString();
+				log.info("was redirected, old-url=" + surl + ", new-url=" + nl);
+				// Temporary redirects, e.g. to a login page, must not be applied to later requests.
+				if (exchange.isPermanentlyRedirected()) {
+					redirections.learn(surl, nl);
 				}
 			}
 
@@ -203,57 +867,107 @@ public class HttpClient {
 				subcbDownload.setParams(contentDisposition);
 			}
 
-			String contentType = Default.value(conn.getHeaderField("Content-Type")).toLowerCase();
+			String contentType = Default.value(exchange.getHeaderField("Content-Type")).toLowerCase();
 			boolean isStringContent = contentType.contains("json") || contentType.contains("text/html");
 			
-			String contentEncoding = conn.getHeaderField("Content-Encoding");
+			String contentEncoding = exchange.getHeaderField("Content-Encoding");
 			boolean isGZIP = Default.value(contentEncoding).toLowerCase().contains("gzip");
 
+			long downloadStartTime = System.currentTimeMillis();
+			CountingInputStream receivedBytes = new CountingInputStream(exchange.getResponseBody());
+			CountingInputStream decodedBytes = receivedBytes;
 			try {
-				InputStream istream = conn.getInputStream();
+				InputStream istream = receivedBytes;
 				if (isGZIP) {
-					istream = new GZIPInputStream(istream, 10 * 1000); 
+					decodedBytes = new CountingInputStream(new GZIPInputStream(receivedBytes, 10 * 1000));
+					istream = decodedBytes;
 				}
 				
 				if (log.isLoggable(Level.FINE)) log.fine("read from input...");
 				long responseContentLength = 0;
-				if (isStringContent) {
+				if (ret.getStatus() >= 400) {
+					String msg = "Server returned HTTP response code: " + ret.getStatus() + " for URL: " + exchange.getURL();
+					log.info("send failed, " + msg);
+					ret.setErrorMessage(msg);
+					ret.setContent(readStringFromStream(istream, contentLength, subcbDownload));
+				}
+				else if (ret.getStatus() == 304) {
+					// Not modified, no body.
+				}
+				else if (request.isStreaming()) {
+					// The caller reads the body and closes the response.
+					ret.setInputStream(new ProgressInputStream(istream, contentLength, subcbDownload, exchange, startTime,
+							requestMetrics, receivedBytes, watch));
+					streaming = true;
+				}
+				else if (isStringContent) {
 					ret.setContent(readStringFromStream(istream, contentLength, subcbDownload));
 					responseContentLength = ret.getContent().length();
 				}
 				else {
-					ret.setFile(readFileFromStream(istream, contentLength, subcbDownload));
+					ret.setFile(readFileFromExchange(exchange, isGZIP ? istream : null, contentLength,
+							request.getDestination(), subcbDownload, watch, request.getReadTimeoutMillis()));
 					responseContentLength = ret.getFile().length();
 				}
 				
-				long endTime = System.currentTimeMillis();
-				log.info("[" + (endTime-startTime) + "] " + ret.getStatus() + " #" + responseContentLength);
+				if (!streaming) {
+					if (watch.getAbortReason() != null) {
+						// Do not return a body that has been cut off.
+						throw watch.getAbortReason();
+					}
+					long endTime = System.currentTimeMillis();
+					log.info("[" + (endTime-startTime) + "] " + ret.getStatus() + " #" + responseContentLength);
+				}
 
 			}
-			catch (IOException e) {
-				log.info("send failed, exception=" + e);
-				ret.setErrorMessage(e.getMessage());
-				if (log.isLoggable(Level.FINE)) log.fine("read from error...");
-				InputStream istream = conn.getErrorStream();
-				if (isGZIP) {
-					istream = new GZIPInputStream(istream, 10 * 1000); 
+			finally {
+				if (!streaming) {
+					subcbDownload.setFinished();
+					if (ret.getFile() != null && !isGZIP) {
+						// Received directly from the exchange.
+						long fileLength = ret.getFile().length();
+						requestMetrics.setDownload(fileLength, fileLength, System.currentTimeMillis() - downloadStartTime);
+					}
+					else {
+						requestMetrics.setDownload(receivedBytes.getCount(), decodedBytes.getCount(),
+								System.currentTimeMillis() - downloadStartTime);
+					}
 				}
-				ret.setContent(readStringFromStream(istream, contentLength, subcbDownload));
 			}
-			finally {
-				subcbDownload.setFinished();
+			
+			if (streaming) {
+				exchange = null;
+				watch = null;
 			}
 
 		}
 		catch (IOException e) {
+			if (watch != null && watch.getAbortReason() != null) {
+				// Report the cause instead of "socket closed"
+				e = watch.getAbortReason();
+			}
 			String msg = "HTTP request to URL=" + surl + " failed. ";
 			log.log(Level.WARNING, msg, e);
 			ret.setErrorMessage(msg + e.toString());
+			requestMetrics.setError(e.toString());
+			if (exchange != null) {
+				exchange.abort();
+			}
 		}
 		finally {
-			// if (conn != null) {
-			// conn.disconnect();
-			// }
+			if (watch != null) {
+				watch.close();
+			}
+			if (exchange != null) {
+				exchange.close();
+			}
+			if (defaultReadTimeout) {
+				request.setReadTimeoutMillis(-1);
+			}
+			request.setCancelled(null);
+			if (!streaming) {
+				metrics.requestFinished(requestMetrics);
+			}
 		}
 
 		if (log.isLoggable(Level.FINE)) {
@@ -262,80 +976,181 @@ public class HttpClient {
 		return ret;
 	}
 
-	private static File readFileFromStream(InputStream is, long contentLength, ProgressCallback cb) throws IOException {
-		cb.setTotal(contentLength);
-		File ret = null;
-		if (is != null) {
-			FileOutputStream fos = null;
-			try {
-				ret = File.createTempFile("itol", ".tmp");
-				fos = new FileOutputStream(ret);
-				byte[] buf = new byte[10000];
-				int len = 0;
-				double sum = 0;
-				while ((len = is.read(buf)) != -1) {
-
-					if (cb.isCancelled()) {
-						throw new InterruptedIOException();
-					}
+	/**
+	 * Map the remaining time until the deadline onto a socket read timeout.
+	 * @param deadline Deadline or 0
+	 * @return Read timeout in milliseconds, 0 to wait infinitely.
+	 * @throws SocketTimeoutException if the deadline has already passed.
+	 */
+	private static int getReadTimeoutMillis(long deadline) throws SocketTimeoutException {
+		long ret = readTimeoutSeconds * 1000L;
+		if (deadline != 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new SocketTimeoutException("Deadline exceeded.");
+			}
+			ret = ret != 0 ? Math.min(ret, remaining) : remaining;
+		}
+		return (int) Math.min(ret, Integer.MAX_VALUE);
+	}
 
-					fos.write(buf, 0, len);
+	/**
+	 * Write the response body into a file.
+	 * @param exchange Exchange
+	 * @param is Decoded stream, if the body is encoded, or null to read directly from the exchange.
+	 * @param contentLength Content length or -1
+	 * @param destination File or null to create a temporary file.
+	 * @param cb Progress callback
+	 * @param watch Watchdog entry of the exchange
+	 * @param readTimeoutMillis Read timeout of the request
+	 * @return File
+	 * @throws IOException
+	 */
+	private static File readFileFromExchange(HttpExchange exchange, InputStream is, long contentLength,
+			File destination, ProgressCallback cb, HttpWatchdog.Watch watch, int readTimeoutMillis) throws IOException {
+		cb.setTotal(contentLength);
+		File ret = destination != null ? destination : File.createTempFile("itol", ".tmp");
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(ret.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			if (is == null && readTimeoutMillis > 0) {
+				// Channel transfers do not observe the socket timeout. The watchdog takes over.
+				watch.setIdleTimeoutMillis(readTimeoutMillis);
+				exchange.setReadTimeout(0);
+			}
+			long sum = 0;
+			long len = 0;
+			while ((len = is != null ? HttpBufferPool.transfer(is, channel, sum, TRANSFER_CHUNK_SIZE)
+					: exchange.transferResponseBody(channel, sum, TRANSFER_CHUNK_SIZE)) >= 0) {
 
-					sum += len;
-					cb.setProgress(sum);
+				if (cb.isCancelled()) {
+					throw new InterruptedIOException();
 				}
+
+				watch.touch();
+				sum += len;
+				cb.setProgress(sum);
 			}
-			finally {
-				if (fos != null) {
-					try {
-						fos.close();
-					}
-					catch (IOException e) {
-					}
+		}
+		finally {
+			if (channel != null) {
+				try {
+					channel.close();
 				}
-				if (is != null) {
-					try {
-						is.close();
-					}
-					catch (IOException e) {
-					}
+				catch (IOException e) {
 				}
 			}
+			try {
+				(is != null ? is : exchange.getResponseBody()).close();
+			}
+			catch (IOException e) {
+			}
 		}
 		return ret;
 	}
 
-	private static void writeFileIntoStream(OutputStream os, File file, ProgressCallback cb) throws IOException {
-		writeFileIntoStream(os, new FileInputStream(file), file.length(), cb);
+	/**
+	 * Write a file into the request body.
+	 * @param exchange Exchange
+	 * @param file File
+	 * @param contentLength Number of bytes to write
+	 * @param limiter Bandwidth limit or null
+	 * @param cb Progress callback
+	 * @return Number of bytes written
+	 * @throws IOException
+	 */
+	private static long writeFileIntoExchange(HttpExchange exchange, File file, long contentLength,
+			HttpRateLimiter limiter, ProgressCallback cb) throws IOException {
+		if (log.isLoggable(Level.FINE)) log.fine("writeFileIntoExchange(contentLength=" + contentLength);
+		cb.setTotal(contentLength);
+		cb.setProgress(0);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		long sum = 0;
+		try {
+			while (sum < contentLength) {
+				long count = Math.min(TRANSFER_CHUNK_SIZE, contentLength - sum);
+				if (limiter != null) {
+					count = limiter.acquire((int) count, cb);
+				}
+				long len = exchange.transferRequestBody(channel, sum, count);
+				if (len <= 0) {
+					throw new EOFException("Unexpected end of file " + file + ", expected length=" + contentLength);
+				}
+
+				if (cb.isCancelled()) {
+					throw new InterruptedIOException();
+				}
+
+				sum += len;
+				cb.setProgress(sum);
+			}
+			if (log.isLoggable(Level.FINE)) log.fine("#written=" + sum);
+		}
+		finally {
+			channel.close();
+		}
+		if (log.isLoggable(Level.FINE)) log.fine(")writeFileIntoExchange");
+		return sum;
 	}
 
-	private static void writeFileIntoStream(OutputStream os, InputStream stream, long contentLength,
-			ProgressCallback cb) throws IOException {
+	private static long writeFileIntoStream(OutputStream os, InputStream stream, long contentLength,
+			HttpRateLimiter limiter, ProgressCallback cb) throws IOException {
 		if (log.isLoggable(Level.FINE)) log.fine("writeFileIntoStream(contentLength=" + contentLength);
 		cb.setTotal(contentLength);
 		cb.setProgress(0);
+		byte[] buf = HttpBufferPool.acquire();
+		long sum = 0;
 		try {
-			byte[] buf = new byte[10000];
 			int len = 0;
-			double sum = 0;
 			while ((len = stream.read(buf)) != -1) {
-				os.write(buf, 0, len);
+				int offset = 0;
+				while (offset < len) {
+					int count = limiter != null ? limiter.acquire(len - offset, cb) : len - offset;
+					os.write(buf, offset, count);
+					offset += count;
 
-				if (cb.isCancelled()) {
-					throw new InterruptedIOException();
-				}
+					if (cb.isCancelled()) {
+						throw new InterruptedIOException();
+					}
 
-				sum += (double) len;
-				cb.setProgress(sum);
+					sum += count;
+					cb.setProgress(sum);
+				}
 			}
 			if (log.isLoggable(Level.FINE)) log.fine("#written=" + sum);
 		}
 		finally {
+			HttpBufferPool.release(buf);
 			if (stream != null) {
 				stream.close();
 			}
 		}
 		if (log.isLoggable(Level.FINE)) log.fine(")writeFileIntoStream");
+		return sum;
+	}
+
+	/**
+	 * Let a body writer serialize the request body into the exchange.
+	 * @param os Request body stream
+	 * @param writer Body writer
+	 * @param contentLength Content length or -1, if unknown.
+	 * @param cb Progress callback, progress is the number of bytes written.
+	 * @return Number of bytes written
+	 * @throws IOException
+	 */
+	private static long writeBodyIntoStream(OutputStream os, HttpBodyWriter writer, long contentLength,
+			ProgressCallback cb) throws IOException {
+		if (log.isLoggable(Level.FINE)) log.fine("writeBodyIntoStream(contentLength=" + contentLength);
+		cb.setTotal(contentLength);
+		cb.setProgress(0);
+		ProgressOutputStream pos = new ProgressOutputStream(os, cb);
+		// Collect small writes into chunks of TRANSFER_CHUNK_SIZE.
+		BufferedOutputStream bos = new BufferedOutputStream(pos, (int) TRANSFER_CHUNK_SIZE);
+		writer.writeTo(bos);
+		bos.flush();
+		if (log.isLoggable(Level.FINE)) log.fine(")writeBodyIntoStream #written=" + pos.getCount());
+		return pos.getCount();
 	}
 
 	private static String readStringFromStream(InputStream is, long contentLength, ProgressCallback cb) throws IOException {
@@ -390,6 +1205,87 @@ public class HttpClient {
 		return send(url, "GET", headers, null, cb);
 	}
 
+	/**
+	 * Send a GET request and parse the JSON response while it is received.
+	 * The response body is not buffered into a String.
+	 * @param url URL
+	 * @param headers Request headers
+	 * @param cb Progress callback, can be null.
+	 * @return JSONObject or JSONArray
+	 * @throws IOException on error status (HTTP != 2xx), if the request was cancelled or the response is not valid JSON.
+	 */
+	public static Object getJSON(String url, String[] headers, ProgressCallback cb) throws IOException {
+		HttpRequest request = new HttpRequest(url, "GET", headers, null);
+		request.setStreaming(true);
+		HttpResponse response = send(request, cb);
+		try {
+			if (response.getStatus() < 200 || response.getStatus() > 299) {
+				String msg = "";
+				if (response.getStatus() != 0) {
+					msg += "HTTP Status " + response.getStatus() + ", ";
+				}
+				msg += response.getErrorMessage();
+				if (!response.getContent().isEmpty()) {
+					msg += ", " + response.getContent();
+				}
+				throw new IOException(msg);
+			}
+			return response.getTokener().nextValue();
+		}
+		catch (JSONException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Invalid JSON response from URL=" + url, e);
+		}
+		finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * Download a file.
+	 * @param url URL
+	 * @param headers Request headers or null
+	 * @param destination File into which the response body is written.
+	 * @param cb Progress callback
+	 * @return Response, getFile() returns the destination if the request succeeded.
+	 */
+	public static HttpResponse download(String url, String[] headers, File destination, ProgressCallback cb) {
+		HttpRequest request = new HttpRequest(url, "GET", headers, null);
+		request.setDestination(destination);
+		return send(request, cb);
+	}
+
+	public static CompletableFuture<HttpResponse> downloadAsync(String url, String[] headers, File destination, ProgressCallback cb) {
+		HttpRequest request = new HttpRequest(url, "GET", headers, null);
+		request.setDestination(destination);
+		return sendAsync(request, cb);
+	}
+
+	/**
+	 * Download a file in byte ranges, see HttpRangeDownload.
+	 * If the download fails, the received ranges are kept in the download directory
+	 * and the next call for the same URL continues where the download stopped.
+	 * @param url URL
+	 * @param headers Request headers or null
+	 * @param cb Progress callback
+	 * @return Response, getFile() returns a temporary file if the download succeeded.
+	 */
+	public static HttpResponse downloadResumable(String url, String[] headers, ProgressCallback cb) {
+		if (cb == null) {
+			cb = HttpOperation.current();
+		}
+		// All ranges are received over the bulk connections of the route.
+		int ranges = Math.min(downloadRanges, bulkConnectionPool.getMaxConnectionsPerRoute());
+		if (ranges <= 1) {
+			HttpRequest request = new HttpRequest(url, "GET", headers, null);
+			request.setPriority(HttpRequest.Priority.BULK);
+			return send(request, cb);
+		}
+		return new HttpRangeDownload(url, headers, downloadDirectory, ranges).download(cb);
+	}
+
 	public static CompletableFuture<HttpResponse> uploadAsync(String url, String[] headers, File file, ProgressCallback cb) {
 		return sendAsync(url, "POST", headers, file, cb);
 	}
@@ -398,6 +1294,173 @@ public class HttpClient {
 		return send(url, "POST", headers, file, cb);
 	}
 
+	/**
+	 * Counts the bytes read from the response body.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int c = in.read();
+			if (c >= 0) count++;
+			return c;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0) count += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long ret = in.skip(n);
+			count += ret;
+			return ret;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Request body written by a HttpBodyWriter.
+	 * Reports progress and checks for cancellation. Does not close the request body.
+	 */
+	private static class ProgressOutputStream extends FilterOutputStream {
+
+		private final ProgressCallback cb;
+		private long count;
+
+		ProgressOutputStream(OutputStream out, ProgressCallback cb) {
+			super(out);
+			this.cb = cb;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (cb.isCancelled()) {
+				throw new InterruptedIOException();
+			}
+			out.write(b, off, len);
+			count += len;
+			cb.setProgress(count);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Response body handed to the caller in streaming mode.
+	 * Reports progress, checks for cancellation and finishes the exchange on close.
+	 */
+	private static class ProgressInputStream extends FilterInputStream {
+
+		private final long contentLength;
+		private final ProgressCallback cb;
+		private final HttpExchange exchange;
+		private final long startTime;
+		private final long downloadStartTime;
+		private final HttpRequestMetrics requestMetrics;
+		private final CountingInputStream receivedBytes;
+		private final HttpWatchdog.Watch watch;
+		private double sum;
+		private boolean closed;
+
+		ProgressInputStream(InputStream in, long contentLength, ProgressCallback cb, HttpExchange exchange,
+				long startTime, HttpRequestMetrics requestMetrics, CountingInputStream receivedBytes,
+				HttpWatchdog.Watch watch) {
+			super(in);
+			this.contentLength = contentLength;
+			this.cb = cb;
+			this.exchange = exchange;
+			this.startTime = startTime;
+			this.downloadStartTime = System.currentTimeMillis();
+			this.requestMetrics = requestMetrics;
+			this.receivedBytes = receivedBytes;
+			this.watch = watch;
+			cb.setTotal(contentLength);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == 1 ? (b[0] & 0xFF) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (cb.isCancelled()) {
+				exchange.abort();
+				throw new InterruptedIOException();
+			}
+			int n = 0;
+			try {
+				n = in.read(b, off, len);
+			}
+			catch (IOException e) {
+				throw watch.getAbortReason() != null ? watch.getAbortReason() : e;
+			}
+			if (n > 0) {
+				sum += n;
+				cb.setProgress(sum);
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				try {
+					in.close();
+				}
+				finally {
+					watch.close();
+					exchange.close();
+					cb.setFinished();
+					long endTime = System.currentTimeMillis();
+					log.info("[" + (endTime - startTime) + "] streamed #" + (long) sum + ", content-length=" + contentLength);
+					requestMetrics.setDownload(receivedBytes.getCount(), (long) sum, endTime - downloadStartTime);
+					metrics.requestFinished(requestMetrics);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Make the value of a basic authentication header.
+	 * Decrypts the password on each call, HttpSession keeps the header instead.
+	 * @param userName User name
+	 * @param userPwd Password encrypted by PasswordEncryption
+	 * @return Base64 encoded user name and password
+	 * @throws UnsupportedEncodingException
+	 */
 	public static String makeBasicAuthenticationHeader(String userName, String userPwd)
 			throws UnsupportedEncodingException {
 		String plainPwd = PasswordEncryption.decrypt(userPwd);
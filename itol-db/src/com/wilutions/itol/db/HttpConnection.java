@@ -0,0 +1,317 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Persistent socket connection managed by HttpConnectionPool.
+ */
+public class HttpConnection {
+
+	private final static Logger log = Logger.getLogger(HttpConnection.class.getName());
+
+	private final static int BUFFER_SIZE = 16 * 1024;
+
+	private final String route;
+	private final Socket socket;
+	private final ConnectionInputStream input;
+	private final OutputStream output;
+	private final long createdAt;
+	private volatile long lastUsedAt;
+	private volatile long keepAliveMillis = Long.MAX_VALUE;
+	private volatile int requestCount;
+	private long connectMillis = -1;
+	private long handshakeMillis = -1;
+	private boolean sessionResumed;
+	private volatile boolean prewarmed;
+
+	private HttpConnection(String route, Socket socket) throws IOException {
+		this.route = route;
+		this.socket = socket;
+		this.input = new ConnectionInputStream(socket.getInputStream());
+		this.output = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+		this.createdAt = this.lastUsedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Open a new connection.
+	 * @param scheme "http" or "https"
+	 * @param host Host name
+	 * @param port Port
+	 * @param connectTimeoutMillis Connect timeout
+	 * @return HttpConnection
+	 * @throws IOException
+	 */
+	public static HttpConnection connect(String scheme, String host, int port, int connectTimeoutMillis)
+			throws IOException {
+		if (log.isLoggable(Level.FINE)) log.fine("connect(" + scheme + "://" + host + ":" + port);
+		boolean https = scheme.equalsIgnoreCase("https");
+		// Plain connections are opened as channel to allow transferring files
+		// directly from and to the socket.
+		Socket socket = https ? new Socket() : SocketChannel.open().socket();
+		try {
+			long startTime = System.currentTimeMillis();
+			socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+			socket.setTcpNoDelay(true);
+			socket.setKeepAlive(true);
+			long connectTime = System.currentTimeMillis();
+
+			if (https) {
+				socket = startTls(socket, host, port);
+			}
+
+			HttpConnection conn = new HttpConnection(makeRoute(scheme, host, port), socket);
+			conn.connectMillis = connectTime - startTime;
+			if (https) {
+				conn.handshakeMillis = System.currentTimeMillis() - connectTime;
+				// A resumed session has been created by a previous connection.
+				conn.sessionResumed = ((SSLSocket) socket).getSession().getCreationTime() < connectTime;
+				if (log.isLoggable(Level.FINE)) log.fine("TLS handshake ms=" + conn.handshakeMillis + ", resumed=" + conn.sessionResumed);
+			}
+			return conn;
+		}
+		catch (IOException e) {
+			try {
+				socket.close();
+			}
+			catch (IOException ignored) {
+			}
+			throw e;
+		}
+	}
+
+	private static Socket startTls(Socket plainSocket, String host, int port) throws IOException {
+		// The factory caches TLS sessions by host and port, so that further
+		// connections to the same server can resume the session with an abbreviated handshake.
+		SSLSocketFactory factory = HttpsURLConnection.getDefaultSSLSocketFactory();
+		SSLSocket socket = (SSLSocket) factory.createSocket(plainSocket, host, port, true);
+
+		// Verify the host name like HttpsURLConnection does:
+		// use the JDK check, unless the application has installed its own verifier.
+		HostnameVerifier verifier = HttpsURLConnection.getDefaultHostnameVerifier();
+		boolean customVerifier = verifier.getClass().getEnclosingClass() != HttpsURLConnection.class;
+		if (!customVerifier) {
+			SSLParameters params = socket.getSSLParameters();
+			params.setEndpointIdentificationAlgorithm("HTTPS");
+			socket.setSSLParameters(params);
+		}
+
+		socket.startHandshake();
+
+		if (customVerifier && !verifier.verify(host, socket.getSession())) {
+			socket.close();
+			throw new SSLPeerUnverifiedException("Host name " + host + " does not match the certificate.");
+		}
+		return socket;
+	}
+
+	/**
+	 * Make the key of a pool route.
+	 * @param scheme "http" or "https"
+	 * @param host Host name
+	 * @param port Port
+	 * @return Route key, e.g. "https://redmine.example.com:443"
+	 */
+	public static String makeRoute(String scheme, String host, int port) {
+		return scheme.toLowerCase() + "://" + host.toLowerCase() + ":" + port;
+	}
+
+	public String getRoute() {
+		return route;
+	}
+
+	public Socket getSocket() {
+		return socket;
+	}
+
+	public InputStream getInputStream() {
+		return input;
+	}
+
+	public OutputStream getOutputStream() {
+		return output;
+	}
+
+	/**
+	 * Channel of the socket.
+	 * Bytes must only be read from the channel, if getBufferedInputCount() returns 0.
+	 * Bytes must only be written to the channel after the output stream has been flushed.
+	 * @return Channel or null for TLS connections.
+	 */
+	public SocketChannel getChannel() {
+		return socket.getChannel();
+	}
+
+	/**
+	 * Number of bytes that have already been received and wait in the buffer of the input stream.
+	 * @return Number of bytes
+	 */
+	public int getBufferedInputCount() {
+		return input.getBufferedCount();
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	public long getLastUsedAt() {
+		return lastUsedAt;
+	}
+
+	/**
+	 * @return Time to open the TCP connection.
+	 */
+	public long getConnectMillis() {
+		return connectMillis;
+	}
+
+	/**
+	 * @return Time of the TLS handshake, -1 for plain connections.
+	 */
+	public long getHandshakeMillis() {
+		return handshakeMillis;
+	}
+
+	/**
+	 * @return true, if the TLS handshake resumed a session of a previous connection.
+	 */
+	public boolean isSessionResumed() {
+		return sessionResumed;
+	}
+
+	/**
+	 * @return true, if this connection was opened by HttpConnectionPool.prewarm().
+	 */
+	public boolean isPrewarmed() {
+		return prewarmed;
+	}
+
+	void markPrewarmed() {
+		prewarmed = true;
+	}
+
+	public int getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * Set the time the server keeps this connection open.
+	 * @param keepAliveMillis Value of response header "Keep-Alive: timeout=..." in milliseconds.
+	 */
+	public void setKeepAliveMillis(long keepAliveMillis) {
+		this.keepAliveMillis = keepAliveMillis;
+	}
+
+	void markUsed() {
+		requestCount++;
+		touch();
+	}
+
+	void touch() {
+		lastUsedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Check whether this connection has been idle for too long.
+	 * @param now Current time
+	 * @param idleTimeoutMillis Pool idle timeout
+	 * @return true, if the connection should be closed.
+	 */
+	public boolean isExpired(long now, long idleTimeoutMillis) {
+		long idleMillis = now - lastUsedAt;
+		// Give up one second before the server closes the connection.
+		return idleMillis >= idleTimeoutMillis || idleMillis >= keepAliveMillis - 1000;
+	}
+
+	public boolean isOpen() {
+		return !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+	}
+
+	/**
+	 * Check whether the server has closed this connection.
+	 * Must not be called while a response is being read.
+	 * @return true, if the connection cannot be used anymore.
+	 */
+	public boolean isStale() {
+		if (!isOpen()) {
+			return true;
+		}
+		boolean ret = false;
+		int soTimeout = 0;
+		try {
+			soTimeout = socket.getSoTimeout();
+			socket.setSoTimeout(1);
+			input.mark(1);
+			// An idle connection must not have data to read.
+			// Either the server has closed it (-1) or it sent garbage.
+			input.read();
+			ret = true;
+		}
+		catch (SocketTimeoutException e) {
+			ret = false;
+		}
+		catch (IOException e) {
+			ret = true;
+		}
+		finally {
+			try {
+				input.reset();
+				socket.setSoTimeout(soTimeout);
+			}
+			catch (IOException e) {
+				ret = true;
+			}
+		}
+		return ret;
+	}
+
+	public void close() {
+		if (log.isLoggable(Level.FINE)) log.fine("close connection " + route + ", #requests=" + requestCount);
+		try {
+			socket.close();
+		}
+		catch (IOException ignored) {
+		}
+	}
+
+	private static class ConnectionInputStream extends BufferedInputStream {
+
+		ConnectionInputStream(InputStream in) {
+			super(in, BUFFER_SIZE);
+		}
+
+		synchronized int getBufferedCount() {
+			return count - pos;
+		}
+	}
+
+	public String toString() {
+		return "[" + route + ", local-port=" + socket.getLocalPort() + ", #requests=" + requestCount + "]";
+	}
+}
@@ -0,0 +1,502 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of persistent HTTP connections.
+ * Connections are kept per route (scheme, host and port). The number of
+ * connections per route is limited. Idle connections are closed after a timeout.
+ */
+public class HttpConnectionPool {
+
+	private final static Logger log = Logger.getLogger(HttpConnectionPool.class.getName());
+
+	public final static int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 4;
+	public final static int DEFAULT_IDLE_TIMEOUT_SECONDS = 30;
+	private final static long CANCEL_POLL_MILLIS = 100;
+
+	private final LinkedHashMap<String, Route> routes = new LinkedHashMap<String, Route>();
+	private volatile int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+	private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_SECONDS * 1000L;
+	private Timer evictionTimer;
+	private boolean closed;
+
+	/**
+	 * Whether a route can send a request without opening a new connection.
+	 */
+	public enum RouteState {
+		/**
+		 * No idle connection, the next request has to connect and negotiate TLS.
+		 */
+		COLD,
+		/**
+		 * A connection is being opened by prewarm().
+		 */
+		WARMING,
+		/**
+		 * An idle connection is available.
+		 */
+		WARM
+	}
+
+	/**
+	 * Connections of one route.
+	 */
+	private static class Route {
+		final String key;
+		// Most recently used connection first.
+		final ArrayDeque<HttpConnection> idle = new ArrayDeque<HttpConnection>();
+		int leased;
+		long created;
+		long reused;
+		long evicted;
+		long waits;
+		boolean warming;
+
+		Route(String key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Utilization of a route.
+	 */
+	public static class RouteStats {
+		private final String route;
+		private final int leased;
+		private final int idle;
+		private final int maxConnections;
+		private final long created;
+		private final long reused;
+		private final long evicted;
+		private final long waits;
+
+		RouteStats(Route r, int maxConnections) {
+			this.route = r.key;
+			this.leased = r.leased;
+			this.idle = r.idle.size();
+			this.maxConnections = maxConnections;
+			this.created = r.created;
+			this.reused = r.reused;
+			this.evicted = r.evicted;
+			this.waits = r.waits;
+		}
+
+		public String getRoute() {
+			return route;
+		}
+
+		/**
+		 * @return Number of connections currently used by requests.
+		 */
+		public int getLeased() {
+			return leased;
+		}
+
+		/**
+		 * @return Number of connections waiting for the next request.
+		 */
+		public int getIdle() {
+			return idle;
+		}
+
+		public int getMaxConnections() {
+			return maxConnections;
+		}
+
+		/**
+		 * @return Number of connections opened.
+		 */
+		public long getCreated() {
+			return created;
+		}
+
+		/**
+		 * @return Number of requests that were sent over an already open connection.
+		 */
+		public long getReused() {
+			return reused;
+		}
+
+		/**
+		 * @return Number of connections closed because they were idle for too long or closed by the server.
+		 */
+		public long getEvicted() {
+			return evicted;
+		}
+
+		/**
+		 * @return Number of requests that had to wait for a free connection.
+		 */
+		public long getWaits() {
+			return waits;
+		}
+
+		/**
+		 * @return Leased connections divided by maximum connections.
+		 */
+		public double getUtilization() {
+			return maxConnections > 0 ? (double) leased / maxConnections : 0;
+		}
+
+		public String toString() {
+			return "[" + route + ", leased=" + leased + ", idle=" + idle + ", max=" + maxConnections + ", created="
+					+ created + ", reused=" + reused + ", evicted=" + evicted + ", waits=" + waits + "]";
+		}
+	}
+
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public synchronized void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = Math.max(1, maxConnectionsPerRoute);
+		notifyAll();
+	}
+
+	public int getIdleTimeoutSeconds() {
+		return (int) (idleTimeoutMillis / 1000);
+	}
+
+	public synchronized void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+		this.idleTimeoutMillis = Math.max(1, idleTimeoutSeconds) * 1000L;
+		if (evictionTimer != null) {
+			evictionTimer.cancel();
+			evictionTimer = null;
+		}
+	}
+
+	/**
+	 * Get a connection for the given route.
+	 * Returns an idle connection, if available. Otherwise a new connection is
+	 * opened, if the route has not reached the maximum number of connections.
+	 * Otherwise, it waits until a connection is released.
+	 *
+	 * @param scheme "http" or "https"
+	 * @param host Host name
+	 * @param port Port
+	 * @param timeoutMillis Maximum time to wait for a free connection, also used as connect timeout.
+	 * @return Connection. Has to be passed to release() after the request is finished.
+	 * @throws IOException
+	 */
+	public HttpConnection lease(String scheme, String host, int port, int timeoutMillis) throws IOException {
+		return lease(scheme, host, port, Math.max(1, timeoutMillis), timeoutMillis, null);
+	}
+
+	/**
+	 * Get a connection for the given route.
+	 * Same as {@link #lease(String, String, int, int)} but the time to wait for
+	 * a free connection is independent of the connect timeout.
+	 *
+	 * @param scheme "http" or "https"
+	 * @param host Host name
+	 * @param port Port
+	 * @param waitMillis Maximum time to wait for a free connection, 0 to wait until cancelled.
+	 * @param connectTimeoutMillis Connect timeout
+	 * @param cancelled Checked while waiting, can be null.
+	 * @return Connection. Has to be passed to release() after the request is finished.
+	 * @throws IOException
+	 * @throws InterruptedIOException if cancelled while waiting.
+	 */
+	public HttpConnection lease(String scheme, String host, int port, int waitMillis, int connectTimeoutMillis,
+			BooleanSupplier cancelled) throws IOException {
+		String key = HttpConnection.makeRoute(scheme, host, port);
+		List<HttpConnection> expired = new ArrayList<HttpConnection>();
+		HttpConnection conn = null;
+		Route route = null;
+
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("Connection pool is closed.");
+			}
+			route = getRoute(key);
+			long deadline = waitMillis > 0 ? System.currentTimeMillis() + waitMillis : Long.MAX_VALUE;
+			boolean waited = false;
+			while (true) {
+				long now = System.currentTimeMillis();
+				while ((conn = route.idle.pollFirst()) != null) {
+					if (conn.isExpired(now, idleTimeoutMillis)) {
+						route.evicted++;
+						expired.add(conn);
+					}
+					else {
+						break;
+					}
+				}
+				if (conn != null || route.leased < maxConnectionsPerRoute) {
+					route.leased++;
+					break;
+				}
+				if (cancelled != null && cancelled.getAsBoolean()) {
+					closeAll(expired);
+					throw new InterruptedIOException("Cancelled while waiting for a free connection to " + key);
+				}
+				long remaining = deadline - now;
+				if (remaining <= 0) {
+					closeAll(expired);
+					throw new IOException("Timeout while waiting for a free connection to " + key);
+				}
+				if (!waited) {
+					waited = true;
+					route.waits++;
+				}
+				try {
+					wait(cancelled != null ? Math.min(remaining, CANCEL_POLL_MILLIS) : remaining);
+				}
+				catch (InterruptedException e) {
+					closeAll(expired);
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for a free connection to " + key);
+				}
+			}
+		}
+
+		closeAll(expired);
+
+		if (conn != null && conn.isStale()) {
+			conn.close();
+			synchronized (this) {
+				route.evicted++;
+			}
+			conn = null;
+		}
+
+		if (conn != null) {
+			synchronized (this) {
+				route.reused++;
+			}
+			if (log.isLoggable(Level.FINE)) log.fine("reuse connection " + conn);
+		}
+		else {
+			try {
+				conn = HttpConnection.connect(scheme, host, port, connectTimeoutMillis);
+			}
+			catch (IOException e) {
+				synchronized (this) {
+					route.leased--;
+					notifyAll();
+				}
+				throw e;
+			}
+			synchronized (this) {
+				route.created++;
+			}
+		}
+
+		conn.markUsed();
+		return conn;
+	}
+
+	/**
+	 * Open a connection in advance, so that the next request finds it idle.
+	 * Does nothing, if the route already has an idle connection, is being warmed
+	 * up or has reached the maximum number of connections.
+	 * @param scheme "http" or "https"
+	 * @param host Host name
+	 * @param port Port
+	 * @param timeoutMillis Connect timeout
+	 * @return true, if a connection was opened.
+	 * @throws IOException
+	 */
+	public boolean prewarm(String scheme, String host, int port, int timeoutMillis) throws IOException {
+		String key = HttpConnection.makeRoute(scheme, host, port);
+		Route route = null;
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("Connection pool is closed.");
+			}
+			route = getRoute(key);
+			if (getState(route) != RouteState.COLD || route.leased >= maxConnectionsPerRoute) {
+				return false;
+			}
+			route.warming = true;
+			route.leased++;
+		}
+
+		HttpConnection conn = null;
+		try {
+			conn = HttpConnection.connect(scheme, host, port, timeoutMillis);
+		}
+		catch (IOException e) {
+			synchronized (this) {
+				route.warming = false;
+				route.leased--;
+				notifyAll();
+			}
+			throw e;
+		}
+
+		synchronized (this) {
+			route.warming = false;
+			route.created++;
+		}
+		conn.markPrewarmed();
+		release(conn, true);
+		if (log.isLoggable(Level.FINE)) log.fine("prewarmed connection " + conn);
+		return true;
+	}
+
+	/**
+	 * Get the state of a route.
+	 * @param scheme "http" or "https"
+	 * @param host Host name
+	 * @param port Port
+	 * @return State
+	 */
+	public synchronized RouteState getState(String scheme, String host, int port) {
+		Route route = routes.get(HttpConnection.makeRoute(scheme, host, port));
+		return route != null ? getState(route) : RouteState.COLD;
+	}
+
+	private RouteState getState(Route route) {
+		if (route.warming) {
+			return RouteState.WARMING;
+		}
+		long now = System.currentTimeMillis();
+		for (HttpConnection conn : route.idle) {
+			if (!conn.isExpired(now, idleTimeoutMillis)) {
+				return RouteState.WARM;
+			}
+		}
+		return RouteState.COLD;
+	}
+
+	/**
+	 * Give a connection back to the pool.
+	 * @param conn Connection obtained from lease()
+	 * @param reusable true, if the response has been read completely and the server keeps the connection open.
+	 */
+	public void release(HttpConnection conn, boolean reusable) {
+		boolean keep = false;
+		synchronized (this) {
+			Route route = getRoute(conn.getRoute());
+			route.leased--;
+			keep = reusable && !closed && conn.isOpen();
+			if (keep) {
+				conn.touch();
+				route.idle.addFirst(conn);
+				startEvictionTimer();
+			}
+			notifyAll();
+		}
+		if (!keep) {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Close connections that have been idle for longer than the idle timeout.
+	 */
+	public void closeExpired() {
+		List<HttpConnection> expired = new ArrayList<HttpConnection>();
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			for (Route route : routes.values()) {
+				for (Iterator<HttpConnection> it = route.idle.iterator(); it.hasNext();) {
+					HttpConnection conn = it.next();
+					if (conn.isExpired(now, idleTimeoutMillis)) {
+						it.remove();
+						route.evicted++;
+						expired.add(conn);
+					}
+				}
+			}
+		}
+		closeAll(expired);
+	}
+
+	/**
+	 * Close all idle connections.
+	 */
+	public void closeIdle() {
+		List<HttpConnection> idle = new ArrayList<HttpConnection>();
+		synchronized (this) {
+			for (Route route : routes.values()) {
+				idle.addAll(route.idle);
+				route.idle.clear();
+			}
+		}
+		closeAll(idle);
+	}
+
+	/**
+	 * Close all idle connections and stop pooling.
+	 * Leased connections are closed when they are released.
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			if (evictionTimer != null) {
+				evictionTimer.cancel();
+				evictionTimer = null;
+			}
+			notifyAll();
+		}
+		closeIdle();
+	}
+
+	/**
+	 * Get utilization statistics.
+	 * @return One element for each route.
+	 */
+	public synchronized List<RouteStats> getStats() {
+		List<RouteStats> ret = new ArrayList<RouteStats>(routes.size());
+		for (Route route : routes.values()) {
+			ret.add(new RouteStats(route, maxConnectionsPerRoute));
+		}
+		return ret;
+	}
+
+	private Route getRoute(String key) {
+		Route route = routes.get(key);
+		if (route == null) {
+			route = new Route(key);
+			routes.put(key, route);
+		}
+		return route;
+	}
+
+	private void startEvictionTimer() {
+		if (evictionTimer == null) {
+			long period = Math.max(1000, idleTimeoutMillis / 2);
+			evictionTimer = new Timer("HttpConnectionPool-eviction", true);
+			evictionTimer.schedule(new TimerTask() {
+				public void run() {
+					closeExpired();
+				}
+			}, period, period);
+		}
+	}
+
+	private static void closeAll(List<HttpConnection> conns) {
+		for (HttpConnection conn : conns) {
+			conn.close();
+		}
+		conns.clear();
+	}
+
+	public String toString() {
+		return "[HttpConnectionPool " + getStats() + "]";
+	}
+}
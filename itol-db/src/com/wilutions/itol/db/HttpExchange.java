@@ -0,0 +1,145 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One request/response exchange opened by a HttpTransport.
+ * The functions have to be called in the order: getRequestBody (optional), getStatus, getResponseBody, close.
+ */
+public interface HttpExchange extends Closeable {
+
+	/**
+	 * Stream to write the request body into.
+	 * The stream has to be closed before getStatus is called.
+	 * @return OutputStream
+	 * @throws IOException
+	 */
+	OutputStream getRequestBody() throws IOException;
+
+	/**
+	 * Write a part of a file into the request body.
+	 * Transports that write to a plain socket send the file without copying it through the Java heap.
+	 * Can be called repeatedly, e.g. to report progress in between.
+	 * @param file File
+	 * @param position Position in the file
+	 * @param count Maximum number of bytes to write
+	 * @return Number of bytes written or -1 at the end of the file.
+	 * @throws IOException
+	 */
+	default long transferRequestBody(FileChannel file, long position, long count) throws IOException {
+		return HttpBufferPool.transfer(file, position, count, getRequestBody());
+	}
+
+	/**
+	 * Finish the request and read the response status and headers.
+	 * @return HTTP status
+	 * @throws IOException
+	 */
+	int getStatus() throws IOException;
+
+	/**
+	 * URL of the response. Differs from the request URL, if the request was redirected.
+	 * @return URL
+	 */
+	URL getURL();
+
+	/**
+	 * Check whether the request was redirected only by permanent redirects (301, 308).
+	 * @return true, if getURL can replace the request URL in later requests.
+	 * false, if the request was not redirected or the transport does not know the redirect status.
+	 */
+	default boolean isPermanentlyRedirected() {
+		return false;
+	}
+
+	/**
+	 * Response headers. The key null maps to the status line.
+	 * @return Map of header names to values.
+	 */
+	Map<String, List<String>> getHeaderFields();
+
+	/**
+	 * Get the first value of a response header.
+	 * @param name Header name, case insensitive.
+	 * @return Header value or null.
+	 */
+	String getHeaderField(String name);
+
+	/**
+	 * Response body. For error status codes, the error body is returned.
+	 * @return InputStream, never null.
+	 * @throws IOException
+	 */
+	InputStream getResponseBody() throws IOException;
+
+	/**
+	 * Read a part of the response body into a file.
+	 * Transports that read from a plain socket receive the body without copying it through the Java heap.
+	 * The body must not be encoded (Content-Encoding).
+	 * Can be called repeatedly, e.g. to report progress in between.
+	 * @param file File
+	 * @param position Position in the file
+	 * @param count Maximum number of bytes to read
+	 * @return Number of bytes read or -1 at the end of the body.
+	 * @throws IOException
+	 */
+	default long transferResponseBody(FileChannel file, long position, long count) throws IOException {
+		return HttpBufferPool.transfer(getResponseBody(), file, position, count);
+	}
+
+	/**
+	 * @return true, if the request was sent over a connection that had been used before.
+	 */
+	default boolean isConnectionReused() {
+		return false;
+	}
+
+	/**
+	 * @return Time to open the TCP connection, -1 if unknown or if the connection was reused.
+	 */
+	default long getConnectMillis() {
+		return -1;
+	}
+
+	/**
+	 * @return Time of the TLS handshake, -1 if unknown, if the connection was reused or is not encrypted.
+	 */
+	default long getHandshakeMillis() {
+		return -1;
+	}
+
+	/**
+	 * Finish the exchange. The connection is reused, if the response body has been read completely.
+	 */
+	void close();
+
+	/**
+	 * Cancel the exchange and close the underlying connection.
+	 */
+	void abort();
+
+	/**
+	 * Change the read timeout while the response is received.
+	 * @param millis Timeout in milliseconds, 0 to wait infinitely.
+	 * @throws IOException
+	 */
+	default void setReadTimeout(int millis) throws IOException {
+	}
+}
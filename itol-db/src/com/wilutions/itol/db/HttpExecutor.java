@@ -0,0 +1,206 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executor for blocking HTTP requests.
+ * Runs requests on a bounded pool of named daemon threads. If the runtime
+ * supports virtual threads, each request can run in its own virtual thread instead.
+ */
+public class HttpExecutor implements Executor {
+
+	private final static Logger log = Logger.getLogger(HttpExecutor.class.getName());
+
+	public final static int DEFAULT_MAX_THREADS = 8;
+	public final static int DEFAULT_QUEUE_CAPACITY = 1000;
+
+	private final String name;
+	private volatile ExecutorService executor;
+	private volatile boolean virtualThreads;
+	private volatile int maxThreads;
+	private volatile int queueCapacity;
+
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	public HttpExecutor(String name) {
+		this(name, DEFAULT_MAX_THREADS);
+	}
+
+	/**
+	 * Constructor.
+	 * @param name Prefix of the thread names
+	 * @param maxThreads Maximum number of threads until configure() is called.
+	 */
+	public HttpExecutor(String name, int maxThreads) {
+		this.name = name;
+		configure(maxThreads, DEFAULT_QUEUE_CAPACITY, true);
+	}
+
+	/**
+	 * Configure the executor. Tasks already submitted are finished by the previous threads.
+	 * @param maxThreads Maximum number of threads. Ignored for virtual threads.
+	 * @param queueCapacity Maximum number of waiting tasks. Ignored for virtual threads.
+	 * @param useVirtualThreads Run each task in a virtual thread, if supported by the runtime.
+	 */
+	public synchronized void configure(int maxThreads, int queueCapacity, boolean useVirtualThreads) {
+		maxThreads = Math.max(1, maxThreads);
+		queueCapacity = Math.max(1, queueCapacity);
+		ExecutorService newExecutor = null;
+		if (useVirtualThreads) {
+			newExecutor = newVirtualThreadPerTaskExecutor();
+		}
+		if (executor != null && (newExecutor != null) == virtualThreads && this.maxThreads == maxThreads
+				&& this.queueCapacity == queueCapacity) {
+			// unchanged
+			if (newExecutor != null) {
+				newExecutor.shutdown();
+			}
+			return;
+		}
+
+		virtualThreads = newExecutor != null;
+		if (newExecutor == null) {
+			ThreadPoolExecutor tpe = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(queueCapacity), new NamedThreadFactory(name));
+			tpe.allowCoreThreadTimeOut(true);
+			newExecutor = tpe;
+		}
+
+		ExecutorService oldExecutor = executor;
+		executor = newExecutor;
+		this.maxThreads = maxThreads;
+		this.queueCapacity = queueCapacity;
+		if (oldExecutor != null) {
+			oldExecutor.shutdown();
+		}
+
+		log.info(name + " executor: virtualThreads=" + virtualThreads + ", maxThreads=" + maxThreads
+				+ ", queueCapacity=" + queueCapacity);
+	}
+
+	/**
+	 * Create an executor that starts a new virtual thread for each task.
+	 * @return Executor or null, if virtual threads are not supported.
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		ExecutorService ret = null;
+		try {
+			// Java 21 API, invoked by reflection to keep running on older runtimes.
+			Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			ret = (ExecutorService) method.invoke(null);
+		}
+		catch (Exception e) {
+			if (log.isLoggable(Level.FINE)) log.fine("Virtual threads not supported: " + e);
+		}
+		return ret;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		queued.incrementAndGet();
+		try {
+			executor.execute(() -> {
+				queued.decrementAndGet();
+				active.incrementAndGet();
+				try {
+					command.run();
+				}
+				finally {
+					active.decrementAndGet();
+					completed.incrementAndGet();
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			queued.decrementAndGet();
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException(name + " executor rejected request, queue-depth=" + queued.get(), e);
+		}
+	}
+
+	/**
+	 * @return Number of requests waiting for a thread.
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * @return Number of requests currently running.
+	 */
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	/**
+	 * @return Number of requests finished.
+	 */
+	public long getCompletedCount() {
+		return completed.get();
+	}
+
+	/**
+	 * @return Number of requests rejected because the queue was full.
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public String toString() {
+		return "[" + name + ", virtualThreads=" + virtualThreads + ", maxThreads=" + maxThreads + ", queue-depth="
+				+ queued.get() + ", active=" + active.get() + ", completed=" + completed.get() + ", rejected="
+				+ rejected.get() + "]";
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final String name;
+		private final AtomicInteger threadCounter = new AtomicInteger();
+
+		NamedThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, name + "-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the timings of the requests sent by HttpClient.
+ * Keeps a latency histogram for each method and URL template, e.g.
+ * "GET /issues/{id}.json", and one for each lane (INTERACTIVE, BULK).
+ * Forwards the timings of each request to the registered listeners.
+ */
+public class HttpMetrics {
+
+	private final static Logger log = Logger.getLogger(HttpMetrics.class.getName());
+
+	/**
+	 * Maximum number of histograms. Requests of further templates are counted in OTHER_KEY.
+	 */
+	private final static int MAX_HISTOGRAMS = 500;
+
+	public final static String OTHER_KEY = "* *";
+
+	private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final ConcurrentHashMap<HttpRequest.Priority, LatencyHistogram> laneHistograms = new ConcurrentHashMap<HttpRequest.Priority, LatencyHistogram>();
+	private final CopyOnWriteArrayList<HttpMetricsListener> listeners = new CopyOnWriteArrayList<HttpMetricsListener>();
+
+	/**
+	 * Latency histogram with fixed bucket bounds.
+	 */
+	public static class LatencyHistogram {
+
+		/**
+		 * Upper bounds of the buckets in milliseconds. The last bucket takes all longer requests.
+		 */
+		private final static long[] BOUNDS = new long[] { 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, Long.MAX_VALUE };
+
+		private final String key;
+		private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong sumMillis = new AtomicLong();
+		private final AtomicLong maxMillis = new AtomicLong();
+		private final AtomicLong sumTimeToFirstByte = new AtomicLong();
+		private final AtomicLong downloadBytes = new AtomicLong();
+		private final AtomicLong decodedBytes = new AtomicLong();
+
+		LatencyHistogram(String key) {
+			this.key = key;
+		}
+
+		void add(HttpRequestMetrics m) {
+			long millis = m.getTotalMillis();
+			int idx = 0;
+			while (millis > BOUNDS[idx]) {
+				idx++;
+			}
+			counts.incrementAndGet(idx);
+			count.incrementAndGet();
+			if (m.getError() != null || m.getStatus() >= 400) {
+				errors.incrementAndGet();
+			}
+			sumMillis.addAndGet(millis);
+			long max;
+			while ((max = maxMillis.get()) < millis && !maxMillis.compareAndSet(max, millis)) {
+			}
+			sumTimeToFirstByte.addAndGet(Math.max(0, m.getTimeToFirstByteMillis()));
+			downloadBytes.addAndGet(m.getDownloadBytes());
+			decodedBytes.addAndGet(m.getDecodedBytes());
+		}
+
+		/**
+		 * @return Method and URL template, e.g. "GET /issues/{id}.json"
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * @return Number of requests that failed or returned a status &gt;= 400.
+		 */
+		public long getErrorCount() {
+			return errors.get();
+		}
+
+		public double getMeanMillis() {
+			long n = count.get();
+			return n != 0 ? (double) sumMillis.get() / n : 0;
+		}
+
+		public long getMaxMillis() {
+			return maxMillis.get();
+		}
+
+		public double getMeanTimeToFirstByteMillis() {
+			long n = count.get();
+			return n != 0 ? (double) sumTimeToFirstByte.get() / n : 0;
+		}
+
+		/**
+		 * @return Received bytes divided by decoded bytes over all requests.
+		 */
+		public double getCompressionRatio() {
+			long decoded = decodedBytes.get();
+			return decoded != 0 ? (double) downloadBytes.get() / decoded : 1;
+		}
+
+		/**
+		 * Estimate a percentile.
+		 * @param percent E.g. 95
+		 * @return Upper bound of the bucket that contains the percentile. For the last bucket, the maximum.
+		 */
+		public long getPercentileMillis(double percent) {
+			long n = count.get();
+			long threshold = (long) Math.ceil(n * percent / 100);
+			long sum = 0;
+			for (int i = 0; i < BOUNDS.length; i++) {
+				sum += counts.get(i);
+				if (sum >= threshold && sum != 0) {
+					return Math.min(BOUNDS[i], maxMillis.get());
+				}
+			}
+			return maxMillis.get();
+		}
+
+		/**
+		 * @return Bucket upper bounds in milliseconds.
+		 */
+		public static long[] getBounds() {
+			return BOUNDS.clone();
+		}
+
+		/**
+		 * @return Number of requests in each bucket.
+		 */
+		public long[] getCounts() {
+			long[] ret = new long[BOUNDS.length];
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = counts.get(i);
+			}
+			return ret;
+		}
+
+		public String toString() {
+			StringBuilder sbuf = new StringBuilder();
+			sbuf.append("[").append(key).append(", count=").append(getCount()).append(", errors=").append(getErrorCount());
+			sbuf.append(String.format(", mean=%.1f, p50=%d, p95=%d, max=%d, ttfb=%.1f, gzip=%.2f", getMeanMillis(),
+					getPercentileMillis(50), getPercentileMillis(95), getMaxMillis(), getMeanTimeToFirstByteMillis(),
+					getCompressionRatio()));
+			sbuf.append("]");
+			return sbuf.toString();
+		}
+	}
+
+	public void addListener(HttpMetricsListener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(HttpMetricsListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Add the timings of a finished request.
+	 * @param m Metrics
+	 */
+	public void requestFinished(HttpRequestMetrics m) {
+		m.finish();
+		if (log.isLoggable(Level.FINE)) log.fine("metrics " + m);
+
+		String key = m.getMethod() + " " + m.getTemplate();
+		LatencyHistogram histogram = histograms.get(key);
+		if (histogram == null) {
+			if (histograms.size() >= MAX_HISTOGRAMS) {
+				key = OTHER_KEY;
+			}
+			histogram = histograms.computeIfAbsent(key, LatencyHistogram::new);
+		}
+		histogram.add(m);
+
+		laneHistograms.computeIfAbsent(m.getPriority(), (p) -> new LatencyHistogram("lane " + p)).add(m);
+
+		for (HttpMetricsListener listener : listeners) {
+			try {
+				listener.requestFinished(m);
+			}
+			catch (RuntimeException e) {
+				log.log(Level.WARNING, "Metrics listener failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Get the histograms.
+	 * @return Histograms sorted by key.
+	 */
+	public List<LatencyHistogram> getHistograms() {
+		List<LatencyHistogram> ret = new ArrayList<LatencyHistogram>(histograms.values());
+		Collections.sort(ret, (a, b) -> a.getKey().compareTo(b.getKey()));
+		return ret;
+	}
+
+	/**
+	 * Get the histogram of a method and URL template.
+	 * @param method E.g. "GET"
+	 * @param template E.g. "/issues/{id}.json", see HttpRequestMetrics.makeTemplate
+	 * @return Histogram or null.
+	 */
+	public LatencyHistogram getHistogram(String method, String template) {
+		return histograms.get(method + " " + template);
+	}
+
+	/**
+	 * Get the histogram over all requests of a lane.
+	 * @param priority Lane
+	 * @return Histogram or null, if no request of this lane has finished.
+	 */
+	public LatencyHistogram getLaneHistogram(HttpRequest.Priority priority) {
+		return laneHistograms.get(priority);
+	}
+
+	/**
+	 * Write all histograms into the log.
+	 */
+	public void dump() {
+		StringBuilder sbuf = new StringBuilder("HTTP metrics:");
+		for (HttpRequest.Priority priority : HttpRequest.Priority.values()) {
+			LatencyHistogram histogram = laneHistograms.get(priority);
+			if (histogram != null) {
+				sbuf.append("\n  ").append(histogram);
+			}
+		}
+		for (LatencyHistogram histogram : getHistograms()) {
+			sbuf.append("\n  ").append(histogram);
+		}
+		log.info(sbuf.toString());
+	}
+
+	/**
+	 * Remove all histograms.
+	 */
+	public void reset() {
+		histograms.clear();
+		laneHistograms.clear();
+	}
+
+	public String toString() {
+		return "[HttpMetrics " + getHistograms() + "]";
+	}
+}
@@ -0,0 +1,25 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+/**
+ * Receives the timings of each request sent by HttpClient.
+ * Listeners are called in the thread that finished the request and should return quickly.
+ */
+public interface HttpMetricsListener {
+
+	/**
+	 * Called when a request has been finished.
+	 * For streamed responses, this is when the caller closes the response.
+	 * @param metrics Timings and sizes of the request.
+	 */
+	void requestFinished(HttpRequestMetrics metrics);
+}
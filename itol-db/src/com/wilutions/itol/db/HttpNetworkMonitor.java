@@ -0,0 +1,119 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Detects changes of the local network, e.g. when a notebook switches from LAN
+ * to WLAN or connects to a VPN. Java does not send events for this, so the
+ * addresses of the network interfaces are compared periodically.
+ */
+public class HttpNetworkMonitor {
+
+	private final static Logger log = Logger.getLogger(HttpNetworkMonitor.class.getName());
+
+	public final static int DEFAULT_INTERVAL_SECONDS = 15;
+
+	private final Runnable listener;
+	private Timer timer;
+	private String lastSignature;
+
+	/**
+	 * Constructor.
+	 * @param listener Called in the timer thread, if the network has changed.
+	 */
+	public HttpNetworkMonitor(Runnable listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Start watching. Does nothing, if already started.
+	 * @param intervalSeconds Check interval
+	 */
+	public synchronized void start(int intervalSeconds) {
+		if (timer != null) {
+			return;
+		}
+		long period = Math.max(1, intervalSeconds) * 1000L;
+		timer = new Timer("HttpNetworkMonitor", true);
+		timer.schedule(new TimerTask() {
+			public void run() {
+				check();
+			}
+		}, 0, period);
+	}
+
+	public synchronized void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		lastSignature = null;
+	}
+
+	public synchronized boolean isStarted() {
+		return timer != null;
+	}
+
+	private void check() {
+		String signature = getSignature();
+		boolean changed = false;
+		synchronized (this) {
+			changed = lastSignature != null && !lastSignature.equals(signature);
+			lastSignature = signature;
+		}
+		if (changed) {
+			log.info("Network changed: " + signature);
+			try {
+				listener.run();
+			}
+			catch (Throwable e) {
+				log.log(Level.WARNING, "Network change listener failed.", e);
+			}
+		}
+	}
+
+	/**
+	 * Build a string of the active network interfaces and their addresses.
+	 * @return Signature
+	 */
+	private static String getSignature() {
+		List<String> items = new ArrayList<String>();
+		try {
+			Enumeration<NetworkInterface> nifs = NetworkInterface.getNetworkInterfaces();
+			while (nifs != null && nifs.hasMoreElements()) {
+				NetworkInterface nif = nifs.nextElement();
+				if (!nif.isUp() || nif.isLoopback()) {
+					continue;
+				}
+				for (Enumeration<InetAddress> addrs = nif.getInetAddresses(); addrs.hasMoreElements();) {
+					items.add(nif.getName() + "=" + addrs.nextElement().getHostAddress());
+				}
+			}
+		}
+		catch (SocketException e) {
+			if (log.isLoggable(Level.FINE)) log.fine("Cannot list network interfaces: " + e);
+		}
+		Collections.sort(items);
+		return items.toString();
+	}
+}
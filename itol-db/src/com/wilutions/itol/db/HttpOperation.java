@@ -0,0 +1,125 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+/**
+ * Deadline and cancellation of an operation that sends several HTTP requests,
+ * e.g. a function of an IssueService. The operation is bound to the current
+ * thread: requests sent by this thread without a ProgressCallback observe the
+ * deadline and are cancelled together with the operation's callback.
+ * 
+ * <pre>
+ * try (HttpOperation op = HttpOperation.begin(cb, 60 * 1000)) {
+ * 	...
+ * }
+ * </pre>
+ */
+public class HttpOperation implements ProgressCallback, AutoCloseable {
+
+	private final static ThreadLocal<HttpOperation> current = new ThreadLocal<HttpOperation>();
+
+	private final ProgressCallback cb;
+	private final long deadline;
+	private final HttpOperation previous;
+
+	private HttpOperation(ProgressCallback cb, long deadline, HttpOperation previous) {
+		this.cb = cb;
+		this.deadline = deadline;
+		this.previous = previous;
+	}
+
+	/**
+	 * Begin an operation in the current thread. Must be closed by the same thread.
+	 * @param cb Callback of the operation or null. Its progress is not changed by requests sent without callback.
+	 * @param timeoutMillis Maximum duration of the operation or 0 for no deadline.
+	 * A running outer operation with an earlier deadline is not extended.
+	 * @return Operation
+	 */
+	public static HttpOperation begin(ProgressCallback cb, long timeoutMillis) {
+		HttpOperation outer = current.get();
+		long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+		if (outer != null) {
+			deadline = ProgressCallbackImpl.earliestDeadline(deadline, outer.getDeadline());
+		}
+		if (cb != null) {
+			deadline = ProgressCallbackImpl.earliestDeadline(deadline, cb.getDeadline());
+		}
+		HttpOperation op = new HttpOperation(cb != null ? cb : outer, deadline, outer);
+		current.set(op);
+		return op;
+	}
+
+	/**
+	 * @return Operation of the current thread or null.
+	 */
+	public static HttpOperation current() {
+		return current.get();
+	}
+
+	/**
+	 * Get the remaining time.
+	 * @return Milliseconds until the deadline, Long.MAX_VALUE if there is no deadline.
+	 */
+	public long getRemainingMillis() {
+		return deadline != 0 ? deadline - System.currentTimeMillis() : Long.MAX_VALUE;
+	}
+
+	@Override
+	public void close() {
+		if (current.get() == this) {
+			if (previous != null) {
+				current.set(previous);
+			}
+			else {
+				current.remove();
+			}
+		}
+	}
+
+	@Override
+	public long getDeadline() {
+		return deadline;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cb != null && cb.isCancelled();
+	}
+
+	@Override
+	public void setParams(String... params) {
+	}
+
+	@Override
+	public void setProgress(double current) {
+	}
+
+	@Override
+	public void setTotal(double total) {
+	}
+
+	@Override
+	public void setFinished() {
+	}
+
+	@Override
+	public ProgressCallback createChild(String name) {
+		return this;
+	}
+
+	@Override
+	public void childFinished(double total) {
+	}
+
+	public String toString() {
+		return "[HttpOperation remaining-ms=" + (deadline != 0 ? getRemainingMillis() : "unlimited") + "]";
+	}
+}
@@ -0,0 +1,472 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Download of a file in byte ranges.
+ * Large files are downloaded in several ranges at the same time into a
+ * preallocated part file. The ranges already received are stored next to
+ * the part file, so that a download interrupted by a network error continues
+ * where it stopped. Servers that do not support range requests send the
+ * whole file in the first response, which is then used as is.
+ */
+public class HttpRangeDownload {
+
+	private final static Logger log = Logger.getLogger(HttpRangeDownload.class.getName());
+
+	public final static int DEFAULT_PARALLEL_RANGES = 4;
+
+	/**
+	 * Size of the first range. Smaller files are received in one request.
+	 */
+	private final static long FIRST_RANGE_SIZE = 1024 * 1024;
+
+	/**
+	 * Minimum size of a range downloaded in parallel.
+	 */
+	private final static long MIN_RANGE_SIZE = 2 * 1024 * 1024;
+
+	/**
+	 * The progress of the ranges is saved after this number of bytes.
+	 */
+	private final static long SAVE_INTERVAL = 1024 * 1024;
+
+	private final static String PART_EXT = ".part";
+	private final static String META_EXT = ".part.meta";
+
+	private final String url;
+	private final String[] headers;
+	private final int parallelRanges;
+	private final File partFile;
+	private final File metaFile;
+
+	private long length = -1;
+	private String validator;
+	private String[] responseHeaders;
+	private final List<Range> ranges = new ArrayList<Range>();
+	private ProgressCallback cb;
+	private long received;
+
+	/**
+	 * Bytes from next (inclusive) to end (exclusive) have still to be received.
+	 */
+	private static class Range {
+		volatile long next;
+		final long end;
+
+		Range(long next, long end) {
+			this.next = next;
+			this.end = end;
+		}
+
+		public String toString() {
+			return next + "-" + end;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param url URL
+	 * @param headers Request headers or null
+	 * @param dir Directory of the part files.
+	 * @param parallelRanges Maximum number of ranges downloaded at the same time,
+	 * including the first range. At least two ranges are downloaded at the same time.
+	 */
+	public HttpRangeDownload(String url, String[] headers, File dir, int parallelRanges) {
+		this.url = url;
+		this.headers = headers != null ? headers : new String[0];
+		this.parallelRanges = Math.max(2, parallelRanges);
+		String key = HttpCache.makeKey(new HttpRequest(url, "GET", headers, null));
+		this.partFile = new File(dir, key + PART_EXT);
+		this.metaFile = new File(dir, key + META_EXT);
+	}
+
+	/**
+	 * Download the file.
+	 * @param cb Progress callback or null.
+	 * @return Response, getFile() returns a temporary file if the download succeeded.
+	 * If it failed, the part file is kept and a subsequent call resumes the download.
+	 */
+	public HttpResponse download(ProgressCallback cb) {
+		this.cb = cb != null ? cb : new ProgressCallbackImpl("HttpRangeDownload");
+		HttpResponse ret = new HttpResponse();
+		HttpResponse first = null;
+		FileChannel channel = null;
+		try {
+			boolean resume = loadMeta();
+			Range firstRange = null;
+			if (resume) {
+				for (Range r : ranges) {
+					if (r.next < r.end) {
+						firstRange = r;
+						break;
+					}
+				}
+				if (firstRange != null) {
+					log.info("resume download " + url + " at " + ranges);
+				}
+				else {
+					// All ranges were received, but the download did not finish.
+					// Whether the file is still up to date is unknown, so start again.
+					log.info("part file complete but not finished, download again " + url);
+					deletePartFiles();
+					ranges.clear();
+					resume = false;
+				}
+			}
+
+			HttpRequest request = makeRequest(firstRange != null ? firstRange.next : 0,
+					firstRange != null ? firstRange.end : FIRST_RANGE_SIZE);
+			first = HttpClient.send(request, new CancelOnlyProgressCallback(this.cb));
+			responseHeaders = first.getHeaders();
+
+			if (first.getStatus() == 200) {
+				// Range not supported or file modified since the part file was written.
+				if (log.isLoggable(Level.FINE)) log.fine("range not supported, url=" + url);
+				deletePartFiles();
+				length = parseLong(first.getHeader("Content-Length"), -1);
+				ranges.clear();
+				firstRange = new Range(0, length >= 0 ? length : Long.MAX_VALUE);
+				ranges.add(firstRange);
+				channel = openPartFile();
+				this.cb.setTotal(length);
+				received = 0;
+				readRange(firstRange, first.getInputStream(), channel, false);
+			}
+			else if (first.getStatus() == 206) {
+				if (!resume) {
+					long[] contentRange = parseContentRange(first.getHeader("Content-Range"));
+					length = contentRange[2];
+					validator = getValidator(first);
+					firstRange = new Range(contentRange[0], contentRange[1] + 1);
+					makeRanges(firstRange);
+				}
+				channel = openPartFile();
+				this.cb.setTotal(length);
+				long remaining = 0;
+				for (Range r : ranges) {
+					remaining += r.end - r.next;
+				}
+				received = length - remaining;
+				saveMeta();
+
+				// The first range keeps its connection while the other ranges are received.
+				// Ranges loaded from the meta file may be more than that.
+				ConcurrentLinkedQueue<Range> pending = new ConcurrentLinkedQueue<Range>();
+				for (Range r : ranges) {
+					if (r != firstRange && r.next < r.end) {
+						pending.add(r);
+					}
+				}
+				List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+				int lanes = Math.min(parallelRanges - 1, pending.size());
+				for (int i = 0; i < lanes; i++) {
+					final FileChannel fchannel = channel;
+					futures.add(CompletableFuture.runAsync(() -> downloadRanges(pending, fchannel), HttpClient.getExecutor(HttpRequest.Priority.BULK)));
+				}
+				IOException error = null;
+				try {
+					readRange(firstRange, first.getInputStream(), channel, true);
+				}
+				catch (IOException e) {
+					error = e;
+				}
+				for (CompletableFuture<Void> future : futures) {
+					try {
+						future.join();
+					}
+					catch (CompletionException e) {
+						if (error == null) {
+							error = e.getCause() instanceof IOException ? (IOException) e.getCause()
+									: new IOException(e.getCause());
+						}
+					}
+				}
+				if (error != null) {
+					saveMeta();
+					throw error;
+				}
+			}
+			else if (first.getStatus() == 416) {
+				// E.g. empty file
+				deletePartFiles();
+				first.close();
+				first = null;
+				HttpRequest getRequest = new HttpRequest(url, "GET", headers, null);
+				getRequest.setPriority(HttpRequest.Priority.BULK);
+				return HttpClient.send(getRequest, this.cb);
+			}
+			else {
+				return first;
+			}
+
+			channel.close();
+			channel = null;
+			File file = File.createTempFile("itol", ".tmp", partFile.getParentFile());
+			Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			metaFile.delete();
+
+			ret.setStatus(200);
+			ret.setHeaders(responseHeaders);
+			ret.setFile(file);
+			log.info("downloaded " + url + " #" + file.length());
+		}
+		catch (IOException e) {
+			String msg = "HTTP request to URL=" + url + " failed. ";
+			log.log(Level.WARNING, msg, e);
+			ret.setErrorMessage(msg + e.toString());
+		}
+		finally {
+			if (first != null) {
+				first.close();
+			}
+			if (channel != null) {
+				try {
+					channel.close();
+				}
+				catch (IOException ignored) {
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Split the part of the file after the first range into ranges.
+	 */
+	private void makeRanges(Range firstRange) {
+		ranges.clear();
+		ranges.add(firstRange);
+		long rest = length - firstRange.end;
+		if (rest > 0) {
+			int n = (int) Math.max(1, Math.min(parallelRanges - 1, rest / MIN_RANGE_SIZE));
+			long size = (rest + n - 1) / n;
+			for (long start = firstRange.end; start < length; start += size) {
+				ranges.add(new Range(start, Math.min(start + size, length)));
+			}
+		}
+	}
+
+	private HttpRequest makeRequest(long start, long end) {
+		HttpRequest request = new HttpRequest(url, "GET", headers, null);
+		request.setHeader("Range", "bytes=" + start + "-" + (end - 1));
+		// Ranges refer to the encoded content.
+		request.setHeader("Accept-Encoding", "identity");
+		if (validator != null) {
+			request.setHeader("If-Range", validator);
+		}
+		request.setStreaming(true);
+		request.setPriority(HttpRequest.Priority.BULK);
+		return request;
+	}
+
+	private void downloadRanges(ConcurrentLinkedQueue<Range> pending, FileChannel channel) {
+		Range r;
+		while ((r = pending.poll()) != null) {
+			downloadRange(r, channel);
+		}
+	}
+
+	private void downloadRange(Range r, FileChannel channel) {
+		HttpResponse response = HttpClient.send(makeRequest(r.next, r.end), new CancelOnlyProgressCallback(cb));
+		try {
+			if (response.getStatus() != 206) {
+				String msg = response.getErrorMessage();
+				throw new IOException(!msg.isEmpty() ? msg : "Server returned HTTP response code: "
+						+ response.getStatus() + " for range request to URL: " + url);
+			}
+			readRange(r, response.getInputStream(), channel, true);
+		}
+		catch (IOException e) {
+			throw new CompletionException(e);
+		}
+		finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * Write the body of a range response into the part file.
+	 */
+	private void readRange(Range r, InputStream is, FileChannel channel, boolean resumable) throws IOException {
+		long saved = r.next;
+		long n = 0;
+		while (r.next < r.end && (n = HttpBufferPool.transfer(is, channel, r.next, r.end - r.next)) >= 0) {
+
+			if (cb.isCancelled()) {
+				throw new InterruptedIOException();
+			}
+
+			r.next += n;
+			addProgress(n);
+			if (resumable && r.next - saved >= SAVE_INTERVAL) {
+				saved = r.next;
+				saveMeta();
+			}
+		}
+		if (r.next < r.end && length >= 0) {
+			throw new EOFException("Unexpected end of range " + r + ", url=" + url);
+		}
+	}
+
+	private synchronized void addProgress(long n) {
+		received += n;
+		cb.setProgress(received);
+	}
+
+	private FileChannel openPartFile() throws IOException {
+		partFile.getParentFile().mkdirs();
+		if (length >= 0 && partFile.length() != length) {
+			RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+			try {
+				raf.setLength(length);
+			}
+			finally {
+				raf.close();
+			}
+		}
+		return FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	private void deletePartFiles() {
+		partFile.delete();
+		metaFile.delete();
+		validator = null;
+	}
+
+	/**
+	 * Load the ranges of a previous download.
+	 * @return true, if the download can be resumed.
+	 */
+	private synchronized boolean loadMeta() {
+		boolean ret = false;
+		if (metaFile.exists() && partFile.exists()) {
+			Properties props = new Properties();
+			try {
+				InputStream is = new FileInputStream(metaFile);
+				try {
+					props.load(is);
+				}
+				finally {
+					is.close();
+				}
+				length = Long.parseLong(props.getProperty("length"));
+				validator = props.getProperty("validator");
+				ranges.clear();
+				for (String range : props.getProperty("ranges").split(",")) {
+					int p = range.indexOf('-');
+					ranges.add(new Range(Long.parseLong(range.substring(0, p)), Long.parseLong(range.substring(p + 1))));
+				}
+				ret = url.equals(props.getProperty("url")) && validator != null && partFile.length() == length;
+			}
+			catch (IOException | RuntimeException e) {
+				log.log(Level.WARNING, "Failed to read " + metaFile, e);
+			}
+		}
+		if (!ret) {
+			deletePartFiles();
+			length = -1;
+			ranges.clear();
+		}
+		return ret;
+	}
+
+	private synchronized void saveMeta() {
+		if (validator == null) {
+			// Without validator, a part file cannot be resumed safely.
+			return;
+		}
+		Properties props = new Properties();
+		props.setProperty("url", url);
+		props.setProperty("length", Long.toString(length));
+		props.setProperty("validator", validator);
+		StringBuilder sbuf = new StringBuilder();
+		for (Range r : ranges) {
+			if (sbuf.length() != 0) sbuf.append(',');
+			sbuf.append(r.next).append('-').append(r.end);
+		}
+		props.setProperty("ranges", sbuf.toString());
+		try {
+			File tempFile = new File(metaFile.getParentFile(), metaFile.getName() + ".tmp");
+			OutputStream os = new FileOutputStream(tempFile);
+			try {
+				props.store(os, null);
+			}
+			finally {
+				os.close();
+			}
+			Files.move(tempFile.toPath(), metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			log.log(Level.WARNING, "Failed to write " + metaFile, e);
+		}
+	}
+
+	/**
+	 * Strong ETag or Last-Modified for the If-Range header.
+	 */
+	private static String getValidator(HttpResponse response) {
+		String ret = response.getHeader("ETag");
+		if (ret == null || ret.startsWith("W/")) {
+			ret = response.getHeader("Last-Modified");
+		}
+		return ret;
+	}
+
+	/**
+	 * Parse "bytes first-last/length".
+	 * @return Array of first, last, length
+	 */
+	private long[] parseContentRange(String contentRange) throws IOException {
+		try {
+			String s = contentRange.trim();
+			s = s.substring(s.indexOf(' ') + 1);
+			int p = s.indexOf('-');
+			int q = s.indexOf('/');
+			return new long[] { Long.parseLong(s.substring(0, p).trim()), Long.parseLong(s.substring(p + 1, q).trim()),
+					Long.parseLong(s.substring(q + 1).trim()) };
+		}
+		catch (RuntimeException e) {
+			throw new IOException("Invalid Content-Range=" + contentRange + ", url=" + url);
+		}
+	}
+
+	private static long parseLong(String s, long defaultValue) {
+		try {
+			return s != null ? Long.parseLong(s.trim()) : defaultValue;
+		}
+		catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}
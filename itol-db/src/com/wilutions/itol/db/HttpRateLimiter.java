@@ -0,0 +1,147 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket that limits the bandwidth of uploads.
+ * All uploads share one budget: each chunk takes its bytes out of the bucket,
+ * which is refilled at the configured rate. The rate can be changed at any time,
+ * waiting uploads continue with the new rate.
+ */
+public class HttpRateLimiter {
+
+	/**
+	 * Interval in which waiting callers check for cancellation and rate changes.
+	 */
+	private final static long MAX_WAIT_MILLIS = 100;
+
+	/**
+	 * Smallest chunk granted to a caller.
+	 */
+	private final static int MIN_CHUNK_SIZE = 4 * 1024;
+
+	private long bytesPerSecond;
+	private double tokens;
+	private long lastRefillNanos = System.nanoTime();
+	private final AtomicLong throttledMillis = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param bytesPerSecond Rate, 0 for unlimited.
+	 */
+	public HttpRateLimiter(long bytesPerSecond) {
+		setBytesPerSecond(bytesPerSecond);
+	}
+
+	/**
+	 * Change the rate.
+	 * @param bytesPerSecond Rate, 0 for unlimited.
+	 */
+	public synchronized void setBytesPerSecond(long bytesPerSecond) {
+		refill();
+		this.bytesPerSecond = Math.max(0, bytesPerSecond);
+		tokens = Math.min(tokens, getCapacity());
+		notifyAll();
+	}
+
+	public synchronized long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public synchronized boolean isLimited() {
+		return bytesPerSecond > 0;
+	}
+
+	/**
+	 * @return Time uploads have waited for the bucket to refill.
+	 */
+	public long getThrottledMillis() {
+		return throttledMillis.get();
+	}
+
+	/**
+	 * Maximum number of bytes the bucket holds: a quarter of a second.
+	 * This is also the largest chunk granted at once, so that progress
+	 * is reported several times per second.
+	 */
+	private double getCapacity() {
+		return Math.max(MIN_CHUNK_SIZE, bytesPerSecond / 4);
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		if (bytesPerSecond > 0) {
+			tokens = Math.min(getCapacity(), tokens + (now - lastRefillNanos) * bytesPerSecond / 1e9);
+		}
+		lastRefillNanos = now;
+	}
+
+	/**
+	 * Take bytes out of the bucket. Waits until enough bytes are available.
+	 * @param maxBytes Number of bytes the caller wants to send.
+	 * @param cb Progress callback checked for cancellation and deadline, can be null.
+	 * @return Number of bytes the caller may send now, at least 1 and at most maxBytes.
+	 * @throws InterruptedIOException if the callback is cancelled or the thread is interrupted.
+	 * @throws SocketTimeoutException if the deadline of the callback has passed.
+	 */
+	public int acquire(int maxBytes, ProgressCallback cb) throws InterruptedIOException {
+		long waitStart = 0;
+		try {
+			synchronized (this) {
+				while (true) {
+					if (bytesPerSecond <= 0) {
+						return maxBytes;
+					}
+					refill();
+					int want = (int) Math.min(maxBytes, getCapacity());
+					if (tokens >= want) {
+						tokens -= want;
+						return want;
+					}
+
+					if (cb != null) {
+						if (cb.isCancelled()) {
+							throw new InterruptedIOException("Request cancelled.");
+						}
+						long deadline = cb.getDeadline();
+						if (deadline != 0 && System.currentTimeMillis() >= deadline) {
+							throw new SocketTimeoutException("Deadline exceeded.");
+						}
+					}
+					if (waitStart == 0) {
+						waitStart = System.currentTimeMillis();
+					}
+					long waitMillis = (long) Math.ceil((want - tokens) * 1000 / bytesPerSecond);
+					try {
+						wait(Math.max(1, Math.min(MAX_WAIT_MILLIS, waitMillis)));
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+			}
+		}
+		finally {
+			if (waitStart != 0) {
+				throttledMillis.addAndGet(System.currentTimeMillis() - waitStart);
+			}
+		}
+	}
+
+	public String toString() {
+		return "[HttpRateLimiter bytesPerSecond=" + getBytesPerSecond() + ", throttledMillis=" + throttledMillis + "]";
+	}
+}
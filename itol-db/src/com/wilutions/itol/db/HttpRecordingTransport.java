@@ -0,0 +1,491 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Transport that records the exchanges of another transport into a directory.
+ * Each exchange is appended as one JSON line to the file INDEX_FILE, the
+ * response body is stored as received (still encoded) in a separate file.
+ * Credentials are replaced by "***" in request headers, cookies and URL
+ * parameters, and in members like "api_key" of JSON response bodies.
+ * JSON bodies that cannot be masked, e.g. because they were not read
+ * completely, are not stored. The recording can be served by HttpReplayTransport.
+ */
+public class HttpRecordingTransport implements HttpTransport {
+
+	private final static Logger log = Logger.getLogger(HttpRecordingTransport.class.getName());
+
+	public final static String INDEX_FILE = "index.jsonl";
+
+	private final static String MASK = "***";
+
+	private final static Set<String> SECRET_HEADERS = new HashSet<String>(Arrays.asList("authorization",
+			"proxy-authorization", "x-redmine-api-key", "cookie"));
+
+	private final static Set<String> SECRET_PARAMS = new HashSet<String>(Arrays.asList("key", "api_key", "apikey",
+			"password", "token", "access_token"));
+
+	private final static Set<String> SECRET_MEMBERS = new HashSet<String>(Arrays.asList("api_key", "apikey",
+			"password", "token", "access_token"));
+
+	private final HttpTransport transport;
+	private final File dir;
+	private final Writer index;
+	private final AtomicInteger sequence = new AtomicInteger();
+	private final long startTime = System.currentTimeMillis();
+
+	/**
+	 * Constructor.
+	 * @param transport Transport that sends the requests.
+	 * @param dir Directory of the recording. Existing recordings in this directory are extended.
+	 * @throws IOException
+	 */
+	public HttpRecordingTransport(HttpTransport transport, File dir) throws IOException {
+		this.transport = transport;
+		this.dir = dir;
+		dir.mkdirs();
+		File indexFile = new File(dir, INDEX_FILE);
+		if (indexFile.exists()) {
+			try (Stream<String> lines = Files.lines(indexFile.toPath(), StandardCharsets.UTF_8)) {
+				sequence.set((int) lines.count());
+			}
+		}
+		this.index = new OutputStreamWriter(new FileOutputStream(indexFile, true), StandardCharsets.UTF_8);
+		log.info("Record HTTP traffic into " + dir);
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * @return The transport that sends the requests.
+	 */
+	public HttpTransport getTransport() {
+		return transport;
+	}
+
+	@Override
+	public HttpExchange open(HttpRequest request) throws IOException {
+		long openTime = System.currentTimeMillis();
+		return new Exchange(request, transport.open(request), openTime);
+	}
+
+	@Override
+	public boolean prewarm(String url) throws IOException {
+		return transport.prewarm(url);
+	}
+
+	@Override
+	public boolean isWarm(String url) {
+		return transport.isWarm(url);
+	}
+
+	/**
+	 * Stop recording. The recorded transport is not closed.
+	 */
+	@Override
+	public void close() {
+		synchronized (index) {
+			try {
+				index.close();
+			}
+			catch (IOException e) {
+				log.log(Level.WARNING, "Failed to close " + INDEX_FILE, e);
+			}
+		}
+	}
+
+	/**
+	 * Replace credentials in URL parameters.
+	 * @param url URL
+	 * @return URL with "***" as value of parameters like "key" or "password".
+	 */
+	public static String sanitizeUrl(String url) {
+		int q = url.indexOf('?');
+		if (q < 0) {
+			return url;
+		}
+		StringBuilder sbuf = new StringBuilder(url.length());
+		sbuf.append(url, 0, q + 1);
+		String[] params = url.substring(q + 1).split("&", -1);
+		for (int i = 0; i < params.length; i++) {
+			if (i != 0) sbuf.append('&');
+			String param = params[i];
+			int e = param.indexOf('=');
+			if (e >= 0 && SECRET_PARAMS.contains(param.substring(0, e).toLowerCase(Locale.ROOT))) {
+				sbuf.append(param, 0, e + 1).append(MASK);
+			}
+			else {
+				sbuf.append(param);
+			}
+		}
+		return sbuf.toString();
+	}
+
+	/**
+	 * Replace the value of a header, if it contains credentials.
+	 * @param name Header name
+	 * @param value Header value
+	 * @return Value or "***". For Set-Cookie, only the cookie value is replaced.
+	 */
+	public static String sanitizeHeader(String name, String value) {
+		if (name == null || value == null) {
+			return value;
+		}
+		String lname = name.toLowerCase(Locale.ROOT);
+		if (SECRET_HEADERS.contains(lname)) {
+			return MASK;
+		}
+		if (lname.equals("set-cookie")) {
+			int e = value.indexOf('=');
+			int s = value.indexOf(';');
+			if (e >= 0 && (s < 0 || e < s)) {
+				return value.substring(0, e + 1) + MASK + (s >= 0 ? value.substring(s) : "");
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Replace the values of members like "api_key" in a JSON value.
+	 * @param value JSONObject, JSONArray or other value, modified in place.
+	 */
+	public static void sanitizeJson(Object value) {
+		if (value instanceof JSONObject) {
+			JSONObject obj = (JSONObject) value;
+			for (String name : obj.keySet()) {
+				if (SECRET_MEMBERS.contains(name.toLowerCase(Locale.ROOT))) {
+					if (!obj.isNull(name)) {
+						obj.put(name, MASK);
+					}
+				}
+				else {
+					sanitizeJson(obj.opt(name));
+				}
+			}
+		}
+		else if (value instanceof JSONArray) {
+			JSONArray arr = (JSONArray) value;
+			for (int i = 0; i < arr.length(); i++) {
+				sanitizeJson(arr.opt(i));
+			}
+		}
+	}
+
+	private void writeEntry(JSONObject entry) {
+		synchronized (index) {
+			try {
+				index.write(entry.toString());
+				index.write('\n');
+				index.flush();
+			}
+			catch (IOException e) {
+				log.log(Level.WARNING, "Failed to record HTTP exchange", e);
+			}
+		}
+	}
+
+	/**
+	 * Exchange that copies the response body into a file and records the exchange when it is closed.
+	 */
+	private class Exchange implements HttpExchange {
+
+		private final HttpRequest request;
+		private final HttpExchange exchange;
+		private final long openTime;
+		private final int seq = sequence.incrementAndGet();
+		private OutputStream requestBody;
+		private long requestBytes;
+		private int status;
+		private long ttfbMillis = -1;
+		private long lastReadTime;
+		private InputStream responseBody;
+		private OutputStream bodyFile;
+		private long responseBytes;
+		private boolean recorded;
+
+		Exchange(HttpRequest request, HttpExchange exchange, long openTime) {
+			this.request = request;
+			this.exchange = exchange;
+			this.openTime = openTime;
+		}
+
+		private String getBodyFileName() {
+			return String.format("%06d.body", seq);
+		}
+
+		@Override
+		public OutputStream getRequestBody() throws IOException {
+			if (requestBody == null) {
+				requestBody = new FilterOutputStream(exchange.getRequestBody()) {
+					@Override
+					public void write(int b) throws IOException {
+						out.write(b);
+						requestBytes++;
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						out.write(b, off, len);
+						requestBytes += len;
+					}
+				};
+			}
+			return requestBody;
+		}
+
+		@Override
+		public int getStatus() throws IOException {
+			int ret = exchange.getStatus();
+			status = ret;
+			if (ttfbMillis < 0) {
+				ttfbMillis = System.currentTimeMillis() - openTime;
+			}
+			return ret;
+		}
+
+		@Override
+		public URL getURL() {
+			return exchange.getURL();
+		}
+
+		@Override
+		public boolean isPermanentlyRedirected() {
+			return exchange.isPermanentlyRedirected();
+		}
+
+		@Override
+		public Map<String, List<String>> getHeaderFields() {
+			return exchange.getHeaderFields();
+		}
+
+		@Override
+		public String getHeaderField(String name) {
+			return exchange.getHeaderField(name);
+		}
+
+		@Override
+		public InputStream getResponseBody() throws IOException {
+			if (responseBody == null) {
+				bodyFile = new FileOutputStream(new File(dir, getBodyFileName()));
+				responseBody = new FilterInputStream(exchange.getResponseBody()) {
+					@Override
+					public int read() throws IOException {
+						int c = in.read();
+						if (c >= 0) {
+							bodyFile.write(c);
+							responseBytes++;
+						}
+						lastReadTime = System.currentTimeMillis();
+						return c;
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						int n = in.read(b, off, len);
+						if (n > 0) {
+							bodyFile.write(b, off, n);
+							responseBytes += n;
+						}
+						lastReadTime = System.currentTimeMillis();
+						return n;
+					}
+
+					@Override
+					public long skip(long n) throws IOException {
+						return read(new byte[(int) Math.min(n, 8 * 1024)]);
+					}
+
+					@Override
+					public boolean markSupported() {
+						return false;
+					}
+				};
+			}
+			return responseBody;
+		}
+
+		@Override
+		public boolean isConnectionReused() {
+			return exchange.isConnectionReused();
+		}
+
+		@Override
+		public long getConnectMillis() {
+			return exchange.getConnectMillis();
+		}
+
+		@Override
+		public long getHandshakeMillis() {
+			return exchange.getHandshakeMillis();
+		}
+
+		@Override
+		public void setReadTimeout(int millis) throws IOException {
+			exchange.setReadTimeout(millis);
+		}
+
+		@Override
+		public void close() {
+			exchange.close();
+			record(null);
+		}
+
+		@Override
+		public void abort() {
+			exchange.abort();
+			record("aborted");
+		}
+
+		private synchronized void record(String error) {
+			if (recorded) {
+				return;
+			}
+			recorded = true;
+			long maskedBytes = -1;
+			if (bodyFile != null) {
+				try {
+					bodyFile.close();
+				}
+				catch (IOException e) {
+					error = e.toString();
+				}
+				if (isJson()) {
+					maskedBytes = maskBody(error == null);
+				}
+			}
+
+			JSONObject entry = new JSONObject();
+			entry.put("seq", seq);
+			entry.put("startMillis", openTime - startTime);
+			entry.put("method", request.getMethod());
+			entry.put("url", sanitizeUrl(request.getUrl()));
+			JSONArray requestHeaders = new JSONArray();
+			for (String header : request.getHeaders()) {
+				int p = header.indexOf(':');
+				String name = p >= 0 ? header.substring(0, p).trim() : header;
+				String value = p >= 0 ? header.substring(p + 1).trim() : "";
+				requestHeaders.put(name + ": " + sanitizeHeader(name, value));
+			}
+			entry.put("requestHeaders", requestHeaders);
+			entry.put("requestBytes", requestBytes);
+			if (ttfbMillis >= 0) {
+				entry.put("status", status);
+				URL url = exchange.getURL();
+				if (url != null) {
+					entry.put("responseUrl", sanitizeUrl(url.toString()));
+				}
+				if (exchange.isPermanentlyRedirected()) {
+					entry.put("permanentRedirect", true);
+				}
+				JSONObject responseHeaders = new JSONObject();
+				Map<String, List<String>> fields = exchange.getHeaderFields();
+				if (fields != null) {
+					for (Map.Entry<String, List<String>> e : fields.entrySet()) {
+						JSONArray values = new JSONArray();
+						for (String value : e.getValue()) {
+							if (maskedBytes >= 0 && "Content-Length".equalsIgnoreCase(e.getKey())) {
+								value = Long.toString(maskedBytes);
+							}
+							values.put(sanitizeHeader(e.getKey(), value));
+						}
+						responseHeaders.put(e.getKey() != null ? e.getKey() : "", values);
+					}
+				}
+				entry.put("responseHeaders", responseHeaders);
+			}
+			if (bodyFile != null && (maskedBytes >= 0 || !isJson())) {
+				entry.put("body", getBodyFileName());
+				entry.put("responseBytes", maskedBytes >= 0 ? maskedBytes : responseBytes);
+			}
+			entry.put("ttfbMillis", ttfbMillis);
+			if (lastReadTime != 0) {
+				// Time until the last byte of the body was received.
+				entry.put("bodyMillis", lastReadTime - openTime);
+			}
+			entry.put("totalMillis", System.currentTimeMillis() - openTime);
+			if (error != null) {
+				entry.put("error", error);
+			}
+			writeEntry(entry);
+		}
+
+		private boolean isJson() {
+			String contentType = exchange.getHeaderField("Content-Type");
+			return contentType != null && contentType.toLowerCase(Locale.ROOT).contains("json");
+		}
+
+		/**
+		 * Replace credentials in the JSON body file.
+		 * @param complete true, if the body has been received completely.
+		 * @return Size of the masked body file or -1, if the file has been deleted.
+		 */
+		private long maskBody(boolean complete) {
+			File file = new File(dir, getBodyFileName());
+			String encoding = exchange.getHeaderField("Content-Encoding");
+			boolean gzip = encoding != null && encoding.trim().equalsIgnoreCase("gzip");
+			try {
+				if (!complete || (encoding != null && !gzip && !encoding.trim().equalsIgnoreCase("identity"))) {
+					throw new IOException("Cannot mask response body, encoding=" + encoding + ", complete=" + complete);
+				}
+				if (file.length() == 0) {
+					return 0;
+				}
+				Object value;
+				try (InputStream is = gzip ? new GZIPInputStream(new FileInputStream(file)) : new FileInputStream(file)) {
+					value = new JSONTokener(new InputStreamReader(is, StandardCharsets.UTF_8)).nextValue();
+				}
+				sanitizeJson(value);
+				try (OutputStream os = gzip ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file)) {
+					os.write(value.toString().getBytes(StandardCharsets.UTF_8));
+				}
+				return file.length();
+			}
+			catch (IOException | RuntimeException e) {
+				log.log(Level.WARNING, "Response body of " + sanitizeUrl(request.getUrl()) + " is not recorded.", e);
+				file.delete();
+				return -1;
+			}
+		}
+	}
+}
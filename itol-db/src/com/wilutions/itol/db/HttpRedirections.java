@@ -0,0 +1,277 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * URL rewrite rules learned from redirected requests.
+ * A rule maps a URL prefix to its replacement, e.g. "http://redmine.example.com/"
+ * to "https://redmine.example.com/". The rules are compiled into an immutable
+ * prefix trie, so that rewriting a URL does not need a lock and takes time
+ * proportional to the URL length. Rules are stored in a file and loaded again
+ * on the next start.
+ */
+public class HttpRedirections {
+
+	private final static Logger log = Logger.getLogger(HttpRedirections.class.getName());
+
+	private File file;
+
+	/**
+	 * Rules, source of the trie. Guarded by this.
+	 */
+	private final TreeMap<String, String> rules = new TreeMap<String, String>();
+
+	private volatile Node root = new Node();
+
+	/**
+	 * Trie node. Children are sorted by character.
+	 */
+	private static class Node {
+		char[] chars = new char[0];
+		Node[] children = new Node[0];
+		String replacement;
+
+		Node child(char c) {
+			int idx = Arrays.binarySearch(chars, c);
+			return idx >= 0 ? children[idx] : null;
+		}
+
+		Node addChild(char c) {
+			int idx = Arrays.binarySearch(chars, c);
+			if (idx >= 0) {
+				return children[idx];
+			}
+			idx = -idx - 1;
+			char[] nchars = new char[chars.length + 1];
+			Node[] nchildren = new Node[children.length + 1];
+			System.arraycopy(chars, 0, nchars, 0, idx);
+			System.arraycopy(children, 0, nchildren, 0, idx);
+			System.arraycopy(chars, idx, nchars, idx + 1, chars.length - idx);
+			System.arraycopy(children, idx, nchildren, idx + 1, children.length - idx);
+			Node ret = new Node();
+			nchars[idx] = c;
+			nchildren[idx] = ret;
+			chars = nchars;
+			children = nchildren;
+			return ret;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param file File to store the rules. Rules stored by a previous instance are loaded. Can be null.
+	 */
+	public HttpRedirections(File file) {
+		this.file = file;
+		load();
+	}
+
+	public synchronized File getFile() {
+		return file;
+	}
+
+	/**
+	 * Change the file of the rules.
+	 * The rules are replaced by the rules stored in the file, if it exists.
+	 * Otherwise, the current rules are written into the file.
+	 * @param file File or null to keep the rules in memory only.
+	 */
+	public synchronized void setFile(File file) {
+		this.file = file;
+		if (file != null && file.exists()) {
+			rules.clear();
+			load();
+		}
+		else {
+			save();
+		}
+	}
+
+	/**
+	 * Apply the rule with the longest matching prefix.
+	 * @param url URL
+	 * @return Rewritten URL or the given URL, if no rule matches.
+	 */
+	public String rewrite(String url) {
+		Node node = root;
+		String replacement = null;
+		int prefixLength = 0;
+		for (int i = 0; i < url.length() && node != null; i++) {
+			node = node.child(url.charAt(i));
+			if (node != null && node.replacement != null) {
+				replacement = node.replacement;
+				prefixLength = i + 1;
+			}
+		}
+		return replacement != null ? replacement + url.substring(prefixLength) : url;
+	}
+
+	/**
+	 * Learn a rule from a permanently redirected request (301, 308).
+	 * The rule replaces the part of the old URL that differs from the new URL.
+	 * It covers at least scheme and host and ends after a slash, e.g.
+	 * "http://host/a/issues.json" redirected to "https://host/b/issues.json"
+	 * results in "http://host/a/" -&gt; "https://host/b/".
+	 * Redirects that add a query, e.g. to a login page, are ignored.
+	 * @param oldUrl Requested URL
+	 * @param newUrl URL of the response
+	 * @return true, if a rule has been added.
+	 */
+	public boolean learn(String oldUrl, String newUrl) {
+		// Length of the common suffix.
+		int suffixLength = 0;
+		int maxSuffixLength = Math.min(oldUrl.length(), newUrl.length());
+		while (suffixLength < maxSuffixLength && oldUrl.charAt(oldUrl.length() - 1 - suffixLength) == newUrl
+				.charAt(newUrl.length() - 1 - suffixLength)) {
+			suffixLength++;
+		}
+
+		int originLength = getOriginLength(oldUrl);
+		int prefixLength = Math.max(oldUrl.length() - suffixLength, originLength);
+		if (prefixLength < oldUrl.length() && oldUrl.charAt(prefixLength - 1) != '/') {
+			int p = oldUrl.indexOf('/', prefixLength);
+			prefixLength = p >= 0 ? p + 1 : oldUrl.length();
+		}
+		suffixLength = oldUrl.length() - prefixLength;
+
+		String prefix = oldUrl.substring(0, prefixLength);
+		String replacement = newUrl.substring(0, newUrl.length() - suffixLength);
+		if (prefix.equals(replacement) || prefix.indexOf('?') >= 0 || replacement.indexOf('?') >= 0) {
+			if (log.isLoggable(Level.FINE)) log.fine("ignore redirection " + oldUrl + " -> " + newUrl);
+			return false;
+		}
+
+		log.info("add redirection " + prefix + " -> " + replacement);
+		synchronized (this) {
+			if (replacement.equals(rules.get(prefix))) {
+				return false;
+			}
+			rules.put(prefix, replacement);
+			compile();
+			save();
+		}
+		return true;
+	}
+
+	/**
+	 * Length of scheme and host part of an URL, e.g. 26 for "https://redmine.example.com/issues.json".
+	 */
+	private static int getOriginLength(String url) {
+		int p = url.indexOf("://");
+		p = p >= 0 ? url.indexOf('/', p + 3) : -1;
+		return p >= 0 ? p : url.length();
+	}
+
+	/**
+	 * Remove a rule.
+	 * @param prefix URL prefix
+	 */
+	public synchronized void remove(String prefix) {
+		if (rules.remove(prefix) != null) {
+			compile();
+			save();
+		}
+	}
+
+	/**
+	 * Remove all rules.
+	 */
+	public synchronized void clear() {
+		rules.clear();
+		compile();
+		save();
+	}
+
+	/**
+	 * Get the rules.
+	 * @return Map of URL prefix to replacement.
+	 */
+	public synchronized Map<String, String> getRules() {
+		return new TreeMap<String, String>(rules);
+	}
+
+	private void compile() {
+		Node newRoot = new Node();
+		for (Map.Entry<String, String> rule : rules.entrySet()) {
+			Node node = newRoot;
+			String prefix = rule.getKey();
+			for (int i = 0; i < prefix.length(); i++) {
+				node = node.addChild(prefix.charAt(i));
+			}
+			node.replacement = rule.getValue();
+		}
+		root = newRoot;
+	}
+
+	private synchronized void load() {
+		if (file != null && file.exists()) {
+			Properties props = new Properties();
+			try {
+				InputStream is = new FileInputStream(file);
+				try {
+					props.load(is);
+				}
+				finally {
+					is.close();
+				}
+				for (String prefix : props.stringPropertyNames()) {
+					rules.put(prefix, props.getProperty(prefix));
+				}
+				if (log.isLoggable(Level.FINE)) log.fine("loaded redirections " + rules);
+			}
+			catch (IOException e) {
+				log.log(Level.WARNING, "Failed to read redirections from " + file, e);
+			}
+		}
+		compile();
+	}
+
+	private void save() {
+		if (file != null) {
+			Properties props = new Properties();
+			props.putAll(rules);
+			try {
+				file.getParentFile().mkdirs();
+				File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+				OutputStream os = new FileOutputStream(tempFile);
+				try {
+					props.store(os, "URL prefix = replacement");
+				}
+				finally {
+					os.close();
+				}
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (IOException e) {
+				log.log(Level.WARNING, "Failed to write redirections into " + file, e);
+			}
+		}
+	}
+
+	public synchronized String toString() {
+		return "[HttpRedirections " + rules + "]";
+	}
+}
@@ -0,0 +1,324 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Transport that answers requests from a recording made by HttpRecordingTransport.
+ * Requests are matched by method and URL (credentials in URL parameters are ignored).
+ * Identical requests receive the recorded responses in the order of the recording,
+ * the last response is repeated if there are more requests than recorded.
+ * Responses are delayed by the recorded latency multiplied by a scale factor.
+ */
+public class HttpReplayTransport implements HttpTransport {
+
+	private final static Logger log = Logger.getLogger(HttpReplayTransport.class.getName());
+
+	/**
+	 * Interval in which delayed responses check whether the exchange has been aborted.
+	 */
+	private final static long SLEEP_SLICE_MILLIS = 50;
+
+	private final File dir;
+	private volatile double latencyScale;
+	private final Map<String, List<JSONObject>> entries = new HashMap<String, List<JSONObject>>();
+	private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+	/**
+	 * Constructor.
+	 * @param dir Directory of the recording.
+	 * @param latencyScale Factor applied to the recorded latencies: 1 replays the original timing, 0 answers immediately.
+	 * @throws IOException
+	 */
+	public HttpReplayTransport(File dir, double latencyScale) throws IOException {
+		this.dir = dir;
+		this.latencyScale = Math.max(0, latencyScale);
+		int count = 0;
+		for (String line : Files.readAllLines(new File(dir, HttpRecordingTransport.INDEX_FILE).toPath(),
+				StandardCharsets.UTF_8)) {
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			JSONObject entry = new JSONObject(line);
+			if (entry.has("error") || !entry.has("status")) {
+				continue;
+			}
+			String key = makeKey(entry.getString("method"), entry.getString("url"));
+			List<JSONObject> list = entries.get(key);
+			if (list == null) {
+				list = new ArrayList<JSONObject>();
+				entries.put(key, list);
+			}
+			list.add(entry);
+			count++;
+		}
+		log.info("Replay " + count + " HTTP exchanges from " + dir + ", latencyScale=" + latencyScale);
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	public double getLatencyScale() {
+		return latencyScale;
+	}
+
+	public void setLatencyScale(double latencyScale) {
+		this.latencyScale = Math.max(0, latencyScale);
+	}
+
+	private static String makeKey(String method, String url) {
+		return method + " " + HttpRecordingTransport.sanitizeUrl(url);
+	}
+
+	private synchronized JSONObject nextEntry(HttpRequest request) throws IOException {
+		String key = makeKey(request.getMethod(), request.getUrl());
+		List<JSONObject> list = entries.get(key);
+		if (list == null) {
+			throw new IOException("No recorded response for " + key);
+		}
+		Integer pos = positions.get(key);
+		int idx = pos != null ? pos : 0;
+		positions.put(key, idx + 1);
+		return list.get(Math.min(idx, list.size() - 1));
+	}
+
+	/**
+	 * Start again with the first recorded response of each request.
+	 */
+	public synchronized void rewind() {
+		positions.clear();
+	}
+
+	@Override
+	public HttpExchange open(HttpRequest request) throws IOException {
+		return new Exchange(request, nextEntry(request));
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private class Exchange implements HttpExchange {
+
+		private final JSONObject entry;
+		private final long openTime = System.currentTimeMillis();
+		private final double scale = latencyScale;
+		private final URL url;
+		private final Map<String, List<String>> headerFields;
+		private OutputStream requestBody;
+		private InputStream responseBody;
+		private volatile boolean aborted;
+
+		Exchange(HttpRequest request, JSONObject entry) throws IOException {
+			this.entry = entry;
+			this.url = new URL(entry.optString("responseUrl", request.getUrl()));
+			Map<String, List<String>> fields = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+			List<String> statusLine = null;
+			JSONObject headers = entry.optJSONObject("responseHeaders");
+			if (headers != null) {
+				for (String name : headers.keySet()) {
+					JSONArray values = headers.getJSONArray(name);
+					List<String> list = new ArrayList<String>(values.length());
+					for (int i = 0; i < values.length(); i++) {
+						list.add(values.getString(i));
+					}
+					if (name.isEmpty()) {
+						statusLine = list;
+					}
+					else {
+						fields.put(name, Collections.unmodifiableList(list));
+					}
+				}
+			}
+			LinkedHashMap<String, List<String>> ret = new LinkedHashMap<String, List<String>>();
+			if (statusLine != null) {
+				ret.put(null, statusLine);
+			}
+			ret.putAll(fields);
+			this.headerFields = Collections.unmodifiableMap(ret);
+		}
+
+		/**
+		 * Wait until the given time after opening the exchange, scaled by the latency factor.
+		 */
+		private void sleepUntil(double recordedMillis) throws IOException {
+			long until = openTime + (long) (recordedMillis * scale);
+			long now;
+			while ((now = System.currentTimeMillis()) < until) {
+				if (aborted) {
+					throw new InterruptedIOException("Exchange aborted.");
+				}
+				try {
+					Thread.sleep(Math.min(SLEEP_SLICE_MILLIS, until - now));
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+			if (aborted) {
+				throw new InterruptedIOException("Exchange aborted.");
+			}
+		}
+
+		@Override
+		public OutputStream getRequestBody() throws IOException {
+			if (requestBody == null) {
+				// The request body is not compared with the recording.
+				requestBody = new ByteArrayOutputStream() {
+					@Override
+					public void write(byte[] b, int off, int len) {
+						// discard
+					}
+
+					@Override
+					public void write(int b) {
+						// discard
+					}
+				};
+			}
+			return requestBody;
+		}
+
+		@Override
+		public int getStatus() throws IOException {
+			sleepUntil(Math.max(0, entry.optLong("ttfbMillis", 0)));
+			return entry.getInt("status");
+		}
+
+		@Override
+		public URL getURL() {
+			return url;
+		}
+
+		@Override
+		public boolean isPermanentlyRedirected() {
+			return entry.optBoolean("permanentRedirect");
+		}
+
+		@Override
+		public Map<String, List<String>> getHeaderFields() {
+			return headerFields;
+		}
+
+		@Override
+		public String getHeaderField(String name) {
+			for (Map.Entry<String, List<String>> e : headerFields.entrySet()) {
+				if (e.getKey() != null && e.getKey().equalsIgnoreCase(name) && !e.getValue().isEmpty()) {
+					return e.getValue().get(0);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public InputStream getResponseBody() throws IOException {
+			if (responseBody == null) {
+				String fileName = entry.optString("body", null);
+				InputStream is = fileName != null ? new FileInputStream(new File(dir, fileName))
+						: new ByteArrayInputStream(new byte[0]);
+				responseBody = new DelayedInputStream(is, entry.optLong("responseBytes", 0));
+			}
+			return responseBody;
+		}
+
+		@Override
+		public void close() {
+			if (responseBody != null) {
+				try {
+					responseBody.close();
+				}
+				catch (IOException ignored) {
+				}
+			}
+		}
+
+		@Override
+		public void abort() {
+			aborted = true;
+			close();
+		}
+
+		/**
+		 * Response body that arrives at the recorded transfer rate.
+		 */
+		private class DelayedInputStream extends FilterInputStream {
+
+			private final long size;
+			private final long ttfbMillis = Math.max(0, entry.optLong("ttfbMillis", 0));
+			private final long transferMillis = Math.max(0,
+					entry.optLong("bodyMillis", entry.optLong("totalMillis", 0)) - ttfbMillis);
+			private long pos;
+
+			DelayedInputStream(InputStream in, long size) {
+				super(in);
+				this.size = size;
+			}
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF);
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = in.read(b, off, Math.min(len, HttpBufferPool.BUFFER_SIZE));
+				if (n > 0) {
+					pos += n;
+					if (size > 0) {
+						sleepUntil(ttfbMillis + (double) transferMillis * Math.min(pos, size) / size);
+					}
+				}
+				else if (n < 0) {
+					sleepUntil(ttfbMillis + transferMillis);
+				}
+				return n;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				byte[] buf = new byte[(int) Math.min(n, 8 * 1024)];
+				int ret = read(buf, 0, buf.length);
+				return Math.max(0, ret);
+			}
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+		}
+	}
+}
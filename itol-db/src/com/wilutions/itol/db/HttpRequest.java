@@ -0,0 +1,267 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * HTTP request passed to HttpClient and its transport.
+ */
+public class HttpRequest {
+
+	/**
+	 * Traffic lane of a request.
+	 * Each lane has its own connections and threads, so that file transfers
+	 * cannot delay requests the user is waiting for.
+	 */
+	public enum Priority {
+		/**
+		 * Small requests the user is waiting for, e.g. reading an issue or loading a dialog.
+		 */
+		INTERACTIVE,
+		/**
+		 * Uploads and downloads of attachments.
+		 */
+		BULK
+	}
+
+	private String url;
+	private String method;
+	private List<String> headers = new ArrayList<String>();
+	private Object content;
+	private long contentLength = -1;
+	private boolean streaming;
+	private File destination;
+	private int readTimeoutMillis = -1;
+	private Priority priority;
+	private BooleanSupplier cancelled;
+
+	public HttpRequest() {
+		this("", "GET", null, null);
+	}
+
+	/**
+	 * Constructor.
+	 * @param url URL
+	 * @param method Either "POST", "GET", "PUT", "DELETE".
+	 * @param headers Array of headers, each header in form "header-name : header-value". Can be null.
+	 * @param content Request body: String, File, InputStream, HttpBodyWriter or null.
+	 */
+	public HttpRequest(String url, String method, String[] headers, Object content) {
+		this.url = url;
+		this.method = method;
+		this.content = content;
+		if (headers != null) {
+			for (String header : headers) {
+				addHeader(header);
+			}
+		}
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public void setMethod(String method) {
+		this.method = method;
+	}
+
+	public Object getContent() {
+		return content;
+	}
+
+	public void setContent(Object content) {
+		this.content = content;
+	}
+
+	/**
+	 * Number of bytes in the request body.
+	 * @return Content length or -1, if unknown.
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	public void setContentLength(long contentLength) {
+		this.contentLength = contentLength;
+	}
+
+	/**
+	 * Streaming mode: the response body of a successful request is neither
+	 * stored in HttpResponse.content nor in a file. The caller reads it from
+	 * HttpResponse.getReader() or getInputStream() and has to close the response.
+	 * @return true, if streaming mode is on.
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Maximum time to wait for data from the server.
+	 * @return Timeout in milliseconds, 0 to wait infinitely, -1 for the default of HttpClient.
+	 */
+	public int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	public void setReadTimeoutMillis(int readTimeoutMillis) {
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	/**
+	 * Check whether the request has been cancelled before it was sent,
+	 * e.g. while it waits for a free connection.
+	 * @return true, if the request should not be sent anymore.
+	 */
+	public boolean isCancelled() {
+		return cancelled != null && cancelled.getAsBoolean();
+	}
+
+	/**
+	 * Set the function that tells whether the request has been cancelled.
+	 * @param cancelled Function or null
+	 */
+	public void setCancelled(BooleanSupplier cancelled) {
+		this.cancelled = cancelled;
+	}
+
+	/**
+	 * Lane in which the request is sent.
+	 * If no priority has been set, requests that upload a file or stream or
+	 * download into a file are BULK, all others are INTERACTIVE.
+	 * @return Priority
+	 */
+	public Priority getPriority() {
+		if (priority != null) {
+			return priority;
+		}
+		boolean bulk = destination != null || content instanceof File
+				|| (content instanceof InputStream && !(content instanceof ByteArrayInputStream));
+		return bulk ? Priority.BULK : Priority.INTERACTIVE;
+	}
+
+	/**
+	 * Set the lane in which the request is sent.
+	 * @param priority Priority or null to derive it from the content.
+	 */
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * File into which a response body that is neither JSON nor HTML is written.
+	 * @return File or null, if the body is written into a temporary file.
+	 */
+	public File getDestination() {
+		return destination;
+	}
+
+	public void setDestination(File destination) {
+		this.destination = destination;
+	}
+
+	/**
+	 * Request headers.
+	 * @return List of headers in form "header-name: header-value".
+	 */
+	public List<String> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Add a header. If a header with the same name exists, it is replaced.
+	 * @param header Header in form "header-name: header-value"
+	 */
+	public void addHeader(String header) {
+		int p = header.indexOf(":");
+		String key = header.trim();
+		String value = "";
+		if (p >= 0) {
+			key = header.substring(0, p).trim();
+			value = header.substring(p + 1).trim();
+		}
+		setHeader(key, value);
+	}
+
+	/**
+	 * Set header value.
+	 * @param key Header name
+	 * @param value Header value. If null, the header is removed.
+	 */
+	public void setHeader(String key, String value) {
+		int idx = indexOfHeader(key);
+		String header = key + ": " + value;
+		if (value == null) {
+			if (idx >= 0) {
+				headers.remove(idx);
+			}
+		}
+		else if (idx >= 0) {
+			headers.set(idx, header);
+		}
+		else {
+			headers.add(header);
+		}
+	}
+
+	/**
+	 * Get header value.
+	 * @param key Header name, case insensitive.
+	 * @return Header value or null.
+	 */
+	public String getHeader(String key) {
+		String ret = null;
+		int idx = indexOfHeader(key);
+		if (idx >= 0) {
+			String header = headers.get(idx);
+			ret = header.substring(header.indexOf(':') + 1).trim();
+		}
+		return ret;
+	}
+
+	private int indexOfHeader(String key) {
+		for (int i = 0; i < headers.size(); i++) {
+			String header = headers.get(i);
+			int p = header.indexOf(':');
+			if (p == key.length() && header.regionMatches(true, 0, key, 0, p)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public String toString() {
+		StringBuilder sbuf = new StringBuilder();
+		sbuf.append("[").append(method).append(" ").append(url);
+		sbuf.append(",headers=" + Arrays.toString(headers.toArray()));
+		sbuf.append(",contentLength=" + contentLength);
+		sbuf.append("]");
+		return sbuf.toString();
+	}
+}
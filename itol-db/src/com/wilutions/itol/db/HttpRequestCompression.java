@@ -0,0 +1,222 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends JSON request bodies with Content-Encoding: gzip.
+ * Whether a server accepts compressed bodies is probed with the first
+ * compressible request to the server. If the server rejects it with status
+ * 400, 415 or 422, the request is sent again uncompressed. If that succeeds,
+ * further requests to this server are sent uncompressed.
+ * The body is compressed while it is written into the connection.
+ */
+public class HttpRequestCompression {
+
+	private final static Logger log = Logger.getLogger(HttpRequestCompression.class.getName());
+
+	/**
+	 * String bodies shorter than this are sent uncompressed.
+	 */
+	public final static int MIN_SIZE = 1024;
+
+	private final static int BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * Whether a server accepts compressed request bodies.
+	 */
+	public enum Support {
+		UNKNOWN, PROBING, SUPPORTED, UNSUPPORTED
+	}
+
+	private final ConcurrentHashMap<String, Support> origins = new ConcurrentHashMap<String, Support>();
+
+	/**
+	 * Check whether the request body can be compressed.
+	 * @param request Request
+	 * @return true for POST, PUT and PATCH requests with a JSON body given as String or HttpBodyWriter.
+	 */
+	public boolean isCompressible(HttpRequest request) {
+		String method = request.getMethod();
+		if (!method.equals("POST") && !method.equals("PUT") && !method.equals("PATCH")) {
+			return false;
+		}
+		Object content = request.getContent();
+		if (content instanceof String) {
+			if (((String) content).length() < MIN_SIZE) {
+				return false;
+			}
+		}
+		else if (!(content instanceof HttpBodyWriter)) {
+			return false;
+		}
+		String contentType = request.getHeader("Content-Type");
+		return contentType != null && contentType.toLowerCase().contains("json")
+				&& request.getHeader("Content-Encoding") == null
+				&& getSupport(request.getUrl()) != Support.UNSUPPORTED;
+	}
+
+	/**
+	 * Send a request with compressed body, if the server supports it.
+	 * @param request Request, see isCompressible
+	 * @param cb Progress callback
+	 * @param sender Function that sends the request.
+	 * @return Response
+	 */
+	public HttpResponse send(HttpRequest request, ProgressCallback cb,
+			BiFunction<HttpRequest, ProgressCallback, HttpResponse> sender) {
+		String origin = getOrigin(request.getUrl());
+		Support support = origins.get(origin);
+		boolean probe = false;
+		if (support == null) {
+			probe = origins.putIfAbsent(origin, Support.PROBING) == null;
+			if (!probe) {
+				support = origins.get(origin);
+			}
+		}
+		if (!probe && support != Support.SUPPORTED) {
+			// Unsupported or another request is probing.
+			return sender.apply(request, cb);
+		}
+
+		HttpResponse ret = null;
+		try {
+			ret = sendCompressed(request, cb, sender);
+		}
+		catch (RuntimeException e) {
+			if (probe) {
+				origins.remove(origin);
+			}
+			throw e;
+		}
+
+		int status = ret.getStatus();
+		if (status >= 200 && status <= 399) {
+			if (probe) {
+				origins.put(origin, Support.SUPPORTED);
+				log.info("Server " + origin + " accepts compressed request bodies.");
+			}
+		}
+		else if (status == 400 || status == 415 || status == 422) {
+			if (log.isLoggable(Level.FINE)) log.fine("Compressed request to " + request.getUrl() + " failed with status=" + status + ", send uncompressed.");
+			ret.close();
+			ret = sender.apply(request, cb);
+			status = ret.getStatus();
+			if (status >= 200 && status <= 399) {
+				origins.put(origin, Support.UNSUPPORTED);
+				log.info("Server " + origin + " does not accept compressed request bodies.");
+			}
+			else if (probe) {
+				// Rejected for another reason, probe again with the next request.
+				origins.remove(origin);
+			}
+		}
+		else if (probe) {
+			origins.remove(origin);
+		}
+		return ret;
+	}
+
+	private static HttpResponse sendCompressed(HttpRequest request, ProgressCallback cb,
+			BiFunction<HttpRequest, ProgressCallback, HttpResponse> sender) {
+		Object content = request.getContent();
+		String contentLength = request.getHeader("Content-Length");
+		request.setContent(makeGzipWriter(content));
+		request.setHeader("Content-Encoding", "gzip");
+		request.setHeader("Content-Length", null);
+		try {
+			return sender.apply(request, cb);
+		}
+		finally {
+			// Restore the request, it might be sent again uncompressed.
+			request.setContent(content);
+			request.setHeader("Content-Encoding", null);
+			request.setHeader("Content-Length", contentLength);
+		}
+	}
+
+	private static HttpBodyWriter makeGzipWriter(Object content) {
+		return (os) -> {
+			// Closing the GZIPOutputStream releases its Deflater, but must not close the request body.
+			OutputStream nonClosing = new FilterOutputStream(os) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+				}
+
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			};
+			GZIPOutputStream gzos = new GZIPOutputStream(nonClosing, BUFFER_SIZE);
+			try {
+				if (content instanceof String) {
+					Writer writer = new OutputStreamWriter(gzos, StandardCharsets.UTF_8);
+					writer.write((String) content);
+					writer.flush();
+				}
+				else {
+					((HttpBodyWriter) content).writeTo(gzos);
+				}
+			}
+			finally {
+				gzos.close();
+			}
+		};
+	}
+
+	/**
+	 * Get the probe result for a server.
+	 * @param url URL of the server
+	 * @return Support
+	 */
+	public Support getSupport(String url) {
+		Support ret = origins.get(getOrigin(url));
+		return ret != null ? ret : Support.UNKNOWN;
+	}
+
+	/**
+	 * Forget the probe results, e.g. after the server has been updated.
+	 */
+	public void reset() {
+		origins.clear();
+	}
+
+	private static String getOrigin(String url) {
+		String ret = url;
+		try {
+			URL u = new URL(url);
+			int port = u.getPort() >= 0 ? u.getPort() : u.getDefaultPort();
+			ret = HttpConnection.makeRoute(u.getProtocol(), u.getHost(), port);
+		}
+		catch (MalformedURLException ignored) {
+		}
+		return ret;
+	}
+
+	public String toString() {
+		return "[HttpRequestCompression " + origins + "]";
+	}
+}
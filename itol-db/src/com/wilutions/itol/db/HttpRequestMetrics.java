@@ -0,0 +1,286 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+/**
+ * Timings and sizes of one request.
+ * Times are in milliseconds, -1 if not measured.
+ */
+public class HttpRequestMetrics {
+
+	private final String method;
+	private final String url;
+	private final String template;
+	private final long startTime;
+	private HttpRequest.Priority priority = HttpRequest.Priority.INTERACTIVE;
+	private int status;
+	private String error;
+	private boolean connectionReused;
+	private long connectMillis = -1;
+	private long handshakeMillis = -1;
+	private long openMillis = -1;
+	private long uploadBytes;
+	private long uploadMillis;
+	private long timeToFirstByteMillis = -1;
+	private long downloadBytes;
+	private long decodedBytes;
+	private long downloadMillis;
+	private long totalMillis = -1;
+
+	public HttpRequestMetrics(String method, String url) {
+		this.method = method;
+		this.url = url;
+		this.template = makeTemplate(url);
+		this.startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Make the URL template used to group requests.
+	 * The query is removed and numeric path segments are replaced by {id},
+	 * e.g. "https://host/issues/123.json?include=journals" gives "/issues/{id}.json".
+	 * @param url URL
+	 * @return Template
+	 */
+	public static String makeTemplate(String url) {
+		int start = url.indexOf("://");
+		start = start >= 0 ? url.indexOf('/', start + 3) : 0;
+		if (start < 0) {
+			return "/";
+		}
+		int end = url.length();
+		int q = url.indexOf('?', start);
+		if (q >= 0) end = q;
+		int h = url.indexOf('#', start);
+		if (h >= 0 && h < end) end = h;
+
+		StringBuilder sbuf = new StringBuilder(end - start + 8);
+		int i = start;
+		while (i < end) {
+			char c = url.charAt(i);
+			if (c == '/') {
+				sbuf.append(c);
+				i++;
+				int digitsEnd = i;
+				while (digitsEnd < end && Character.isDigit(url.charAt(digitsEnd))) {
+					digitsEnd++;
+				}
+				if (digitsEnd != i && (digitsEnd == end || url.charAt(digitsEnd) == '/' || url.charAt(digitsEnd) == '.')) {
+					sbuf.append("{id}");
+					i = digitsEnd;
+				}
+			}
+			else {
+				sbuf.append(c);
+				i++;
+			}
+		}
+		return sbuf.toString();
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return URL template, see makeTemplate.
+	 */
+	public String getTemplate() {
+		return template;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	/**
+	 * @return Error message, if the request failed with an exception, otherwise null.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	/**
+	 * @return Lane in which the request was sent.
+	 */
+	public HttpRequest.Priority getPriority() {
+		return priority;
+	}
+
+	public void setPriority(HttpRequest.Priority priority) {
+		this.priority = priority;
+	}
+
+	public boolean isConnectionReused() {
+		return connectionReused;
+	}
+
+	public void setConnectionReused(boolean connectionReused) {
+		this.connectionReused = connectionReused;
+	}
+
+	/**
+	 * @return Time to open the TCP connection, -1 if a pooled connection was used.
+	 */
+	public long getConnectMillis() {
+		return connectMillis;
+	}
+
+	public void setConnectMillis(long connectMillis) {
+		this.connectMillis = connectMillis;
+	}
+
+	/**
+	 * @return Time of the TLS handshake, -1 if a pooled or plain connection was used.
+	 */
+	public long getHandshakeMillis() {
+		return handshakeMillis;
+	}
+
+	public void setHandshakeMillis(long handshakeMillis) {
+		this.handshakeMillis = handshakeMillis;
+	}
+
+	/**
+	 * @return Time to obtain a connection and send the request head,
+	 * including waiting for a free pooled connection, connect and handshake.
+	 */
+	public long getOpenMillis() {
+		return openMillis;
+	}
+
+	public void setOpenMillis(long openMillis) {
+		this.openMillis = openMillis;
+	}
+
+	public long getUploadBytes() {
+		return uploadBytes;
+	}
+
+	public long getUploadMillis() {
+		return uploadMillis;
+	}
+
+	public void setUpload(long uploadBytes, long uploadMillis) {
+		this.uploadBytes = uploadBytes;
+		this.uploadMillis = uploadMillis;
+	}
+
+	/**
+	 * @return Bytes per second of the request body, -1 if nothing was uploaded.
+	 */
+	public double getUploadThroughput() {
+		return throughput(uploadBytes, uploadMillis);
+	}
+
+	/**
+	 * @return Time from the start of the request until the response status was received.
+	 */
+	public long getTimeToFirstByteMillis() {
+		return timeToFirstByteMillis;
+	}
+
+	public void setTimeToFirstByteMillis(long timeToFirstByteMillis) {
+		this.timeToFirstByteMillis = timeToFirstByteMillis;
+	}
+
+	/**
+	 * @return Number of response body bytes received, before decompression.
+	 */
+	public long getDownloadBytes() {
+		return downloadBytes;
+	}
+
+	/**
+	 * @return Number of response body bytes after decompression.
+	 */
+	public long getDecodedBytes() {
+		return decodedBytes;
+	}
+
+	public long getDownloadMillis() {
+		return downloadMillis;
+	}
+
+	public void setDownload(long downloadBytes, long decodedBytes, long downloadMillis) {
+		this.downloadBytes = downloadBytes;
+		this.decodedBytes = decodedBytes;
+		this.downloadMillis = downloadMillis;
+	}
+
+	/**
+	 * @return Bytes per second of the response body, -1 if nothing was downloaded.
+	 */
+	public double getDownloadThroughput() {
+		return throughput(downloadBytes, downloadMillis);
+	}
+
+	/**
+	 * @return Received bytes divided by decoded bytes, 1 for uncompressed responses.
+	 */
+	public double getCompressionRatio() {
+		return decodedBytes > 0 ? (double) downloadBytes / decodedBytes : 1;
+	}
+
+	public long getTotalMillis() {
+		return totalMillis;
+	}
+
+	/**
+	 * Set the total time.
+	 */
+	void finish() {
+		totalMillis = System.currentTimeMillis() - startTime;
+	}
+
+	private static double throughput(long bytes, long millis) {
+		return bytes > 0 ? bytes * 1000.0 / Math.max(1, millis) : -1;
+	}
+
+	public String toString() {
+		StringBuilder sbuf = new StringBuilder();
+		sbuf.append("[").append(method).append(" ").append(template).append(" ").append(status);
+		sbuf.append(", lane=").append(priority);
+		sbuf.append(", total=").append(totalMillis);
+		sbuf.append(", open=").append(openMillis);
+		if (!connectionReused) {
+			sbuf.append(", connect=").append(connectMillis).append(", handshake=").append(handshakeMillis);
+		}
+		sbuf.append(", ttfb=").append(timeToFirstByteMillis);
+		if (uploadBytes > 0) {
+			sbuf.append(", upload=").append(uploadBytes).append("B/").append(uploadMillis).append("ms");
+		}
+		sbuf.append(", download=").append(downloadBytes).append("B/").append(downloadMillis).append("ms");
+		if (decodedBytes != downloadBytes) {
+			sbuf.append(", decoded=").append(decodedBytes).append("B");
+		}
+		if (error != null) {
+			sbuf.append(", error=").append(error);
+		}
+		sbuf.append("]");
+		return sbuf.toString();
+	}
+}
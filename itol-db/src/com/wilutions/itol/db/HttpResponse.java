@@ -10,16 +10,26 @@
  */
 package com.wilutions.itol.db;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
-public class HttpResponse {
+import org.json.JSONTokener;
+
+public class HttpResponse implements Closeable {
 
 	private String content;
 	private String[] headers;
 	private int status;
 	private String errorMessage;
 	private File file;
+	private InputStream stream;
 
 	public String getContent() {
 		if (content == null) content = "";
@@ -38,6 +48,29 @@ public class HttpResponse {
 		this.headers = headers;
 	}
 
+	/**
+	 * Get the value of a response header.
+	 * @param name Header name, case insensitive.
+	 * @return Header value or null.
+	 */
+	public String getHeader(String name) {
+		return findHeader(headers, name);
+	}
+
+	static String findHeader(String[] headers, String name) {
+		String ret = null;
+		if (headers != null) {
+			for (String header : headers) {
+				int p = header.indexOf(':');
+				if (p == name.length() && header.regionMatches(true, 0, name, 0, p)) {
+					ret = header.substring(p + 1).trim();
+					break;
+				}
+			}
+		}
+		return ret;
+	}
+
 	public int getStatus() {
 		return status;
 	}
@@ -71,4 +104,49 @@ public class HttpResponse {
 	public void setFile(File file) {
 		this.file = file;
 	}
+
+	/**
+	 * Response body in streaming mode, see HttpRequest.setStreaming.
+	 * The body is already decompressed.
+	 * @return InputStream, never null.
+	 */
+	public InputStream getInputStream() {
+		if (stream == null) stream = new ByteArrayInputStream(getContent().getBytes(StandardCharsets.UTF_8));
+		return stream;
+	}
+
+	public void setInputStream(InputStream stream) {
+		this.stream = stream;
+	}
+
+	/**
+	 * Response body in streaming mode as UTF-8 text.
+	 * @return Reader
+	 */
+	public Reader getReader() {
+		return new InputStreamReader(getInputStream(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Tokener to parse a JSON response body in streaming mode, e.g.
+	 * <code>new JSONObject(response.getTokener())</code>.
+	 * @return JSONTokener
+	 */
+	public JSONTokener getTokener() {
+		return new JSONTokener(getReader());
+	}
+
+	/**
+	 * Release the connection of a response in streaming mode.
+	 */
+	@Override
+	public void close() {
+		if (stream != null) {
+			try {
+				stream.close();
+			}
+			catch (IOException ignored) {
+			}
+		}
+	}
 }
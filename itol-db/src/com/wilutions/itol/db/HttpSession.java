@@ -0,0 +1,421 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Session of an issue service with its server.
+ * Credentials are decrypted once and kept in memory as authentication header.
+ * Cookies set by the server are stored and sent with the following requests,
+ * so that the server can keep its session instead of authenticating each request.
+ */
+public class HttpSession {
+
+	private final static Logger log = Logger.getLogger(HttpSession.class.getName());
+
+	private final String url;
+
+	private String authHeaderName;
+	private String authHeaderValue;
+	// Input of the cached header, to detect changed credentials.
+	private String authUserName;
+	private String authEncryptedPwd;
+
+	private final LinkedHashMap<String, StoredCookie> cookies = new LinkedHashMap<String, StoredCookie>();
+
+	/**
+	 * Cookie received from the server.
+	 */
+	private static class StoredCookie {
+		final String name;
+		final String value;
+		final String domain;
+		final boolean hostOnly;
+		final String path;
+		final boolean secure;
+		// Long.MAX_VALUE for cookies that expire at the end of the session.
+		final long expiresAt;
+
+		StoredCookie(String name, String value, String domain, boolean hostOnly, String path, boolean secure,
+				long expiresAt) {
+			this.name = name;
+			this.value = value;
+			this.domain = domain;
+			this.hostOnly = hostOnly;
+			this.path = path;
+			this.secure = secure;
+			this.expiresAt = expiresAt;
+		}
+
+		String getKey() {
+			return domain + ";" + path + ";" + name;
+		}
+
+		boolean matches(URL url, long now) {
+			if (expiresAt <= now) {
+				return false;
+			}
+			if (secure && !url.getProtocol().equalsIgnoreCase("https")) {
+				return false;
+			}
+			String host = url.getHost().toLowerCase(Locale.ROOT);
+			if (hostOnly ? !host.equals(domain) : !domainMatches(host, domain)) {
+				return false;
+			}
+			return pathMatches(getPath(url), path);
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param url Base URL of the service.
+	 */
+	public HttpSession(String url) {
+		this.url = url;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Use basic authentication.
+	 * The password is only decrypted, if user name or password differ from the previous call.
+	 * @param userName User name
+	 * @param encryptedPwd Password encrypted by PasswordEncryption
+	 * @throws UnsupportedEncodingException
+	 */
+	public synchronized void setBasicAuthentication(String userName, String encryptedPwd)
+			throws UnsupportedEncodingException {
+		if (authHeaderValue != null && "Authorization".equals(authHeaderName) && userName.equals(authUserName)
+				&& encryptedPwd.equals(authEncryptedPwd)) {
+			return;
+		}
+		String plainPwd = PasswordEncryption.decrypt(encryptedPwd);
+		String up = userName + ":" + plainPwd;
+		authHeaderName = "Authorization";
+		authHeaderValue = "Basic " + Base64.getEncoder().encodeToString(up.getBytes("UTF-8"));
+		authUserName = userName;
+		authEncryptedPwd = encryptedPwd;
+	}
+
+	/**
+	 * Authenticate by a header, e.g. an API key.
+	 * @param name Header name, e.g. "X-Redmine-API-Key"
+	 * @param value Header value
+	 */
+	public synchronized void setAuthenticationHeader(String name, String value) {
+		authHeaderName = name;
+		authHeaderValue = value;
+		authUserName = null;
+		authEncryptedPwd = null;
+	}
+
+	/**
+	 * Remove the credentials from memory.
+	 */
+	public synchronized void clearCredentials() {
+		authHeaderName = null;
+		authHeaderValue = null;
+		authUserName = null;
+		authEncryptedPwd = null;
+	}
+
+	/**
+	 * Add authentication and cookie header.
+	 * @param request Request
+	 */
+	public void prepare(HttpRequest request) {
+		synchronized (this) {
+			if (authHeaderValue != null) {
+				request.setHeader(authHeaderName, authHeaderValue);
+			}
+		}
+		String cookieHeader = getCookieHeader(request.getUrl());
+		if (cookieHeader != null) {
+			request.setHeader("Cookie", cookieHeader);
+		}
+	}
+
+	/**
+	 * Store the cookies of a response.
+	 * @param requestUrl URL of the request.
+	 * @param response Response
+	 */
+	public void receive(String requestUrl, HttpResponse response) {
+		String[] headers = response.getHeaders();
+		if (headers == null) {
+			return;
+		}
+		URL u = null;
+		for (String header : headers) {
+			int p = header.indexOf(':');
+			if (p != 10 || !header.regionMatches(true, 0, "Set-Cookie", 0, p)) {
+				continue;
+			}
+			try {
+				if (u == null) {
+					u = new URL(requestUrl);
+				}
+				setCookie(u, header.substring(p + 1).trim());
+			}
+			catch (MalformedURLException e) {
+				if (log.isLoggable(Level.FINE)) log.fine("Ignore cookie from " + requestUrl + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * Send a request with authentication and cookies of this session.
+	 * @param request Request
+	 * @param cb Progress callback or null
+	 * @return Response
+	 */
+	public HttpResponse send(HttpRequest request, ProgressCallback cb) {
+		prepare(request);
+		HttpResponse response = HttpClient.send(request, cb);
+		receive(request.getUrl(), response);
+		return response;
+	}
+
+	public HttpResponse send(String url, String method, String[] headers, Object content, ProgressCallback cb) {
+		return send(new HttpRequest(url, method, headers, content), cb);
+	}
+
+	/**
+	 * Send requests in parallel, see HttpClient.sendAll.
+	 * @param requests Requests
+	 * @param maxParallel Maximum number of requests sent at the same time.
+	 * @param cb Progress callback or null
+	 * @return Responses in the order of the requests.
+	 */
+	public List<HttpResponse> sendAll(List<HttpRequest> requests, int maxParallel, ProgressCallback cb) {
+		for (HttpRequest request : requests) {
+			prepare(request);
+		}
+		List<HttpResponse> responses = HttpClient.sendAll(requests, maxParallel, cb);
+		for (int i = 0; i < responses.size(); i++) {
+			receive(requests.get(i).getUrl(), responses.get(i));
+		}
+		return responses;
+	}
+
+	/**
+	 * Download a file, see HttpClient.downloadResumable.
+	 * @param url URL
+	 * @param headers Request headers or null
+	 * @param cb Progress callback or null
+	 * @return Response
+	 */
+	public HttpResponse downloadResumable(String url, String[] headers, ProgressCallback cb) {
+		HttpRequest request = new HttpRequest(url, "GET", headers, null);
+		prepare(request);
+		List<String> requestHeaders = request.getHeaders();
+		return HttpClient.downloadResumable(url, requestHeaders.toArray(new String[requestHeaders.size()]), cb);
+	}
+
+	/**
+	 * Build the Cookie header for a request.
+	 * @param requestUrl Request URL
+	 * @return Header value or null, if no cookie matches.
+	 */
+	public synchronized String getCookieHeader(String requestUrl) {
+		if (cookies.isEmpty()) {
+			return null;
+		}
+		URL u = null;
+		try {
+			u = new URL(requestUrl);
+		}
+		catch (MalformedURLException e) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		List<StoredCookie> matching = new ArrayList<StoredCookie>();
+		for (Iterator<StoredCookie> it = cookies.values().iterator(); it.hasNext();) {
+			StoredCookie cookie = it.next();
+			if (cookie.expiresAt <= now) {
+				it.remove();
+			}
+			else if (cookie.matches(u, now)) {
+				matching.add(cookie);
+			}
+		}
+		if (matching.isEmpty()) {
+			return null;
+		}
+		// Cookies with longer paths are listed first.
+		Collections.sort(matching, new Comparator<StoredCookie>() {
+			public int compare(StoredCookie c1, StoredCookie c2) {
+				return c2.path.length() - c1.path.length();
+			}
+		});
+		StringBuilder sbuf = new StringBuilder();
+		for (StoredCookie cookie : matching) {
+			if (sbuf.length() != 0) {
+				sbuf.append("; ");
+			}
+			sbuf.append(cookie.name).append('=').append(cookie.value);
+		}
+		return sbuf.toString();
+	}
+
+	/**
+	 * @return Number of stored cookies.
+	 */
+	public synchronized int getCookieCount() {
+		return cookies.size();
+	}
+
+	/**
+	 * Remove all cookies, e.g. after the server has rejected the session.
+	 */
+	public synchronized void clearCookies() {
+		cookies.clear();
+	}
+
+	/**
+	 * Store a cookie from a Set-Cookie header, see RFC 6265, 5.2.
+	 * Name and value are kept as sent by the server, they are not decoded,
+	 * so that the value is sent back byte for byte.
+	 */
+	private void setCookie(URL u, String setCookie) {
+		String[] parts = setCookie.split(";");
+		int e = parts[0].indexOf('=');
+		if (e < 0) {
+			return;
+		}
+		String name = parts[0].substring(0, e).trim();
+		String value = parts[0].substring(e + 1).trim();
+		if (name.isEmpty()) {
+			return;
+		}
+		String domain = "";
+		String path = "";
+		String maxAge = "";
+		String expires = "";
+		boolean secure = false;
+		for (int i = 1; i < parts.length; i++) {
+			int a = parts[i].indexOf('=');
+			String attr = (a >= 0 ? parts[i].substring(0, a) : parts[i]).trim().toLowerCase(Locale.ROOT);
+			String attrValue = a >= 0 ? parts[i].substring(a + 1).trim() : "";
+			switch (attr) {
+			case "domain":
+				domain = attrValue;
+				break;
+			case "path":
+				path = attrValue;
+				break;
+			case "max-age":
+				maxAge = attrValue;
+				break;
+			case "expires":
+				expires = attrValue;
+				break;
+			case "secure":
+				secure = true;
+				break;
+			default:
+				break;
+			}
+		}
+
+		String host = u.getHost().toLowerCase(Locale.ROOT);
+		domain = domain.toLowerCase(Locale.ROOT);
+		if (domain.startsWith(".")) {
+			domain = domain.substring(1);
+		}
+		boolean hostOnly = domain.isEmpty();
+		if (hostOnly) {
+			domain = host;
+		}
+		else if (!domainMatches(host, domain)) {
+			if (log.isLoggable(Level.FINE)) log.fine("Ignore cookie " + name + " for foreign domain " + domain);
+			return;
+		}
+
+		if (!path.startsWith("/")) {
+			path = getDefaultPath(u);
+		}
+
+		long expiresAt = Long.MAX_VALUE;
+		if (!maxAge.isEmpty()) {
+			try {
+				long seconds = Long.parseLong(maxAge.trim());
+				expiresAt = seconds <= 0 ? 0 : System.currentTimeMillis() + seconds * 1000L;
+			}
+			catch (NumberFormatException ignored) {
+			}
+		}
+		else if (!expires.isEmpty()) {
+			try {
+				expiresAt = ZonedDateTime.parse(expires.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()
+						.toEpochMilli();
+			}
+			catch (DateTimeParseException ignored) {
+			}
+		}
+
+		StoredCookie cookie = new StoredCookie(name, value, domain, hostOnly, path, secure, expiresAt);
+		synchronized (this) {
+			if (expiresAt <= System.currentTimeMillis()) {
+				cookies.remove(cookie.getKey());
+			}
+			else {
+				cookies.put(cookie.getKey(), cookie);
+			}
+		}
+		if (log.isLoggable(Level.FINE)) log.fine("cookie " + name + ", domain=" + domain + ", path=" + path);
+	}
+
+	private static boolean domainMatches(String host, String domain) {
+		return host.equals(domain) || (host.endsWith(domain) && host.charAt(host.length() - domain.length() - 1) == '.');
+	}
+
+	private static boolean pathMatches(String requestPath, String cookiePath) {
+		if (!requestPath.startsWith(cookiePath)) {
+			return false;
+		}
+		return requestPath.length() == cookiePath.length() || cookiePath.endsWith("/")
+				|| requestPath.charAt(cookiePath.length()) == '/';
+	}
+
+	private static String getPath(URL u) {
+		String path = u.getPath();
+		return path.isEmpty() ? "/" : path;
+	}
+
+	private static String getDefaultPath(URL u) {
+		String path = getPath(u);
+		int p = path.lastIndexOf('/');
+		return p <= 0 ? "/" : path.substring(0, p);
+	}
+
+	public String toString() {
+		return "[HttpSession " + url + ", authentication=" + authHeaderName + ", #cookies=" + getCookieCount() + "]";
+	}
+}
@@ -0,0 +1,374 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces identical GET requests that are sent at the same time.
+ * The first caller sends the request, further callers with the same URL and
+ * authentication wait for its response. Each caller keeps receiving progress
+ * through its own ProgressCallback. The first caller sends the request in its
+ * own thread, observing its own cancellation and deadline. If it stops before
+ * the response is received, the callers still waiting send the request again.
+ * A waiting caller that cancels stops waiting without affecting the others.
+ */
+public class HttpSingleFlight {
+
+	private final static Logger log = Logger.getLogger(HttpSingleFlight.class.getName());
+
+	/**
+	 * Interval in which waiting callers check their ProgressCallback for cancellation.
+	 */
+	private final static long CANCEL_CHECK_MILLIS = 100;
+
+	private final HashMap<String, Flight> flights = new HashMap<String, Flight>();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Request in progress.
+	 */
+	private class Flight {
+		final String key;
+		final ProgressCallback sender;
+		final CompletableFuture<HttpResponse> result = new CompletableFuture<HttpResponse>();
+		final List<ProgressCallback> waiters = new ArrayList<ProgressCallback>();
+
+		Flight(String key, ProgressCallback sender) {
+			this.key = key;
+			this.sender = sender;
+		}
+
+		synchronized void join(ProgressCallback cb) {
+			waiters.add(cb);
+		}
+
+		synchronized void leave(ProgressCallback cb) {
+			waiters.remove(cb);
+		}
+
+		synchronized List<ProgressCallback> getWaiters() {
+			return new ArrayList<ProgressCallback>(waiters);
+		}
+
+		/**
+		 * Check whether the sending caller has cancelled or exceeded its deadline.
+		 * Such a flight is not joined anymore.
+		 */
+		boolean isAbandoned() {
+			long deadline = sender.getDeadline();
+			boolean ret = sender.isCancelled() || (deadline != 0 && System.currentTimeMillis() >= deadline);
+			if (ret) {
+				remove();
+			}
+			return ret;
+		}
+
+		void remove() {
+			synchronized (HttpSingleFlight.this) {
+				if (flights.get(key) == this) {
+					flights.remove(key);
+				}
+			}
+		}
+
+		/**
+		 * Send the request in the current thread and pass the response to the waiting callers.
+		 * @return Response
+		 */
+		HttpResponse run(HttpRequest request, BiFunction<HttpRequest, ProgressCallback, HttpResponse> send) {
+			HttpResponse ret = null;
+			try {
+				ret = send.apply(request, new SharedProgress(this, null, null));
+			}
+			catch (Throwable e) {
+				remove();
+				result.completeExceptionally(e);
+				throw e;
+			}
+			boolean resend = ret.getStatus() == 0 && isAbandoned();
+			remove();
+			// null lets the waiting callers send the request again.
+			result.complete(resend ? null : ret);
+			return ret;
+		}
+	}
+
+	/**
+	 * Check whether identical requests can share one response.
+	 * @param request Request
+	 * @return true for GET requests without content that are not streamed.
+	 */
+	public boolean isCoalescable(HttpRequest request) {
+		return request.getMethod().equals("GET") && !request.isStreaming() && request.getContent() == null
+				&& request.getDestination() == null;
+	}
+
+	/**
+	 * Send a request or wait for the identical request already in progress.
+	 * @param request Request
+	 * @param cb Progress callback of the caller
+	 * @param sender Function that sends the request.
+	 * @return Response. Each caller receives its own copy.
+	 */
+	public HttpResponse send(HttpRequest request, ProgressCallback cb,
+			BiFunction<HttpRequest, ProgressCallback, HttpResponse> sender) {
+		if (cb == null) {
+			cb = new ProgressCallbackImpl("HttpClient.send");
+		}
+		requests.incrementAndGet();
+		String key = HttpCache.makeKey(request);
+		boolean joined = false;
+		while (true) {
+			Flight flight = null;
+			boolean leader = false;
+			synchronized (this) {
+				flight = flights.get(key);
+				if (flight == null) {
+					flight = new Flight(key, cb);
+					flights.put(key, flight);
+					leader = true;
+				}
+				flight.join(cb);
+			}
+
+			if (leader) {
+				return flight.run(request, sender);
+			}
+
+			if (!joined) {
+				joined = true;
+				coalesced.incrementAndGet();
+				if (log.isLoggable(Level.FINE)) log.fine("wait for identical request " + request.getUrl());
+			}
+			HttpResponse ret = await(flight, request, cb);
+			if (ret != null) {
+				return ret;
+			}
+			if (log.isLoggable(Level.FINE)) log.fine("send again, first caller stopped " + request.getUrl());
+		}
+	}
+
+	/**
+	 * Wait for the response until it is received, the caller cancels or its deadline is exceeded.
+	 * @return Copy of the response, error response, or null, if the request has to be sent again.
+	 */
+	private HttpResponse await(Flight flight, HttpRequest request, ProgressCallback cb) {
+		try {
+			while (true) {
+				try {
+					HttpResponse ret = flight.result.get(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+					return ret != null ? copyResponse(ret) : null;
+				}
+				catch (TimeoutException e) {
+					if (cb.isCancelled()) {
+						return makeErrorResponse(request, new InterruptedIOException());
+					}
+					long deadline = cb.getDeadline();
+					if (deadline != 0 && System.currentTimeMillis() >= deadline) {
+						return makeErrorResponse(request, new SocketTimeoutException("Deadline exceeded."));
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return makeErrorResponse(request, new InterruptedIOException());
+				}
+				catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new IllegalStateException(cause);
+				}
+			}
+		}
+		finally {
+			flight.leave(cb);
+		}
+	}
+
+	private static HttpResponse makeErrorResponse(HttpRequest request, IOException e) {
+		HttpResponse ret = new HttpResponse();
+		ret.setErrorMessage("HTTP request to URL=" + request.getUrl() + " failed. " + e.toString());
+		return ret;
+	}
+
+	/**
+	 * Copy response for another caller. Content and headers are shared, a downloaded file is copied.
+	 */
+	private static HttpResponse copyResponse(HttpResponse response) {
+		HttpResponse ret = new HttpResponse();
+		ret.setStatus(response.getStatus());
+		ret.setHeaders(response.getHeaders() != null ? response.getHeaders().clone() : null);
+		ret.setErrorMessage(response.getErrorMessage());
+		ret.setContent(response.getContent());
+		File file = response.getFile();
+		if (file != null) {
+			try {
+				File copy = File.createTempFile("itol", ".tmp");
+				Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				ret.setFile(copy);
+			}
+			catch (IOException e) {
+				ret.setStatus(0);
+				ret.setErrorMessage("Failed to copy downloaded file " + file + ". " + e.toString());
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return Number of requests passed to send().
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return Number of requests that waited for an identical request instead of being sent.
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	public synchronized int getInFlightCount() {
+		return flights.size();
+	}
+
+	public String toString() {
+		return "[HttpSingleFlight requests=" + requests + ", coalesced=" + coalesced + ", in-flight="
+				+ getInFlightCount() + "]";
+	}
+
+	/**
+	 * Progress callback passed to the sender. Forwards progress to the
+	 * callbacks of all waiting callers, including callers that joined late.
+	 */
+	private static class SharedProgress implements ProgressCallback {
+
+		private final Flight flight;
+		private final SharedProgress parent;
+		private final String name;
+		private final Map<ProgressCallback, ProgressCallback> targets = new IdentityHashMap<ProgressCallback, ProgressCallback>();
+		private volatile double total = -1;
+		private volatile String[] params;
+
+		SharedProgress(Flight flight, SharedProgress parent, String name) {
+			this.flight = flight;
+			this.parent = parent;
+			this.name = name;
+		}
+
+		/**
+		 * Get the callback of this node for the given waiter.
+		 * @param waiter Root callback of a waiting caller.
+		 * @return Callback
+		 */
+		private synchronized ProgressCallback getTarget(ProgressCallback waiter) {
+			ProgressCallback ret = targets.get(waiter);
+			if (ret == null) {
+				ret = parent != null ? parent.getTarget(waiter).createChild(name) : waiter;
+				if (params != null) {
+					ret.setParams(params);
+				}
+				if (total >= 0) {
+					ret.setTotal(total);
+				}
+				targets.put(waiter, ret);
+			}
+			return ret;
+		}
+
+		private List<ProgressCallback> getTargets() {
+			List<ProgressCallback> waiters = flight.getWaiters();
+			List<ProgressCallback> ret = new ArrayList<ProgressCallback>(waiters.size());
+			for (ProgressCallback waiter : waiters) {
+				ret.add(getTarget(waiter));
+			}
+			return ret;
+		}
+
+		@Override
+		public void setParams(String... params) {
+			this.params = params;
+			for (ProgressCallback target : getTargets()) {
+				target.setParams(params);
+			}
+		}
+
+		@Override
+		public void setProgress(double current) {
+			for (ProgressCallback target : getTargets()) {
+				target.setProgress(current);
+			}
+		}
+
+		@Override
+		public void setTotal(double total) {
+			this.total = total;
+			for (ProgressCallback target : getTargets()) {
+				target.setTotal(total);
+			}
+		}
+
+		@Override
+		public void setFinished() {
+			for (ProgressCallback target : getTargets()) {
+				// Root callbacks are finished by their owners.
+				if (parent != null) {
+					target.setFinished();
+				}
+			}
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return flight.isAbandoned() && flight.sender.isCancelled();
+		}
+
+		@Override
+		public long getDeadline() {
+			return flight.sender.getDeadline();
+		}
+
+		@Override
+		public ProgressCallback createChild(String name) {
+			return new SharedProgress(flight, this, name);
+		}
+
+		@Override
+		public void childFinished(double total) {
+			// The children of the targets notify their parents.
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.IOException;
+
+/**
+ * Transport layer of HttpClient.
+ * A transport opens the connection for a request and sends the request headers.
+ * The returned exchange object is used to write the request body and to read the response.
+ * HttpClient handles content encoding, progress and redirections on top of this interface.
+ */
+public interface HttpTransport {
+
+	/**
+	 * Open a connection and send the request headers.
+	 * @param request Request. Member contentLength is -1, if the body is sent in chunks.
+	 * @return Exchange object. Must be closed by the caller.
+	 * @throws IOException
+	 */
+	HttpExchange open(HttpRequest request) throws IOException;
+
+	/**
+	 * Resolve the host, connect and negotiate TLS in advance.
+	 * @param url URL, only scheme, host and port are used.
+	 * @return true, if a connection was opened.
+	 * @throws IOException
+	 */
+	default boolean prewarm(String url) throws IOException {
+		return false;
+	}
+
+	/**
+	 * Check whether a request to the given URL can be sent over an open connection.
+	 * @param url URL
+	 * @return true, if an idle connection is available.
+	 */
+	default boolean isWarm(String url) {
+		return false;
+	}
+
+	/**
+	 * Release all resources held by this transport.
+	 */
+	void close();
+}
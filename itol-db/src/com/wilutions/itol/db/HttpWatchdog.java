@@ -0,0 +1,148 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Aborts HTTP exchanges whose ProgressCallback has been cancelled or whose
+ * deadline has passed. Aborting closes the connection, which immediately
+ * unblocks the thread that waits for the response.
+ */
+class HttpWatchdog {
+
+	private final static Logger log = Logger.getLogger(HttpWatchdog.class.getName());
+
+	/**
+	 * Interval in which the callbacks are checked for cancellation.
+	 */
+	private final static long CHECK_MILLIS = 100;
+
+	private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+	private Timer timer;
+
+	/**
+	 * Exchange observed by the watchdog.
+	 */
+	class Watch implements AutoCloseable {
+		private final HttpExchange exchange;
+		private final ProgressCallback cb;
+		private final long deadline;
+		private volatile long idleTimeoutMillis;
+		private volatile long lastActivity = System.currentTimeMillis();
+		private volatile IOException abortReason;
+
+		Watch(HttpExchange exchange, ProgressCallback cb) {
+			this.exchange = exchange;
+			this.cb = cb;
+			this.deadline = cb.getDeadline();
+		}
+
+		/**
+		 * Abort, if no data is received for the given time.
+		 * Used while data is transferred through channels, which do not observe the socket timeout.
+		 * @param idleTimeoutMillis Timeout or 0
+		 */
+		void setIdleTimeoutMillis(long idleTimeoutMillis) {
+			this.idleTimeoutMillis = idleTimeoutMillis;
+			touch();
+		}
+
+		/**
+		 * Notify that data has been transferred.
+		 */
+		void touch() {
+			lastActivity = System.currentTimeMillis();
+		}
+
+		/**
+		 * @return Reason, if the exchange has been aborted by the watchdog, otherwise null.
+		 */
+		IOException getAbortReason() {
+			return abortReason;
+		}
+
+		private IOException check(long now) {
+			IOException ret = null;
+			if (cb.isCancelled()) {
+				ret = new InterruptedIOException("Request cancelled.");
+			}
+			else if (deadline != 0 && now >= deadline) {
+				ret = new SocketTimeoutException("Deadline exceeded.");
+			}
+			else if (idleTimeoutMillis > 0 && now - lastActivity >= idleTimeoutMillis) {
+				ret = new SocketTimeoutException("Read timed out.");
+			}
+			return ret;
+		}
+
+		@Override
+		public void close() {
+			watches.remove(this);
+		}
+	}
+
+	/**
+	 * Observe an exchange until the returned watch is closed.
+	 * @param exchange Exchange
+	 * @param cb Progress callback with cancellation state and deadline.
+	 * @return Watch
+	 */
+	Watch watch(HttpExchange exchange, ProgressCallback cb) {
+		Watch w = new Watch(exchange, cb);
+		watches.add(w);
+		startTimer();
+		return w;
+	}
+
+	private synchronized void startTimer() {
+		if (timer == null) {
+			timer = new Timer("HttpWatchdog", true);
+			timer.schedule(new TimerTask() {
+				public void run() {
+					check();
+				}
+			}, CHECK_MILLIS, CHECK_MILLIS);
+		}
+	}
+
+	private void check() {
+		long now = System.currentTimeMillis();
+		for (Watch w : watches) {
+			IOException reason = null;
+			try {
+				reason = w.check(now);
+			}
+			catch (Throwable e) {
+				log.log(Level.WARNING, "Failed to check progress callback.", e);
+			}
+			if (reason != null) {
+				w.abortReason = reason;
+				watches.remove(w);
+				log.info("Abort request to " + w.exchange.getURL() + ", " + reason.getMessage());
+				try {
+					w.exchange.abort();
+				}
+				catch (Throwable e) {
+					if (log.isLoggable(Level.FINE)) log.fine("abort failed: " + e);
+				}
+			}
+		}
+	}
+}
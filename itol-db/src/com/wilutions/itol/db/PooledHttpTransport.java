@@ -0,0 +1,894 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.wilutions.itol.db.HttpConnectionPool.RouteState;
+
+/**
+ * Default transport of HttpClient.
+ * Speaks HTTP/1.1 over persistent connections taken from a HttpConnectionPool.
+ * Requests that have to pass a proxy server are sent by a URLConnectionTransport.
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+	private final static Logger log = Logger.getLogger(PooledHttpTransport.class.getName());
+
+	private final static int MAX_REDIRECTS = 20;
+
+	/**
+	 * Up to this number of bytes are skipped to make a connection reusable, if
+	 * the response body has not been read completely.
+	 */
+	private final static int MAX_DRAIN_BYTES = 64 * 1024;
+
+	private final HttpConnectionPool pool;
+	private final HttpConnectionPool bulkPool;
+	private final HttpTransport proxyTransport = new URLConnectionTransport();
+
+	public PooledHttpTransport() {
+		this(new HttpConnectionPool());
+	}
+
+	public PooledHttpTransport(HttpConnectionPool pool) {
+		this(pool, pool);
+	}
+
+	/**
+	 * Constructor.
+	 * @param pool Pool for INTERACTIVE requests
+	 * @param bulkPool Pool for BULK requests
+	 */
+	public PooledHttpTransport(HttpConnectionPool pool, HttpConnectionPool bulkPool) {
+		this.pool = pool;
+		this.bulkPool = bulkPool;
+	}
+
+	public HttpConnectionPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Get the pool of a lane.
+	 * @param priority Lane
+	 * @return HttpConnectionPool
+	 */
+	public HttpConnectionPool getPool(HttpRequest.Priority priority) {
+		return priority == HttpRequest.Priority.BULK ? bulkPool : pool;
+	}
+
+	@Override
+	public HttpExchange open(HttpRequest request) throws IOException {
+		URL url = new URL(request.getUrl());
+		if (!isDirect(url)) {
+			return proxyTransport.open(request);
+		}
+		Exchange ex = new Exchange(request, url);
+		ex.connect();
+		return ex;
+	}
+
+	@Override
+	public boolean prewarm(String surl) throws IOException {
+		URL url = new URL(surl);
+		if (!isDirect(url)) {
+			return false;
+		}
+		return pool.prewarm(url.getProtocol(), url.getHost(), getPort(url), HttpClient.CONNECT_TIMEOUT_SECONDS * 1000);
+	}
+
+	@Override
+	public boolean isWarm(String surl) {
+		boolean ret = false;
+		try {
+			URL url = new URL(surl);
+			ret = isDirect(url) && pool.getState(url.getProtocol(), url.getHost(), getPort(url)) == RouteState.WARM;
+		}
+		catch (MalformedURLException e) {
+		}
+		return ret;
+	}
+
+	@Override
+	public void close() {
+		pool.close();
+		bulkPool.close();
+	}
+
+	private static boolean isDirect(URL url) {
+		String protocol = url.getProtocol().toLowerCase();
+		if (!protocol.equals("http") && !protocol.equals("https")) {
+			return false;
+		}
+		boolean ret = false;
+		try {
+			List<Proxy> proxies = ProxySelector.getDefault().select(url.toURI());
+			ret = proxies.isEmpty() || proxies.get(0).type() == Proxy.Type.DIRECT;
+		}
+		catch (URISyntaxException e) {
+			// Let HttpURLConnection deal with it.
+		}
+		return ret;
+	}
+
+	private static int getPort(URL url) {
+		return url.getPort() >= 0 ? url.getPort() : url.getDefaultPort();
+	}
+
+	private class Exchange implements HttpExchange {
+
+		private final HttpRequest request;
+		private final HttpConnectionPool lanePool;
+		private URL url;
+		private String method;
+		private boolean contentDropped;
+		private boolean permanentlyRedirected;
+		private HttpConnection conn;
+		private boolean reused;
+		private OutputStream requestBody;
+		private int status = -1;
+		private Map<String, List<String>> headerFields;
+		private InputStream responseBody;
+		private boolean keepAlive;
+		private boolean released;
+
+		Exchange(HttpRequest request, URL url) {
+			this.request = request;
+			this.lanePool = getPool(request.getPriority());
+			this.url = url;
+			this.method = request.getMethod();
+		}
+
+		void connect() throws IOException {
+			lease();
+			// A prewarmed connection has not paid its connect time with this request either.
+			reused = conn.getRequestCount() > 1 || conn.isPrewarmed();
+			try {
+				writeHead();
+			}
+			catch (IOException e) {
+				if (!reused) {
+					throw releaseAndRethrow(e);
+				}
+				// The server has closed the idle connection just now.
+				retry();
+			}
+		}
+
+		private void lease() throws IOException {
+			// Wait for a free connection as long as the request would wait for the response.
+			conn = lanePool.lease(url.getProtocol(), url.getHost(), getPort(url),
+					Math.max(0, request.getReadTimeoutMillis()), HttpClient.CONNECT_TIMEOUT_SECONDS * 1000,
+					request::isCancelled);
+			try {
+				// Pooled connections keep the timeout of their previous request.
+				conn.getSocket().setSoTimeout(Math.max(0, request.getReadTimeoutMillis()));
+			}
+			catch (IOException e) {
+				throw releaseAndRethrow(e);
+			}
+		}
+
+		private IOException releaseAndRethrow(IOException e) {
+			release(false);
+			return e;
+		}
+
+		private void retry() throws IOException {
+			if (log.isLoggable(Level.FINE)) log.fine("retry on new connection, url=" + url);
+			release(false);
+			released = false;
+			lease();
+			reused = conn.getRequestCount() > 1 || conn.isPrewarmed();
+			try {
+				writeHead();
+			}
+			catch (IOException e) {
+				throw releaseAndRethrow(e);
+			}
+		}
+
+		private void writeHead() throws IOException {
+			StringBuilder sbuf = new StringBuilder(512);
+			String file = url.getFile();
+			if (file.isEmpty()) {
+				file = "/";
+			}
+			sbuf.append(method).append(' ').append(file).append(" HTTP/1.1\r\n");
+
+			sbuf.append("Host: ").append(url.getHost());
+			if (url.getPort() >= 0 && url.getPort() != url.getDefaultPort()) {
+				sbuf.append(':').append(url.getPort());
+			}
+			sbuf.append("\r\n");
+
+			if (request.getHeader("User-Agent") == null) {
+				sbuf.append("User-Agent: Java/").append(System.getProperty("java.version")).append("\r\n");
+			}
+			if (request.getHeader("Accept") == null) {
+				sbuf.append("Accept: */*\r\n");
+			}
+
+			for (String header : request.getHeaders()) {
+				String key = header.substring(0, header.indexOf(':')).trim();
+				if (key.equalsIgnoreCase("Host") || key.equalsIgnoreCase("Connection")
+						|| key.equalsIgnoreCase("Content-Length") || key.equalsIgnoreCase("Transfer-Encoding")) {
+					continue;
+				}
+				if (contentDropped && (key.equalsIgnoreCase("Content-Type") || key.equalsIgnoreCase("Content-Encoding"))) {
+					continue;
+				}
+				sbuf.append(header).append("\r\n");
+			}
+
+			if (hasContent()) {
+				if (request.getContentLength() >= 0) {
+					sbuf.append("Content-Length: ").append(request.getContentLength()).append("\r\n");
+				}
+				else {
+					sbuf.append("Transfer-Encoding: chunked\r\n");
+				}
+			}
+			else if (method.equals("POST") || method.equals("PUT")) {
+				sbuf.append("Content-Length: 0\r\n");
+			}
+			sbuf.append("\r\n");
+
+			OutputStream os = conn.getOutputStream();
+			os.write(sbuf.toString().getBytes(StandardCharsets.ISO_8859_1));
+			if (!hasContent()) {
+				os.flush();
+			}
+		}
+
+		private boolean hasContent() {
+			return request.getContent() != null && !contentDropped;
+		}
+
+		private boolean isIdempotent() {
+			return method.equals("GET") || method.equals("HEAD") || method.equals("PUT") || method.equals("DELETE")
+					|| method.equals("OPTIONS");
+		}
+
+		@Override
+		public OutputStream getRequestBody() throws IOException {
+			if (requestBody == null) {
+				OutputStream os = conn.getOutputStream();
+				if (request.getContentLength() >= 0) {
+					requestBody = new FixedLengthOutputStream(os, request.getContentLength());
+				}
+				else {
+					requestBody = new ChunkedOutputStream(os);
+				}
+			}
+			return requestBody;
+		}
+
+		@Override
+		public long transferRequestBody(FileChannel file, long position, long count) throws IOException {
+			OutputStream body = getRequestBody();
+			WritableByteChannel channel = conn.getChannel();
+			if (channel != null && body instanceof FixedLengthOutputStream) {
+				return ((FixedLengthOutputStream) body).transferFrom(file, position, count, channel);
+			}
+			return HttpBufferPool.transfer(file, position, count, body);
+		}
+
+		@Override
+		public int getStatus() throws IOException {
+			if (status < 0) {
+				if (hasContent()) {
+					getRequestBody().close();
+				}
+				readResponse();
+				followRedirects();
+			}
+			return status;
+		}
+
+		private void readResponse() throws IOException {
+			try {
+				readHead();
+			}
+			catch (IOException e) {
+				if (!reused || hasContent() || !isIdempotent()) {
+					throw releaseAndRethrow(e);
+				}
+				// Idle connection was closed by the server, send the request again.
+				// The server might have processed the request, so only idempotent requests are repeated.
+				retry();
+				try {
+					readHead();
+				}
+				catch (IOException e2) {
+					throw releaseAndRethrow(e2);
+				}
+			}
+			responseBody = makeResponseBody();
+		}
+
+		private void readHead() throws IOException {
+			InputStream is = conn.getInputStream();
+			String statusLine;
+			do {
+				statusLine = readLine(is);
+				if (statusLine == null) {
+					throw new EOFException("Connection closed by server, url=" + url);
+				}
+				if (!statusLine.startsWith("HTTP/") || statusLine.length() < 12) {
+					throw new IOException("Invalid status line \"" + statusLine + "\", url=" + url);
+				}
+				try {
+					status = Integer.parseInt(statusLine.substring(9, 12));
+				}
+				catch (NumberFormatException e) {
+					throw new IOException("Invalid status line \"" + statusLine + "\", url=" + url);
+				}
+				headerFields = new LinkedHashMap<String, List<String>>();
+				headerFields.put(null, Collections.singletonList(statusLine));
+				String line;
+				while ((line = readLine(is)) != null && !line.isEmpty()) {
+					int p = line.indexOf(':');
+					if (p > 0) {
+						String key = line.substring(0, p).trim();
+						String value = line.substring(p + 1).trim();
+						List<String> values = headerFields.get(findHeaderKey(key));
+						if (values == null) {
+							values = new ArrayList<String>(1);
+							headerFields.put(key, values);
+						}
+						values.add(value);
+					}
+				}
+				// Skip "100 Continue" and other interim responses.
+			} while (status >= 100 && status < 200);
+
+			boolean http11 = statusLine.startsWith("HTTP/1.1");
+			String connection = Default.value(getHeaderField("Connection")).toLowerCase();
+			keepAlive = http11 ? !connection.contains("close") : connection.contains("keep-alive");
+
+			String keepAliveParams = getHeaderField("Keep-Alive");
+			if (keepAliveParams != null) {
+				for (String param : keepAliveParams.split(",")) {
+					param = param.trim();
+					if (param.startsWith("timeout=")) {
+						try {
+							conn.setKeepAliveMillis(Long.parseLong(param.substring(8).trim()) * 1000);
+						}
+						catch (NumberFormatException ignored) {
+						}
+					}
+				}
+			}
+		}
+
+		private InputStream makeResponseBody() throws IOException {
+			InputStream is = conn.getInputStream();
+			InputStream body = null;
+			String transferEncoding = Default.value(getHeaderField("Transfer-Encoding")).toLowerCase();
+			String contentLength = getHeaderField("Content-Length");
+			if (method.equals("HEAD") || status == 204 || status == 304) {
+				body = new FixedLengthInputStream(is, 0);
+			}
+			else if (transferEncoding.contains("chunked")) {
+				body = new ChunkedInputStream(is);
+			}
+			else if (contentLength != null) {
+				try {
+					body = new FixedLengthInputStream(is, Long.parseLong(contentLength.trim()));
+				}
+				catch (NumberFormatException e) {
+					throw releaseAndRethrow(new IOException("Invalid Content-Length=" + contentLength + ", url=" + url));
+				}
+			}
+			else {
+				// Body ends when the server closes the connection.
+				keepAlive = false;
+				body = new FilterInputStream(is) {
+					public void close() {
+					}
+				};
+			}
+			return new ResponseBody(body);
+		}
+
+		private void followRedirects() throws IOException {
+			int nbOfRedirects = 0;
+			boolean permanent = true;
+			while (HttpURLConnection.getFollowRedirects() && isRedirect(status)) {
+				// Like HttpURLConnection, POST is redirected as GET for 301 and 302.
+				boolean toGet = (status == 303 && !method.equals("HEAD"))
+						|| ((status == 301 || status == 302) && method.equals("POST"));
+				// The request body has been streamed and cannot be sent again.
+				if (hasContent() && !toGet) {
+					break;
+				}
+				String location = getHeaderField("Location");
+				if (location == null || ++nbOfRedirects > MAX_REDIRECTS) {
+					break;
+				}
+				URL nextUrl = new URL(url, location);
+				// Like HttpURLConnection, do not follow a redirect to another protocol.
+				if (!nextUrl.getProtocol().equalsIgnoreCase(url.getProtocol())) {
+					break;
+				}
+				if (log.isLoggable(Level.FINE)) log.fine("follow redirect " + status + " to " + nextUrl);
+				permanent &= status == 301 || status == 308;
+				permanentlyRedirected = permanent;
+				responseBody.close();
+				if (toGet) {
+					method = "GET";
+					contentDropped = request.getContent() != null;
+				}
+				url = nextUrl;
+				released = false;
+				status = -1;
+				connect();
+				readResponse();
+			}
+		}
+
+		private boolean isRedirect(int status) {
+			return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+		}
+
+		private String findHeaderKey(String name) {
+			for (String key : headerFields.keySet()) {
+				if (key != null && key.equalsIgnoreCase(name)) {
+					return key;
+				}
+			}
+			return name;
+		}
+
+		@Override
+		public URL getURL() {
+			return url;
+		}
+
+		@Override
+		public boolean isPermanentlyRedirected() {
+			return permanentlyRedirected;
+		}
+
+		@Override
+		public boolean isConnectionReused() {
+			return reused;
+		}
+
+		@Override
+		public long getConnectMillis() {
+			return reused ? -1 : conn.getConnectMillis();
+		}
+
+		@Override
+		public long getHandshakeMillis() {
+			return reused ? -1 : conn.getHandshakeMillis();
+		}
+
+		@Override
+		public Map<String, List<String>> getHeaderFields() {
+			return headerFields != null ? headerFields : Collections.<String, List<String>> emptyMap();
+		}
+
+		@Override
+		public String getHeaderField(String name) {
+			String ret = null;
+			if (headerFields != null) {
+				List<String> values = headerFields.get(findHeaderKey(name));
+				if (values != null && !values.isEmpty()) {
+					ret = values.get(0);
+				}
+			}
+			return ret;
+		}
+
+		@Override
+		public InputStream getResponseBody() throws IOException {
+			getStatus();
+			return responseBody != null ? responseBody : new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public long transferResponseBody(FileChannel file, long position, long count) throws IOException {
+			getStatus();
+			// Channel reads do not observe the socket timeout.
+			if (conn.getChannel() != null && conn.getSocket().getSoTimeout() == 0
+					&& responseBody instanceof ResponseBody) {
+				return ((ResponseBody) responseBody).transferTo(file, position, count);
+			}
+			return HttpBufferPool.transfer(getResponseBody(), file, position, count);
+		}
+
+		@Override
+		public void close() {
+			if (responseBody != null) {
+				try {
+					responseBody.close();
+				}
+				catch (IOException ignored) {
+				}
+			}
+			// Request has not been finished
+			release(false);
+		}
+
+		@Override
+		public void setReadTimeout(int millis) throws IOException {
+			if (conn != null) {
+				conn.getSocket().setSoTimeout(millis);
+			}
+		}
+
+		@Override
+		public void abort() {
+			if (conn != null) {
+				conn.close();
+			}
+			release(false);
+		}
+
+		private synchronized void release(boolean reusable) {
+			if (!released && conn != null) {
+				released = true;
+				lanePool.release(conn, reusable);
+			}
+		}
+
+		/**
+		 * Response body stream. Gives the connection back to the pool when it is closed.
+		 */
+		private class ResponseBody extends FilterInputStream {
+
+			private boolean eof;
+
+			ResponseBody(InputStream in) {
+				super(in);
+			}
+
+			@Override
+			public int read() throws IOException {
+				int c = super.read();
+				if (c < 0) eof = true;
+				return c;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n < 0) eof = true;
+				return n;
+			}
+
+			/**
+			 * Read the body into a file.
+			 * Bodies with Content-Length are received directly from the socket channel.
+			 */
+			long transferTo(FileChannel file, long position, long count) throws IOException {
+				long n = 0;
+				int buffered = conn.getBufferedInputCount();
+				if (!(in instanceof FixedLengthInputStream) || buffered != 0) {
+					// Bytes already received into the buffer of the connection.
+					n = HttpBufferPool.transfer(in, file, position, buffered != 0 ? Math.min(count, buffered) : count);
+				}
+				else {
+					n = ((FixedLengthInputStream) in).transferTo(file, position, count, conn.getChannel());
+				}
+				if (n < 0) eof = true;
+				return n;
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (!eof && keepAlive) {
+					// E.g. GZIPInputStream stops before the end of a chunked stream.
+					try {
+						byte[] buf = new byte[4096];
+						long sum = 0;
+						int n;
+						while (sum < MAX_DRAIN_BYTES && (n = in.read(buf)) >= 0) {
+							sum += n;
+						}
+						eof = sum < MAX_DRAIN_BYTES;
+					}
+					catch (IOException e) {
+						eof = false;
+					}
+				}
+				release(eof && keepAlive);
+			}
+		}
+	}
+
+	/**
+	 * Read a header line terminated by CRLF.
+	 * @param is Stream
+	 * @return Line without CRLF or null at the end of stream.
+	 * @throws IOException
+	 */
+	static String readLine(InputStream is) throws IOException {
+		StringBuilder sbuf = new StringBuilder(64);
+		int c;
+		while ((c = is.read()) != -1) {
+			if (c == '\n') {
+				int len = sbuf.length();
+				if (len != 0 && sbuf.charAt(len - 1) == '\r') {
+					sbuf.setLength(len - 1);
+				}
+				return sbuf.toString();
+			}
+			sbuf.append((char) c);
+		}
+		return sbuf.length() != 0 ? sbuf.toString() : null;
+	}
+
+	/**
+	 * Body with Content-Length.
+	 */
+	static class FixedLengthInputStream extends FilterInputStream {
+
+		private long remaining;
+
+		FixedLengthInputStream(InputStream in, long length) {
+			super(in);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int c = in.read();
+			if (c < 0) {
+				throw new EOFException("Unexpected end of response body.");
+			}
+			remaining--;
+			return c;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n < 0) {
+				throw new EOFException("Unexpected end of response body.");
+			}
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), remaining);
+		}
+
+		/**
+		 * Read the body from the channel into a file.
+		 * The buffer of the underlying stream has to be empty.
+		 */
+		long transferTo(FileChannel file, long position, long count, ReadableByteChannel channel) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			long n = file.transferFrom(channel, position, Math.min(count, remaining));
+			if (n <= 0) {
+				throw new EOFException("Unexpected end of response body.");
+			}
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Body with Transfer-Encoding: chunked.
+	 */
+	static class ChunkedInputStream extends FilterInputStream {
+
+		private long remaining;
+		private boolean eof;
+
+		ChunkedInputStream(InputStream in) {
+			super(in);
+		}
+
+		private boolean nextChunk() throws IOException {
+			if (eof) {
+				return false;
+			}
+			if (remaining == 0) {
+				String line = readLine(in);
+				// CRLF after the previous chunk
+				if (line != null && line.isEmpty()) {
+					line = readLine(in);
+				}
+				if (line == null) {
+					throw new EOFException("Unexpected end of chunked response body.");
+				}
+				int p = line.indexOf(';');
+				if (p >= 0) {
+					line = line.substring(0, p);
+				}
+				try {
+					remaining = Long.parseLong(line.trim(), 16);
+				}
+				catch (NumberFormatException e) {
+					throw new IOException("Invalid chunk size \"" + line + "\"");
+				}
+				if (remaining == 0) {
+					// Skip trailers
+					while ((line = readLine(in)) != null && !line.isEmpty()) {
+					}
+					eof = true;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!nextChunk()) {
+				return -1;
+			}
+			int c = in.read();
+			if (c < 0) {
+				throw new EOFException("Unexpected end of chunked response body.");
+			}
+			remaining--;
+			return c;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (!nextChunk()) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n < 0) {
+				throw new EOFException("Unexpected end of chunked response body.");
+			}
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), remaining);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Request body with Content-Length.
+	 */
+	static class FixedLengthOutputStream extends FilterOutputStream {
+
+		private long remaining;
+		private boolean closed;
+
+		FixedLengthOutputStream(OutputStream out, long length) {
+			super(out);
+			this.remaining = length;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len > remaining) {
+				throw new IOException("Too many bytes written, expected Content-Length=" + remaining);
+			}
+			out.write(b, off, len);
+			remaining -= len;
+		}
+
+		/**
+		 * Write a part of a file directly to the channel.
+		 */
+		long transferFrom(FileChannel file, long position, long count, WritableByteChannel channel) throws IOException {
+			if (count > remaining) {
+				throw new IOException("Too many bytes written, expected Content-Length=" + remaining);
+			}
+			// Request head is still in the buffer.
+			out.flush();
+			long n = file.transferTo(position, count, channel);
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				if (remaining != 0) {
+					throw new IOException("Insufficient data written, " + remaining + " bytes missing.");
+				}
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Request body with Transfer-Encoding: chunked.
+	 */
+	static class ChunkedOutputStream extends FilterOutputStream {
+
+		private final static byte[] CRLF = new byte[] { '\r', '\n' };
+		private boolean closed;
+
+		ChunkedOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len != 0) {
+				out.write(Integer.toHexString(len).getBytes(StandardCharsets.ISO_8859_1));
+				out.write(CRLF);
+				out.write(b, off, len);
+				out.write(CRLF);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				out.write('0');
+				out.write(CRLF);
+				out.write(CRLF);
+				out.flush();
+			}
+		}
+	}
+}
@@ -18,4 +18,13 @@ public interface ProgressCallback {
 	public boolean isCancelled();
 	public ProgressCallback createChild(String name);
 	public void childFinished(double total);
+
+	/**
+	 * Point in time until the operation has to be finished.
+	 * HTTP requests fail with a SocketTimeoutException when the deadline has passed.
+	 * @return Milliseconds since 1970 or 0, if there is no deadline.
+	 */
+	public default long getDeadline() {
+		return 0;
+	}
 }
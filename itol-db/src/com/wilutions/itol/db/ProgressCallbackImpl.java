@@ -10,17 +10,36 @@
  */
 package com.wilutions.itol.db;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Progress of an operation and its sub-operations.
+ * Progress is accumulated without locks and without allocating objects.
+ * Notifications to progressChanged() and to the parent are throttled to
+ * DEFAULT_NOTIFY_RATE per second, see setNotifyRate() and setNotifyStep().
+ * Reaching the total and setFinished() are always notified.
+ */
 public class ProgressCallbackImpl implements ProgressCallback {
 
+	/**
+	 * Default maximum number of notifications per second.
+	 */
+	public final static double DEFAULT_NOTIFY_RATE = 30;
+
 	private final ProgressCallback parent;
 	protected final String name;
 	protected volatile String[] params;
 	protected volatile double total;
-	protected volatile double childSum;
+	protected volatile long deadline;
+	private volatile double current;
+	/**
+	 * Sum of the totals of finished children as raw long bits of a double.
+	 */
+	private final AtomicLong childSumBits = new AtomicLong(Double.doubleToRawLongBits(0));
+	private volatile long notifyIntervalNanos = (long) (1e9 / DEFAULT_NOTIFY_RATE);
+	private volatile double notifyStep;
+	private final AtomicLong lastNotifyNanos = new AtomicLong();
+	private volatile double lastNotifiedQuote = -1;
 
 	public ProgressCallbackImpl(String name) {
 		this(null, name);
@@ -29,44 +48,124 @@ public class ProgressCallbackImpl implements ProgressCallback {
 	public ProgressCallbackImpl(ProgressCallback parent, String name) {
 		this.parent = parent;
 		this.name = name;
+		if (parent instanceof ProgressCallbackImpl) {
+			ProgressCallbackImpl p = (ProgressCallbackImpl) parent;
+			this.notifyIntervalNanos = p.notifyIntervalNanos;
+			this.notifyStep = p.notifyStep;
+		}
+		this.lastNotifyNanos.set(System.nanoTime() - notifyIntervalNanos);
 		if (parent != null) {
 			parent.setParams(new String[0]);
 		}
 	}
 
+	/**
+	 * Set the maximum rate of notifications. Children created afterwards inherit the rate.
+	 * @param perSecond Notifications per second, 0 to notify each update.
+	 */
+	public void setNotifyRate(double perSecond) {
+		this.notifyIntervalNanos = perSecond > 0 ? (long) (1e9 / perSecond) : 0;
+	}
+
+	/**
+	 * Set the minimum change of progress between two notifications.
+	 * Children created afterwards inherit the step.
+	 * @param step Fraction of the total, e.g. 0.01 for one percent. 0 notifies any change.
+	 */
+	public void setNotifyStep(double step) {
+		this.notifyStep = Math.max(0, step);
+	}
+
 	@Override
 	public void setParams(String... params) {
 		this.params = params;
 		if (parent != null) {
-			List<String> paramList = new ArrayList<String>(Arrays.asList(params));
+			String[] parentParams = params;
 			if (name != null && name.length() != 0) {
-				paramList.add(0, name);
+				parentParams = new String[params.length + 1];
+				parentParams[0] = name;
+				System.arraycopy(params, 0, parentParams, 1, params.length);
 			}
-			String[] parentParams = paramList.toArray(new String[paramList.size()]);
 			parent.setParams(parentParams);
 		}
 	}
 
 	@Override
 	public void setProgress(double current) {
-		double currentSum = childSum + current;
-		StringBuilder line = new StringBuilder();
-		line.append(name);
-		if (params != null && params.length != 0) {
-			line.append(" ");
-			line.append(Arrays.toString(params));
+		this.current = current;
+		double total = this.total;
+		if (total > 0) {
+			double currentSum = getChildSum() + current;
+			if (claimNotification(currentSum / total, currentSum >= total)) {
+				notifyProgress(currentSum, total);
+			}
 		}
+	}
 
-		if (parent != null && total > 0) {
+	/**
+	 * Check whether an update has to be notified.
+	 * Concurrent updates compete for the notification, only one of them wins.
+	 * @param quote Progress divided by total
+	 * @param force Notify regardless of rate and step
+	 * @return true, if the caller has to notify.
+	 */
+	private boolean claimNotification(double quote, boolean force) {
+		long now = System.nanoTime();
+		long last = lastNotifyNanos.get();
+		if (!force) {
+			if (now - last < notifyIntervalNanos || Math.abs(quote - lastNotifiedQuote) < notifyStep) {
+				return false;
+			}
+			if (!lastNotifyNanos.compareAndSet(last, now)) {
+				return false;
+			}
+		}
+		else {
+			lastNotifyNanos.set(now);
+		}
+		lastNotifiedQuote = quote;
+		return true;
+	}
+
+	private void notifyProgress(double currentSum, double total) {
+		progressChanged(currentSum, total);
+		if (parent != null) {
 			parent.setProgress(currentSum);
 		}
 	}
 
+	/**
+	 * Called when the progress has changed, at most at the notification rate.
+	 * Can be called by different threads.
+	 * @param current Progress including finished children
+	 * @param total Total
+	 */
+	protected void progressChanged(double current, double total) {
+	}
+
 	@Override
 	public void setTotal(double total) {
 		this.total = total;
 	}
 
+	public double getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return Progress including finished children.
+	 */
+	public double getCurrent() {
+		return getChildSum() + current;
+	}
+
+	/**
+	 * @return Sum of the totals of finished children.
+	 */
+	protected double getChildSum() {
+		return Double.longBitsToDouble(childSumBits.get());
+	}
+
 	@Override
 	public boolean isCancelled() {
 		boolean ret = false;
@@ -76,6 +175,39 @@ public class ProgressCallbackImpl implements ProgressCallback {
 		return ret;
 	}
 
+	/**
+	 * Set the deadline of this operation. Children observe the deadline too.
+	 * @param deadline Milliseconds since 1970 or 0 for no deadline.
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Set the deadline relative to now.
+	 * @param timeoutMillis Timeout in milliseconds or 0 for no deadline.
+	 */
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+	}
+
+	@Override
+	public long getDeadline() {
+		return earliestDeadline(deadline, parent != null ? parent.getDeadline() : 0);
+	}
+
+	/**
+	 * Get the earlier of two deadlines.
+	 * @param d1 Deadline or 0
+	 * @param d2 Deadline or 0
+	 * @return Earlier deadline, 0 if both are 0.
+	 */
+	public static long earliestDeadline(long d1, long d2) {
+		if (d1 == 0) return d2;
+		if (d2 == 0) return d1;
+		return Math.min(d1, d2);
+	}
+
 	@Override
 	public ProgressCallback createChild(String name) {
 		return new ProgressCallbackImpl(this, name);
@@ -83,16 +215,26 @@ public class ProgressCallbackImpl implements ProgressCallback {
 
 	@Override
 	public void setFinished() {
-		childSum = 0;
-		setProgress(total);
-		if (parent != null && total > 0) {
-			parent.childFinished(total);
+		double total = this.total;
+		childSumBits.set(Double.doubleToRawLongBits(0));
+		current = total;
+		if (total > 0) {
+			claimNotification(1, true);
+			notifyProgress(total, total);
+			if (parent != null) {
+				parent.childFinished(total);
+			}
 		}
 	}
 
 	@Override
 	public void childFinished(double total) {
-		childSum += total;
+		long bits;
+		do {
+			bits = childSumBits.get();
+		} while (!childSumBits.compareAndSet(bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + total)));
+		// The progress of the finished child is now part of the sum.
+		current = 0;
 	}
 
 	public static void main(String[] args) {
@@ -113,6 +113,115 @@ public class Property {
 	 */
 	public static final String NB_OF_SUGGESTIONS = "nbOfSuggestions";
 
+	/**
+	 * Maximum number of connections kept open to the issue tracker (scheme, host and port).
+	 */
+	public static final String HTTP_MAX_CONNECTIONS_PER_ROUTE = "Http.maxConnectionsPerRoute";
+
+	/**
+	 * Seconds an unused connection is kept open.
+	 */
+	public static final String HTTP_IDLE_TIMEOUT_SECONDS = "Http.idleTimeoutSeconds";
+
+	/**
+	 * Maximum number of threads running asynchronous requests.
+	 */
+	public static final String HTTP_MAX_THREADS = "Http.maxThreads";
+
+	/**
+	 * Maximum number of asynchronous requests waiting for a thread.
+	 */
+	public static final String HTTP_QUEUE_CAPACITY = "Http.queueCapacity";
+
+	/**
+	 * Run each asynchronous request in a virtual thread, if supported by the Java runtime.
+	 * Value is "true" or "false".
+	 */
+	public static final String HTTP_VIRTUAL_THREADS = "Http.virtualThreads";
+
+	/**
+	 * Maximum number of connections to the issue tracker used for uploads and downloads of attachments.
+	 */
+	public static final String HTTP_BULK_MAX_CONNECTIONS_PER_ROUTE = "Http.bulk.maxConnectionsPerRoute";
+
+	/**
+	 * Maximum number of threads running asynchronous uploads and downloads of attachments.
+	 */
+	public static final String HTTP_BULK_MAX_THREADS = "Http.bulk.maxThreads";
+
+	/**
+	 * Maximum bandwidth in KB/s used by uploads of attachments, shared by all uploads.
+	 * 0 (default) does not limit uploads.
+	 */
+	public static final String HTTP_UPLOAD_LIMIT_KBPS = "Http.uploadLimitKBps";
+
+	/**
+	 * Number of byte ranges a large attachment is downloaded in at the same time.
+	 * It is limited by HTTP_BULK_MAX_CONNECTIONS_PER_ROUTE. 0 or 1 disables range requests.
+	 */
+	public static final String HTTP_DOWNLOAD_RANGES = "Http.downloadRanges";
+
+	/**
+	 * Send identical GET requests that are issued at the same time only once.
+	 * Value is "true" (default) or "false".
+	 */
+	public static final String HTTP_COALESCE_REQUESTS = "Http.coalesceRequests";
+
+	/**
+	 * Send JSON request bodies with Content-Encoding: gzip, if the server accepts it.
+	 * Value is "true" or "false" (default).
+	 */
+	public static final String HTTP_COMPRESS_REQUESTS = "Http.compressRequests";
+
+	/**
+	 * Record the HTTP traffic into this directory, see HttpRecordingTransport.
+	 * Empty (default) does not record.
+	 */
+	public static final String HTTP_RECORD_DIRECTORY = "Http.recordDirectory";
+
+	/**
+	 * Answer HTTP requests from a recording in this directory instead of the server,
+	 * see HttpReplayTransport. Empty (default) sends requests to the server.
+	 */
+	public static final String HTTP_REPLAY_DIRECTORY = "Http.replayDirectory";
+
+	/**
+	 * Factor applied to the recorded latencies when replaying, e.g. "1" (default)
+	 * for the original timing, "0" to answer immediately.
+	 */
+	public static final String HTTP_REPLAY_LATENCY_SCALE = "Http.replayLatencyScale";
+
+	/**
+	 * Open a connection to the issue tracker in the background when the add-in starts
+	 * and after the network has changed. Value is "true" (default) or "false".
+	 */
+	public static final String HTTP_PREWARM = "Http.prewarm";
+
+	/**
+	 * Maximum time in seconds to wait for data from the server. 0 waits infinitely.
+	 * Requests with a deadline wait at most until the deadline.
+	 */
+	public static final String HTTP_READ_TIMEOUT_SECONDS = "Http.readTimeoutSeconds";
+
+	/**
+	 * Store responses of GET requests in a disk cache and revalidate them with ETag and Last-Modified.
+	 * The cache is stored in the application data directory.
+	 * Value is "true" or "false".
+	 */
+	public static final String HTTP_CACHE_ENABLED = "Http.cacheEnabled";
+
+	/**
+	 * Maximum size of the disk cache in MB.
+	 */
+	public static final String HTTP_CACHE_MAX_SIZE_MB = "Http.cacheMaxSizeMB";
+
+	/**
+	 * Time-to-live of cached responses, comma separated list of url-part=seconds.
+	 * E.g. "/trackers.json=3600, /issue_statuses.json=3600".
+	 * Responses for other URLs are revalidated on each request.
+	 */
+	public static final String HTTP_CACHE_TTL = "Http.cacheTTL";
+
 	private String id;
 
 	private Object value;
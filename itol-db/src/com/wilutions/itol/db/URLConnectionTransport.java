@@ -0,0 +1,131 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transport based on java.net.HttpURLConnection.
+ * Used for requests that have to pass a proxy server.
+ */
+public class URLConnectionTransport implements HttpTransport {
+
+	@Override
+	public HttpExchange open(HttpRequest request) throws IOException {
+		URL url = new URL(request.getUrl());
+		HttpURLConnection conn = (HttpURLConnection) (url.openConnection());
+
+		conn.setConnectTimeout(HttpClient.CONNECT_TIMEOUT_SECONDS * 1000);
+		if (request.getReadTimeoutMillis() >= 0) {
+			conn.setReadTimeout(request.getReadTimeoutMillis());
+		}
+
+		conn.setRequestMethod(request.getMethod());
+		conn.setDoOutput(request.getContent() != null);
+
+		for (String header : request.getHeaders()) {
+			int p = header.indexOf(":");
+			conn.setRequestProperty(header.substring(0, p).trim(), header.substring(p + 1).trim());
+		}
+
+		if (request.getContent() != null) {
+			conn.setUseCaches(false);
+			if (request.getContentLength() >= 0) {
+				conn.setFixedLengthStreamingMode(request.getContentLength());
+			}
+			else {
+				conn.setChunkedStreamingMode(9000);
+			}
+		}
+
+		return new Exchange(conn);
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private static class Exchange implements HttpExchange {
+
+		private final HttpURLConnection conn;
+		private InputStream body;
+
+		Exchange(HttpURLConnection conn) {
+			this.conn = conn;
+		}
+
+		@Override
+		public OutputStream getRequestBody() throws IOException {
+			return conn.getOutputStream();
+		}
+
+		@Override
+		public int getStatus() throws IOException {
+			return conn.getResponseCode();
+		}
+
+		@Override
+		public URL getURL() {
+			return conn.getURL();
+		}
+
+		@Override
+		public Map<String, List<String>> getHeaderFields() {
+			return conn.getHeaderFields();
+		}
+
+		@Override
+		public String getHeaderField(String name) {
+			return conn.getHeaderField(name);
+		}
+
+		@Override
+		public InputStream getResponseBody() throws IOException {
+			if (body == null) {
+				if (conn.getResponseCode() >= 400) {
+					body = conn.getErrorStream();
+				}
+				else {
+					body = conn.getInputStream();
+				}
+				if (body == null) {
+					body = new ByteArrayInputStream(new byte[0]);
+				}
+			}
+			return body;
+		}
+
+		@Override
+		public void close() {
+			// Do not disconnect: the JDK keeps the socket alive,
+			// if the stream has been read completely.
+			if (body != null) {
+				try {
+					body.close();
+				}
+				catch (IOException ignored) {
+				}
+			}
+		}
+
+		@Override
+		public void abort() {
+			conn.disconnect();
+		}
+	}
+}
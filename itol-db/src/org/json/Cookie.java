@@ -1,5 +1,7 @@
 package org.json;
 
+import java.util.Locale;
+
 /*
 Copyright (c) 2002 JSON.org
 
@@ -68,7 +70,8 @@ public class Cookie {
      * will contain a name value pair separated by '='. The name and the value
      * will be unescaped, possibly converting '+' and '%' sequences. The
      * cookie properties may follow, separated by ';', also represented as
-     * name=value (except the secure property, which does not have a value).
+     * name=value (except properties like secure or httponly, which do not have
+     * a value and are stored as true). Property names are converted to lower case.
      * The name will be stored under the key "name", and the value will be
      * stored under the key "value". This method does not do checking or
      * validation of the parameters. It only converts the cookie string into
@@ -88,13 +91,11 @@ public class Cookie {
         jo.put("value", x.nextTo(';'));
         x.next();
         while (x.more()) {
-            name = unescape(x.nextTo("=;"));
+            // Attribute names are case insensitive, e.g. "Path" or "path".
+            name = unescape(x.nextTo("=;")).trim().toLowerCase(Locale.ROOT);
             if (x.next() != '=') {
-                if (name.equals("secure")) {
-                    value = Boolean.TRUE;
-                } else {
-                    throw x.syntaxError("Missing '=' in cookie parameter.");
-                }
+                // Attributes without value, e.g. "Secure" or "HttpOnly".
+                value = Boolean.TRUE;
             } else {
                 value = unescape(x.nextTo(';'));
                 x.next();
@@ -25,6 +25,7 @@ package org.json;
  */
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Array;
@@ -1078,19 +1079,48 @@ public class JSONArray implements Iterable<Object> {
     }
 
     /**
-     * Write the contents of the JSONArray as JSON text to a writer. For
-     * compactness, no whitespace is added.
+     * Write the contents of the JSONArray as UTF-8 encoded JSON text to a
+     * stream. The text is encoded through a buffer without building a String
+     * of the whole document. The stream is flushed but not closed.
      * <p>
      * Warning: This method assumes that the data structure is acyclical.
      *
+     * @param os
+     *            The stream.
      * @param indentFactor
-     *            The number of spaces to add to each level of indentation.
+     *            The number of spaces to add to each level of indentation,
+     *            0 for compact text.
+     * @return The stream.
+     * @throws JSONException
+     */
+    public OutputStream write(OutputStream os, int indentFactor)
+            throws JSONException {
+        UTF8Writer writer = new UTF8Writer(os);
+        try {
+            this.write(writer, indentFactor, 0);
+            writer.close();
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        } finally {
+            writer.release();
+        }
+        return os;
+    }
+
+    /**
+     * Write the contents of the JSONArray as JSON text to a writer.
+     * <p>
+     * Warning: This method assumes that the data structure is acyclical.
+     *
+     * @param indentFactor
+     *            The number of spaces to add to each level of indentation,
+     *            0 for compact text.
      * @param indent
      *            The indention of the top level.
      * @return The writer.
      * @throws JSONException
      */
-    Writer write(Writer writer, int indentFactor, int indent)
+    public Writer write(Writer writer, int indentFactor, int indent)
             throws JSONException {
         try {
             boolean commanate = false;
@@ -0,0 +1,174 @@
+package org.json;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * Getters and public fields of a bean class, as used by the JSONObject bean
+ * constructors. The class is scanned once, further conversions of objects of
+ * the same class invoke the cached method handles.
+ * @author JSON.org
+ * @version 2026-10-17
+ */
+final class JSONBeanInfo {
+
+    private static final ClassValue<JSONBeanInfo> infos = new ClassValue<JSONBeanInfo>() {
+        @Override
+        protected JSONBeanInfo computeValue(Class<?> type) {
+            return new JSONBeanInfo(type);
+        }
+    };
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * Marks a name without public field in fields.
+     */
+    private static final Object NO_FIELD = new Object();
+
+    /**
+     * Property names, e.g. "name" for getName().
+     */
+    final String[] keys;
+
+    /**
+     * Getters of type (Object)Object in the same order as keys.
+     */
+    final MethodHandle[] getters;
+
+    private final Class<?> klass;
+
+    /**
+     * Getters of public fields by name, or NO_FIELD.
+     */
+    private final ConcurrentHashMap<String, Object> fields = new ConcurrentHashMap<String, Object>();
+
+
+    private JSONBeanInfo(Class<?> klass) {
+        this.klass = klass;
+
+        // If klass is a System class then set includeSuperClass to false.
+        boolean includeSuperClass = klass.getClassLoader() != null;
+
+        Method[] methods = includeSuperClass ? klass.getMethods() : klass
+                .getDeclaredMethods();
+        List<String> keys = new ArrayList<String>(methods.length);
+        List<MethodHandle> getters = new ArrayList<MethodHandle>(methods.length);
+        for (int i = 0; i < methods.length; i += 1) {
+            Method method = methods[i];
+            String key = keyOf(method);
+            if (key != null) {
+                try {
+                    MethodHandle getter = MethodHandles.publicLookup().unreflect(method);
+                    if (Modifier.isStatic(method.getModifiers())) {
+                        getter = MethodHandles.dropArguments(getter, 0, Object.class);
+                    }
+                    getters.add(getter.asType(GETTER_TYPE));
+                    keys.add(key);
+                } catch (Exception ignore) {
+                }
+            }
+        }
+        this.keys = keys.toArray(new String[keys.size()]);
+        this.getters = getters.toArray(new MethodHandle[getters.size()]);
+    }
+
+
+    /**
+     * Get the bean info of a class.
+     * @param klass The class.
+     * @return The cached bean info.
+     */
+    static JSONBeanInfo of(Class<?> klass) {
+        return infos.get(klass);
+    }
+
+
+    /**
+     * Get the getter of a public field.
+     * @param name The field name.
+     * @return A method handle of type (Object)Object, or null if the class
+     * has no accessible public field with this name.
+     */
+    MethodHandle getField(String name) {
+        Object getter = this.fields.get(name);
+        if (getter == null) {
+            try {
+                Field field = this.klass.getField(name);
+                getter = MethodHandles.publicLookup().unreflectGetter(field)
+                        .asType(GETTER_TYPE);
+            } catch (Exception e) {
+                getter = NO_FIELD;
+            }
+            this.fields.put(name, getter);
+        }
+        return getter != NO_FIELD ? (MethodHandle) getter : null;
+    }
+
+
+    /**
+     * Make the property name of a getter.
+     * @param method The method.
+     * @return The name, e.g. "name" for getName() and "URL" for getURL(),
+     * or null if the method is not a getter.
+     */
+    private static String keyOf(Method method) {
+        if (!Modifier.isPublic(method.getModifiers())
+                || method.getParameterTypes().length != 0) {
+            return null;
+        }
+        String name = method.getName();
+        String key = "";
+        if (name.startsWith("get")) {
+            if ("getClass".equals(name)
+                    || "getDeclaringClass".equals(name)) {
+                key = "";
+            } else {
+                key = name.substring(3);
+            }
+        } else if (name.startsWith("is")) {
+            key = name.substring(2);
+        }
+        if (key.length() == 0 || !Character.isUpperCase(key.charAt(0))) {
+            return null;
+        }
+        if (key.length() == 1) {
+            key = key.toLowerCase();
+        } else if (!Character.isUpperCase(key.charAt(1))) {
+            key = key.substring(0, 1).toLowerCase()
+                    + key.substring(1);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,296 @@
+package org.json;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * The map where a JSONObject keeps its properties. Most JSON objects only
+ * have a few properties, e.g. {"id":1,"name":"Bug"}. Up to
+ * <code>MAX_PACKED</code> properties are stored in a single array of
+ * alternating keys and values, which is searched linearly. Larger objects
+ * are moved into a LinkedHashMap. In both cases, the properties are
+ * iterated in insertion order.
+ * @author JSON.org
+ * @version 2026-10-17
+ */
+class JSONMap extends AbstractMap<String, Object> {
+
+    /**
+     * Maximum number of properties stored in the packed array.
+     */
+    static final int MAX_PACKED = 8;
+
+    private static final int INITIAL_PACKED = 4;
+
+    /**
+     * Keys at even and values at odd indexes. Null for an empty map and after
+     * the properties have been moved into hashed.
+     */
+    private Object[] packed;
+
+    private int size;
+
+    private LinkedHashMap<String, Object> hashed;
+
+    private Set<Map.Entry<String, Object>> entrySet;
+
+
+    /**
+     * Construct an empty map.
+     */
+    JSONMap() {
+    }
+
+
+    /**
+     * Construct an empty map for the given number of properties.
+     * @param expectedSize Expected number of properties.
+     */
+    JSONMap(int expectedSize) {
+        if (expectedSize > MAX_PACKED) {
+            this.hashed = new LinkedHashMap<String, Object>(expectedSize * 4 / 3 + 1);
+        } else if (expectedSize > 0) {
+            this.packed = new Object[2 * expectedSize];
+        }
+    }
+
+
+    @Override
+    public int size() {
+        return this.hashed != null ? this.hashed.size() : this.size;
+    }
+
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.hashed != null ? this.hashed.containsKey(key) : this.indexOf(key) >= 0;
+    }
+
+
+    @Override
+    public Object get(Object key) {
+        if (this.hashed != null) {
+            return this.hashed.get(key);
+        }
+        int i = this.indexOf(key);
+        return i >= 0 ? this.packed[i + 1] : null;
+    }
+
+
+    @Override
+    public Object put(String key, Object value) {
+        if (this.hashed != null) {
+            return this.hashed.put(key, value);
+        }
+        int i = this.indexOf(key);
+        if (i >= 0) {
+            Object old = this.packed[i + 1];
+            this.packed[i + 1] = value;
+            return old;
+        }
+        if (this.size == MAX_PACKED) {
+            this.hashed = new LinkedHashMap<String, Object>(4 * MAX_PACKED);
+            for (int j = 0; j < 2 * this.size; j += 2) {
+                this.hashed.put((String) this.packed[j], this.packed[j + 1]);
+            }
+            this.packed = null;
+            this.size = 0;
+            return this.hashed.put(key, value);
+        }
+        if (this.packed == null) {
+            this.packed = new Object[2 * INITIAL_PACKED];
+        } else if (2 * this.size == this.packed.length) {
+            Object[] newPacked = new Object[2 * Math.min(MAX_PACKED, 2 * this.size)];
+            System.arraycopy(this.packed, 0, newPacked, 0, 2 * this.size);
+            this.packed = newPacked;
+        }
+        this.packed[2 * this.size] = key;
+        this.packed[2 * this.size + 1] = value;
+        this.size += 1;
+        return null;
+    }
+
+
+    @Override
+    public Object remove(Object key) {
+        if (this.hashed != null) {
+            return this.hashed.remove(key);
+        }
+        int i = this.indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        Object old = this.packed[i + 1];
+        this.removeAt(i);
+        return old;
+    }
+
+
+    @Override
+    public void clear() {
+        this.packed = null;
+        this.size = 0;
+        this.hashed = null;
+    }
+
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (this.entrySet == null) {
+            this.entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return JSONMap.this.hashed != null
+                            ? JSONMap.this.hashed.entrySet().iterator()
+                            : new PackedIterator();
+                }
+
+                @Override
+                public int size() {
+                    return JSONMap.this.size();
+                }
+            };
+        }
+        return this.entrySet;
+    }
+
+
+    private int indexOf(Object key) {
+        Object[] packed = this.packed;
+        int end = 2 * this.size;
+        for (int i = 0; i < end; i += 2) {
+            if (packed[i] == key) {
+                return i;
+            }
+        }
+        if (key != null) {
+            for (int i = 0; i < end; i += 2) {
+                if (key.equals(packed[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+
+    private void removeAt(int i) {
+        int end = 2 * this.size;
+        System.arraycopy(this.packed, i + 2, this.packed, i, end - i - 2);
+        this.packed[end - 2] = null;
+        this.packed[end - 1] = null;
+        this.size -= 1;
+    }
+
+
+    /**
+     * Iterator over the packed array.
+     */
+    private class PackedIterator implements Iterator<Map.Entry<String, Object>> {
+        private int next;
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return JSONMap.this.hashed == null && this.next < 2 * JSONMap.this.size;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.last = this.next;
+            this.next += 2;
+            return new PackedEntry(this.last);
+        }
+
+        @Override
+        public void remove() {
+            if (this.last < 0 || JSONMap.this.hashed != null) {
+                throw new IllegalStateException();
+            }
+            JSONMap.this.removeAt(this.last);
+            this.next = this.last;
+            this.last = -1;
+        }
+    }
+
+
+    /**
+     * Entry that reads and writes the packed array.
+     */
+    private class PackedEntry implements Map.Entry<String, Object> {
+        private final String key;
+
+        PackedEntry(int index) {
+            this.key = (String) JSONMap.this.packed[index];
+        }
+
+        @Override
+        public String getKey() {
+            return this.key;
+        }
+
+        @Override
+        public Object getValue() {
+            return JSONMap.this.get(this.key);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return JSONMap.this.put(this.key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object value = this.getValue();
+            return this.key.equals(e.getKey())
+                    && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = this.getValue();
+            return this.key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return this.key + "=" + this.getValue();
+        }
+    }
+}
@@ -25,15 +25,14 @@ package org.json;
  */
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.math.*;
 import java.util.Collection;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
@@ -58,6 +57,7 @@ import java.util.Set;
  * exception if one cannot be found. An <code>opt</code> method returns a
  * default value instead of throwing an exception, and so is useful for
  * obtaining optional values.
+ * The names are iterated and written in the order they were added.
  * <p>
  * The generic <code>get()</code> and <code>opt()</code> methods return an
  * object, which you can cast or query for type. There are also typed
@@ -153,7 +153,7 @@ public class JSONObject {
      * Construct an empty JSONObject.
      */
     public JSONObject() {
-        this.map = new HashMap<String, Object>();
+        this.map = new JSONMap();
     }
 
     /**
@@ -244,7 +244,7 @@ public class JSONObject {
      * @throws JSONException
      */
     public JSONObject(Map<?, ?> map) {
-        this.map = new HashMap<String, Object>();
+        this.map = new JSONMap(map != null ? map.size() : 0);
         if (map != null) {
         	for (final Entry<?, ?> e : map.entrySet()) {
                 final Object value = e.getValue();
@@ -271,6 +271,8 @@ public class JSONObject {
      * if the result of calling <code>object.getName()</code> is
      * <code>"Larry Fine"</code>, then the JSONObject will contain
      * <code>"name": "Larry Fine"</code>.
+     * <p>
+     * The getters of a class are looked up once and cached.
      *
      * @param bean
      *            An object that has getter methods that should be used to make
@@ -297,12 +299,15 @@ public class JSONObject {
      */
     public JSONObject(Object object, String names[]) {
         this();
-        Class<?> c = object.getClass();
+        JSONBeanInfo info = JSONBeanInfo.of(object.getClass());
         for (int i = 0; i < names.length; i += 1) {
             String name = names[i];
-            try {
-                this.putOpt(name, c.getField(name).get(object));
-            } catch (Exception ignore) {
+            MethodHandle getter = info.getField(name);
+            if (getter != null) {
+                try {
+                    this.putOpt(name, getter.invokeExact(object));
+                } catch (Throwable ignore) {
+                }
             }
         }
     }
@@ -1130,47 +1135,14 @@ public class JSONObject {
     }
 
     private void populateMap(Object bean) {
-        Class<?> klass = bean.getClass();
-
-// If klass is a System class then set includeSuperClass to false.
-
-        boolean includeSuperClass = klass.getClassLoader() != null;
-
-        Method[] methods = includeSuperClass ? klass.getMethods() : klass
-                .getDeclaredMethods();
-        for (int i = 0; i < methods.length; i += 1) {
+        JSONBeanInfo info = JSONBeanInfo.of(bean.getClass());
+        for (int i = 0; i < info.keys.length; i += 1) {
             try {
-                Method method = methods[i];
-                if (Modifier.isPublic(method.getModifiers())) {
-                    String name = method.getName();
-                    String key = "";
-                    if (name.startsWith("get")) {
-                        if ("getClass".equals(name)
-                                || "getDeclaringClass".equals(name)) {
-                            key = "";
-                        } else {
-                            key = name.substring(3);
-                        }
-                    } else if (name.startsWith("is")) {
-                        key = name.substring(2);
-                    }
-                    if (key.length() > 0
-                            && Character.isUpperCase(key.charAt(0))
-                            && method.getParameterTypes().length == 0) {
-                        if (key.length() == 1) {
-                            key = key.toLowerCase();
-                        } else if (!Character.isUpperCase(key.charAt(1))) {
-                            key = key.substring(0, 1).toLowerCase()
-                                    + key.substring(1);
-                        }
-
-                        Object result = method.invoke(bean, (Object[]) null);
-                        if (result != null) {
-                            this.map.put(key, wrap(result));
-                        }
-                    }
+                Object result = info.getters[i].invokeExact(bean);
+                if (result != null) {
+                    this.map.put(info.keys[i], wrap(result));
                 }
-            } catch (Exception ignore) {
+            } catch (Throwable ignore) {
             }
         }
     }
@@ -1373,11 +1345,22 @@ public class JSONObject {
         String hhhh;
         int i;
         int len = string.length();
+        int start = 0;
 
         w.write('"');
         for (i = 0; i < len; i += 1) {
             b = c;
             c = string.charAt(i);
+            if (c >= ' ' && c != '\\' && c != '"' && (c != '/' || b != '<')
+                    && (c < '\u0080' || c >= '\u00a0')
+                    && (c < '\u2000' || c >= '\u2100')) {
+                continue;
+            }
+            // Write the characters that need no escaping at once.
+            if (start < i) {
+                w.write(string, start, i - start);
+            }
+            start = i + 1;
             switch (c) {
             case '\\':
             case '"':
@@ -1406,17 +1389,15 @@ public class JSONObject {
                 w.write("\\r");
                 break;
             default:
-                if (c < ' ' || (c >= '\u0080' && c < '\u00a0')
-                        || (c >= '\u2000' && c < '\u2100')) {
-                    w.write("\\u");
-                    hhhh = Integer.toHexString(c);
-                    w.write("0000", 0, 4 - hhhh.length());
-                    w.write(hhhh);
-                } else {
-                    w.write(c);
-                }
+                w.write("\\u");
+                hhhh = Integer.toHexString(c);
+                w.write("0000", 0, 4 - hhhh.length());
+                w.write(hhhh);
             }
         }
+        if (start < len) {
+            w.write(string, start, len - start);
+        }
         w.write('"');
         return w;
     }
@@ -1740,6 +1721,35 @@ public class JSONObject {
         return this.write(writer, 0, 0);
     }
 
+    /**
+     * Write the contents of the JSONObject as UTF-8 encoded JSON text to a
+     * stream. The text is encoded through a buffer without building a String
+     * of the whole document. The stream is flushed but not closed.
+     * <p>
+     * Warning: This method assumes that the data structure is acyclical.
+     *
+     * @param os
+     *            The stream.
+     * @param indentFactor
+     *            The number of spaces to add to each level of indentation,
+     *            0 for compact text.
+     * @return The stream.
+     * @throws JSONException
+     */
+    public OutputStream write(OutputStream os, int indentFactor)
+            throws JSONException {
+        UTF8Writer writer = new UTF8Writer(os);
+        try {
+            this.write(writer, indentFactor, 0);
+            writer.close();
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        } finally {
+            writer.release();
+        }
+        return os;
+    }
+
     static final Writer writeValue(Writer writer, Object value,
             int indentFactor, int indent) throws JSONException, IOException {
         if (value == null || value.equals(null)) {
@@ -1774,41 +1784,47 @@ public class JSONObject {
         return writer;
     }
 
+    private static final String SPACES = "                                ";
+
     static final void indent(Writer writer, int indent) throws IOException {
-        for (int i = 0; i < indent; i += 1) {
-            writer.write(' ');
+        while (indent > 0) {
+            int n = Math.min(indent, SPACES.length());
+            writer.write(SPACES, 0, n);
+            indent -= n;
         }
     }
 
     /**
-     * Write the contents of the JSONObject as JSON text to a writer. For
-     * compactness, no whitespace is added.
+     * Write the contents of the JSONObject as JSON text to a writer.
      * <p>
      * Warning: This method assumes that the data structure is acyclical.
      *
+     * @param indentFactor
+     *            The number of spaces to add to each level of indentation,
+     *            0 for compact text.
+     * @param indent
+     *            The indention of the top level.
      * @return The writer.
      * @throws JSONException
      */
-    Writer write(Writer writer, int indentFactor, int indent)
+    public Writer write(Writer writer, int indentFactor, int indent)
             throws JSONException {
         try {
             boolean commanate = false;
             final int length = this.length();
-            Iterator<String> keys = this.keys();
             writer.write('{');
 
             if (length == 1) {
-                Object key = keys.next();
-                writer.write(quote(key.toString()));
+                Entry<String, Object> entry = this.map.entrySet().iterator().next();
+                quote(entry.getKey(), writer);
                 writer.write(':');
                 if (indentFactor > 0) {
                     writer.write(' ');
                 }
-                writeValue(writer, this.map.get(key), indentFactor, indent);
+                writeValue(writer, entry.getValue(), indentFactor, indent);
             } else if (length != 0) {
                 final int newindent = indent + indentFactor;
-                while (keys.hasNext()) {
-                    Object key = keys.next();
+                for (Entry<String, Object> entry : this.map.entrySet()) {
                     if (commanate) {
                         writer.write(',');
                     }
@@ -1816,12 +1832,12 @@ public class JSONObject {
                         writer.write('\n');
                     }
                     indent(writer, newindent);
-                    writer.write(quote(key.toString()));
+                    quote(entry.getKey(), writer);
                     writer.write(':');
                     if (indentFactor > 0) {
                         writer.write(' ');
                     }
-                    writeValue(writer, this.map.get(key), indentFactor, newindent);
+                    writeValue(writer, entry.getValue(), indentFactor, newindent);
                     commanate = true;
                 }
                 if (indentFactor > 0) {
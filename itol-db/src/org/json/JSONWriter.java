@@ -108,6 +108,18 @@ public class JSONWriter {
      * @throws JSONException If the value is out of sequence.
      */
     private JSONWriter append(String string) throws JSONException {
+        return this.append(string, false);
+    }
+
+    /**
+     * Append a value.
+     * @param string A string value.
+     * @param quote true, if the string has to be quoted. It is quoted
+     *  directly into the writer without making a quoted copy.
+     * @return this
+     * @throws JSONException If the value is out of sequence.
+     */
+    private JSONWriter append(String string, boolean quote) throws JSONException {
         if (string == null) {
             throw new JSONException("Null pointer");
         }
@@ -116,7 +128,11 @@ public class JSONWriter {
                 if (this.comma && this.mode == 'a') {
                     this.writer.write(',');
                 }
-                this.writer.write(string);
+                if (quote) {
+                    JSONObject.quote(string, this.writer);
+                } else {
+                    this.writer.write(string);
+                }
             } catch (IOException e) {
                 throw new JSONException(e);
             }
@@ -209,7 +225,7 @@ public class JSONWriter {
                 if (this.comma) {
                     this.writer.write(',');
                 }
-                this.writer.write(JSONObject.quote(string));
+                JSONObject.quote(string, this.writer);
                 this.writer.write(':');
                 this.comma = false;
                 this.mode = 'o';
@@ -322,6 +338,9 @@ public class JSONWriter {
      * @throws JSONException If the value is out of sequence.
      */
     public JSONWriter value(Object object) throws JSONException {
+        if (object instanceof String) {
+            return this.append((String) object, true);
+        }
         return this.append(JSONObject.valueToString(object));
     }
 }
@@ -0,0 +1,196 @@
+package org.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * Writer that encodes characters in UTF-8 into an OutputStream. Unlike
+ * OutputStreamWriter, it is not synchronized and encodes into a byte buffer
+ * that is reused by the next UTF8Writer of the same thread. Used by the
+ * <code>write(OutputStream, int)</code> methods of JSONObject and JSONArray.
+ * @author JSON.org
+ * @version 2026-10-17
+ */
+class UTF8Writer extends Writer {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int count;
+
+    /**
+     * High surrogate waiting for the low surrogate of the next write call.
+     */
+    private char highSurrogate;
+
+
+    /**
+     * Construct a UTF8Writer.
+     * @param out The stream. It is not closed by this writer.
+     */
+    UTF8Writer(OutputStream out) {
+        this.out = out;
+        this.buffer = buffers.get();
+        if (this.buffer != null) {
+            buffers.set(null);
+        } else {
+            this.buffer = new byte[BUFFER_SIZE];
+        }
+    }
+
+
+    @Override
+    public void write(int c) throws IOException {
+        if (this.count + 4 > this.buffer.length) {
+            this.flushBuffer();
+        }
+        this.encode((char) c);
+    }
+
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            if (this.count + 4 > this.buffer.length) {
+                this.flushBuffer();
+            }
+            char c = cbuf[off++];
+            if (c < 0x80 && this.highSurrogate == 0) {
+                this.buffer[this.count++] = (byte) c;
+            } else {
+                this.encode(c);
+            }
+        }
+    }
+
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            if (this.count + 4 > this.buffer.length) {
+                this.flushBuffer();
+            }
+            char c = str.charAt(off++);
+            if (c < 0x80 && this.highSurrogate == 0) {
+                this.buffer[this.count++] = (byte) c;
+            } else {
+                this.encode(c);
+            }
+        }
+    }
+
+
+    private void encode(char c) {
+        byte[] buf = this.buffer;
+        if (this.highSurrogate != 0) {
+            char high = this.highSurrogate;
+            this.highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                buf[this.count++] = (byte) (0xF0 | (cp >> 18));
+                buf[this.count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[this.count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[this.count++] = (byte) (0x80 | (cp & 0x3F));
+                return;
+            }
+            // Unpaired high surrogate.
+            buf[this.count++] = '?';
+        }
+        if (c < 0x80) {
+            buf[this.count++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[this.count++] = (byte) (0xC0 | (c >> 6));
+            buf[this.count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            this.highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buf[this.count++] = '?';
+        } else {
+            buf[this.count++] = (byte) (0xE0 | (c >> 12));
+            buf[this.count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[this.count++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+
+    private void flushBuffer() throws IOException {
+        if (this.count > 0) {
+            this.out.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
+
+
+    /**
+     * Write the buffered bytes into the stream and flush it.
+     * An unpaired high surrogate at the end is kept until the next write.
+     */
+    @Override
+    public void flush() throws IOException {
+        this.flushBuffer();
+        this.out.flush();
+    }
+
+
+    /**
+     * Flush this writer and give the buffer back for the next UTF8Writer of
+     * this thread. The stream is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.buffer == null) {
+            return;
+        }
+        if (this.highSurrogate != 0) {
+            this.highSurrogate = 0;
+            this.write('?');
+        }
+        try {
+            this.flush();
+        } finally {
+            this.release();
+        }
+    }
+
+
+    /**
+     * Give the buffer back without writing it, e.g. after an exception.
+     */
+    void release() {
+        if (this.buffer != null) {
+            buffers.set(this.buffer);
+            this.buffer = null;
+            this.count = 0;
+        }
+    }
+}
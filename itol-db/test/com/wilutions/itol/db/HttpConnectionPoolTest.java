@@ -0,0 +1,136 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of leasing and releasing connections of HttpConnectionPool.
+ */
+public class HttpConnectionPoolTest {
+
+	private HttpTestServer server;
+	private HttpConnectionPool pool;
+	private int port;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new HttpTestServer();
+		pool = new HttpConnectionPool();
+		port = new URL(server.getUrl("/")).getPort();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		pool.close();
+		server.close();
+	}
+
+	private HttpConnection lease(int waitMillis) throws IOException {
+		return pool.lease("http", "127.0.0.1", port, waitMillis, 5000, null);
+	}
+
+	@Test
+	public void testReuseReleased() throws IOException {
+		HttpConnection conn = lease(1000);
+		assertEquals(HttpConnectionPool.RouteState.COLD, pool.getState("http", "127.0.0.1", port));
+		pool.release(conn, true);
+		assertEquals(HttpConnectionPool.RouteState.WARM, pool.getState("http", "127.0.0.1", port));
+		assertSame(conn, lease(1000));
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void testNotReusable() throws IOException {
+		HttpConnection conn = lease(1000);
+		pool.release(conn, false);
+		assertTrue(conn != lease(1000));
+	}
+
+	@Test
+	public void testWaitTimeout() throws IOException {
+		pool.setMaxConnectionsPerRoute(1);
+		lease(1000);
+		long start = System.currentTimeMillis();
+		try {
+			lease(200);
+			fail("Expected timeout");
+		}
+		catch (InterruptedIOException e) {
+			fail("Not cancelled");
+		}
+		catch (IOException expected) {
+		}
+		assertTrue(System.currentTimeMillis() - start >= 200);
+		assertEquals(1, pool.getStats().get(0).getWaits());
+	}
+
+	@Test
+	public void testWaitForRelease() throws Exception {
+		pool.setMaxConnectionsPerRoute(1);
+		HttpConnection conn = lease(1000);
+		CompletableFuture<HttpConnection> waiting = CompletableFuture.supplyAsync(() -> {
+			try {
+				return pool.lease("http", "127.0.0.1", port, 0, 5000, () -> false);
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		Thread.sleep(200);
+		assertTrue(!waiting.isDone());
+		pool.release(conn, true);
+		assertSame(conn, waiting.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCancelWhileWaiting() throws Exception {
+		pool.setMaxConnectionsPerRoute(1);
+		lease(1000);
+		boolean[] cancelled = new boolean[1];
+		CompletableFuture<Exception> waiting = CompletableFuture.supplyAsync(() -> {
+			try {
+				pool.lease("http", "127.0.0.1", port, 0, 5000, () -> cancelled[0]);
+				return null;
+			}
+			catch (IOException e) {
+				return e;
+			}
+		});
+		Thread.sleep(200);
+		cancelled[0] = true;
+		assertTrue(waiting.get(5, TimeUnit.SECONDS) instanceof InterruptedIOException);
+	}
+
+	@Test
+	public void testClosed() throws IOException {
+		pool.close();
+		try {
+			lease(1000);
+			fail("Expected exception");
+		}
+		catch (IOException expected) {
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of HttpSingleFlight with a sender that waits until it is released or cancelled.
+ */
+public class HttpSingleFlightTest {
+
+	private final static String URL = "http://127.0.0.1/issues/1.json";
+
+	private final HttpSingleFlight singleFlight = new HttpSingleFlight();
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	/**
+	 * Sender that counts its calls. It returns "200 call #" when released and an
+	 * error response when cancelled, after afterCancel has been released.
+	 */
+	private static class Sender implements BiFunction<HttpRequest, ProgressCallback, HttpResponse> {
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch afterCancel;
+		volatile RuntimeException error;
+
+		Sender() {
+			this(0);
+		}
+
+		Sender(int afterCancelCount) {
+			afterCancel = new CountDownLatch(afterCancelCount);
+		}
+
+		@Override
+		public HttpResponse apply(HttpRequest request, ProgressCallback cb) {
+			int call = calls.incrementAndGet();
+			HttpResponse ret = new HttpResponse();
+			try {
+				while (!release.await(10, TimeUnit.MILLISECONDS)) {
+					if (cb.isCancelled()) {
+						afterCancel.await();
+						ret.setErrorMessage("cancelled");
+						return ret;
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			if (error != null) {
+				throw error;
+			}
+			ret.setStatus(200);
+			ret.setContent("call " + call);
+			return ret;
+		}
+	}
+
+	private static class CancellableProgress extends ProgressCallbackImpl {
+		volatile boolean cancelled;
+
+		CancellableProgress() {
+			super("test");
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private CompletableFuture<HttpResponse> send(ProgressCallback cb, Sender sender) {
+		return CompletableFuture.supplyAsync(() -> singleFlight.send(new HttpRequest(URL, "GET", null, null), cb, sender),
+				executor);
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("Timeout");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private List<CompletableFuture<HttpResponse>> sendWaiters(int n, Sender sender) throws InterruptedException {
+		long coalesced = singleFlight.getCoalescedCount();
+		List<CompletableFuture<HttpResponse>> ret = new ArrayList<CompletableFuture<HttpResponse>>();
+		for (int i = 0; i < n; i++) {
+			ret.add(send(new ProgressCallbackImpl("waiter"), sender));
+		}
+		waitFor(() -> singleFlight.getCoalescedCount() == coalesced + n);
+		return ret;
+	}
+
+	private static HttpResponse get(CompletableFuture<HttpResponse> future) throws Exception {
+		return future.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testCoalesce() throws Exception {
+		Sender sender = new Sender();
+		CompletableFuture<HttpResponse> first = send(null, sender);
+		waitFor(() -> sender.calls.get() == 1);
+		List<CompletableFuture<HttpResponse>> waiters = sendWaiters(3, sender);
+		sender.release.countDown();
+
+		HttpResponse response = get(first);
+		assertEquals("call 1", response.getContent());
+		for (CompletableFuture<HttpResponse> waiter : waiters) {
+			HttpResponse copy = get(waiter);
+			assertNotSame(response, copy);
+			assertEquals(200, copy.getStatus());
+			assertEquals("call 1", copy.getContent());
+		}
+		assertEquals(1, sender.calls.get());
+		assertEquals(4, singleFlight.getRequestCount());
+		assertEquals(0, singleFlight.getInFlightCount());
+	}
+
+	@Test
+	public void testNotCoalescable() {
+		assertTrue(singleFlight.isCoalescable(new HttpRequest(URL, "GET", null, null)));
+		assertTrue(!singleFlight.isCoalescable(new HttpRequest(URL, "POST", null, null)));
+		assertTrue(!singleFlight.isCoalescable(new HttpRequest(URL, "GET", null, "content")));
+	}
+
+	@Test
+	public void testWaiterCancels() throws Exception {
+		Sender sender = new Sender();
+		CompletableFuture<HttpResponse> first = send(null, sender);
+		waitFor(() -> sender.calls.get() == 1);
+		CancellableProgress cb = new CancellableProgress();
+		CompletableFuture<HttpResponse> cancelled = send(cb, sender);
+		waitFor(() -> singleFlight.getCoalescedCount() == 1);
+		List<CompletableFuture<HttpResponse>> waiters = sendWaiters(1, sender);
+		cb.cancelled = true;
+
+		assertEquals(0, get(cancelled).getStatus());
+		sender.release.countDown();
+		assertEquals("call 1", get(first).getContent());
+		assertEquals("call 1", get(waiters.get(0)).getContent());
+		assertEquals(1, sender.calls.get());
+	}
+
+	@Test
+	public void testFirstCallerCancels() throws Exception {
+		Sender sender = new Sender();
+		CancellableProgress cb = new CancellableProgress();
+		CompletableFuture<HttpResponse> first = send(cb, sender);
+		waitFor(() -> sender.calls.get() == 1);
+		List<CompletableFuture<HttpResponse>> waiters = sendWaiters(2, sender);
+		cb.cancelled = true;
+
+		assertEquals(0, get(first).getStatus());
+		// One of the waiting callers sends the request again.
+		waitFor(() -> sender.calls.get() == 2);
+		sender.release.countDown();
+		for (CompletableFuture<HttpResponse> waiter : waiters) {
+			assertEquals("call 2", get(waiter).getContent());
+		}
+		assertEquals(2, sender.calls.get());
+		assertEquals(0, singleFlight.getInFlightCount());
+	}
+
+	@Test
+	public void testNoJoinAfterCancel() throws Exception {
+		// The first request takes a while to stop after it has been cancelled.
+		Sender sender = new Sender(1);
+		CancellableProgress cb = new CancellableProgress();
+		CompletableFuture<HttpResponse> first = send(cb, sender);
+		waitFor(() -> sender.calls.get() == 1);
+		cb.cancelled = true;
+		waitFor(() -> singleFlight.getInFlightCount() == 0);
+
+		CompletableFuture<HttpResponse> next = send(null, sender);
+		waitFor(() -> sender.calls.get() == 2);
+		sender.release.countDown();
+		assertEquals("call 2", get(next).getContent());
+		sender.afterCancel.countDown();
+		assertEquals(0, get(first).getStatus());
+	}
+
+	@Test
+	public void testException() throws Exception {
+		Sender sender = new Sender();
+		sender.error = new IllegalStateException("failed");
+		CompletableFuture<HttpResponse> first = send(null, sender);
+		waitFor(() -> sender.calls.get() == 1);
+		List<CompletableFuture<HttpResponse>> waiters = sendWaiters(1, sender);
+		sender.release.countDown();
+		for (CompletableFuture<HttpResponse> future : new CompletableFuture[] { first, waiters.get(0) }) {
+			try {
+				get(future);
+				fail("Expected exception");
+			}
+			catch (ExecutionException e) {
+				assertSame(sender.error, e.getCause());
+			}
+		}
+		assertEquals(0, singleFlight.getInFlightCount());
+	}
+}
@@ -0,0 +1,215 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP server for tests that answers requests with scripted raw responses.
+ * Each accepted connection reads requests and writes the next response of the
+ * script. The requests are recorded including the number of their connection.
+ */
+class HttpTestServer implements AutoCloseable {
+
+	/**
+	 * Response that makes the server close the connection without answering.
+	 */
+	final static String CLOSE = "CLOSE";
+
+	/**
+	 * Received request.
+	 */
+	static class Request {
+		final int connection;
+		final String method;
+		final String path;
+		final Map<String, String> headers = new LinkedHashMap<String, String>();
+		byte[] body = new byte[0];
+
+		Request(int connection, String method, String path) {
+			this.connection = connection;
+			this.method = method;
+			this.path = path;
+		}
+
+		String getHeader(String name) {
+			return headers.get(name.toLowerCase());
+		}
+
+		String getBody() {
+			return new String(body, StandardCharsets.UTF_8);
+		}
+	}
+
+	private final ServerSocket serverSocket;
+	private final LinkedBlockingQueue<String> responses = new LinkedBlockingQueue<String>();
+	private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+	private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+	private int connections;
+
+	HttpTestServer() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread thread = new Thread(this::accept, "HttpTestServer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Add a response to the script.
+	 * @param response Raw response with head and body, or CLOSE.
+	 */
+	void respond(String response) {
+		responses.add(response);
+	}
+
+	String getUrl(String path) {
+		return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+	}
+
+	List<Request> getRequests() {
+		synchronized (requests) {
+			return new ArrayList<Request>(requests);
+		}
+	}
+
+	synchronized int getConnectionCount() {
+		return connections;
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		synchronized (sockets) {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+		}
+	}
+
+	private void accept() {
+		try {
+			while (true) {
+				Socket socket = serverSocket.accept();
+				sockets.add(socket);
+				int connection;
+				synchronized (this) {
+					connection = ++connections;
+				}
+				Thread thread = new Thread(() -> serve(socket, connection), "HttpTestServer-" + connection);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		catch (IOException e) {
+			// closed
+		}
+	}
+
+	private void serve(Socket socket, int connection) {
+		try {
+			InputStream is = socket.getInputStream();
+			OutputStream os = socket.getOutputStream();
+			while (true) {
+				Request request = readRequest(is, connection);
+				if (request == null) {
+					break;
+				}
+				requests.add(request);
+				String response = responses.poll(10, TimeUnit.SECONDS);
+				if (response == null || response == CLOSE) {
+					break;
+				}
+				os.write(response.getBytes(StandardCharsets.ISO_8859_1));
+				os.flush();
+				if (response.toLowerCase().contains("\r\nconnection: close\r\n")) {
+					break;
+				}
+			}
+		}
+		catch (IOException | InterruptedException e) {
+			// connection closed by client
+		}
+		finally {
+			try {
+				socket.close();
+			}
+			catch (IOException ignored) {
+			}
+		}
+	}
+
+	private static Request readRequest(InputStream is, int connection) throws IOException {
+		String requestLine = readLine(is);
+		if (requestLine == null || requestLine.isEmpty()) {
+			return null;
+		}
+		String[] parts = requestLine.split(" ");
+		Request request = new Request(connection, parts[0], parts[1]);
+		String line;
+		while ((line = readLine(is)) != null && !line.isEmpty()) {
+			int p = line.indexOf(':');
+			request.headers.put(line.substring(0, p).trim().toLowerCase(), line.substring(p + 1).trim());
+		}
+		String contentLength = request.getHeader("Content-Length");
+		if (contentLength != null) {
+			request.body = readBytes(is, Integer.parseInt(contentLength));
+		}
+		else if ("chunked".equalsIgnoreCase(request.getHeader("Transfer-Encoding"))) {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			int size;
+			while ((size = Integer.parseInt(readLine(is).trim(), 16)) != 0) {
+				body.write(readBytes(is, size));
+				readLine(is);
+			}
+			readLine(is);
+			request.body = body.toByteArray();
+		}
+		return request;
+	}
+
+	private static byte[] readBytes(InputStream is, int length) throws IOException {
+		byte[] ret = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int n = is.read(ret, offset, length - offset);
+			if (n < 0) {
+				throw new IOException("Unexpected end of request body.");
+			}
+			offset += n;
+		}
+		return ret;
+	}
+
+	private static String readLine(InputStream is) throws IOException {
+		StringBuilder sbuf = new StringBuilder();
+		int c;
+		while ((c = is.read()) >= 0 && c != '\n') {
+			if (c != '\r') {
+				sbuf.append((char) c);
+			}
+		}
+		return c < 0 && sbuf.length() == 0 ? null : sbuf.toString();
+	}
+}
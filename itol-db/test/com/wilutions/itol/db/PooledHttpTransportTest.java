@@ -0,0 +1,256 @@
+/*
+    Copyright (c) 2015 Wolfgang Imig
+    
+    This file is part of the library "JOA Issue Tracker for Microsoft Outlook".
+
+    This file must be used according to the terms of   
+      
+      MIT License, http://opensource.org/licenses/MIT
+
+ */
+package com.wilutions.itol.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the HTTP/1.1 exchange and the connection reuse of PooledHttpTransport.
+ */
+public class PooledHttpTransportTest {
+
+	private HttpTestServer server;
+	private HttpConnectionPool pool;
+	private PooledHttpTransport transport;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new HttpTestServer();
+		pool = new HttpConnectionPool();
+		transport = new PooledHttpTransport(pool);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		transport.close();
+		server.close();
+	}
+
+	private static String response(String head, String body) {
+		return head + "\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+	}
+
+	private HttpRequest makeRequest(String method, String path, Object content) {
+		HttpRequest request = new HttpRequest(server.getUrl(path), method, null, content);
+		request.setReadTimeoutMillis(5000);
+		return request;
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		InputStream is = exchange.getResponseBody();
+		byte[] buf = new byte[7];
+		int n;
+		while ((n = is.read(buf)) >= 0) {
+			bos.write(buf, 0, n);
+		}
+		is.close();
+		return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Send a request without body.
+	 * @return Response body.
+	 */
+	private String get(String method, String path, int expectedStatus) throws IOException {
+		HttpExchange exchange = transport.open(makeRequest(method, path, null));
+		try {
+			assertEquals(expectedStatus, exchange.getStatus());
+			return readBody(exchange);
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	private String post(String body, boolean chunked) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		HttpRequest request = makeRequest("POST", "/post", body);
+		request.setContentLength(chunked ? -1 : bytes.length);
+		HttpExchange exchange = transport.open(request);
+		try {
+			OutputStream os = exchange.getRequestBody();
+			os.write(bytes, 0, 3);
+			os.write(bytes, 3, bytes.length - 3);
+			os.close();
+			assertEquals(200, exchange.getStatus());
+			return readBody(exchange);
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	@Test
+	public void testContentLength() throws IOException {
+		server.respond(response("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nX-Multi: a\r\nx-multi: b", "hello"));
+		HttpExchange exchange = transport.open(makeRequest("GET", "/a?x=1", null));
+		try {
+			assertEquals(200, exchange.getStatus());
+			assertEquals("text/plain", exchange.getHeaderField("content-type"));
+			assertEquals(2, exchange.getHeaderFields().get("X-Multi").size());
+			assertEquals("hello", readBody(exchange));
+		}
+		finally {
+			exchange.close();
+		}
+		HttpTestServer.Request request = server.getRequests().get(0);
+		assertEquals("GET", request.method);
+		assertEquals("/a?x=1", request.path);
+		assertTrue(request.getHeader("Host").startsWith("127.0.0.1:"));
+	}
+
+	@Test
+	public void testChunked() throws IOException {
+		server.respond("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+				+ "5;name=value\r\nhello\r\n6\r\n world\r\n0\r\nX-Trailer: t\r\n\r\n");
+		server.respond(response("HTTP/1.1 200 OK", "next"));
+		assertEquals("hello world", get("GET", "/chunked", 200));
+		// The trailer has been consumed, the connection can be used again.
+		assertEquals("next", get("GET", "/next", 200));
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void testInterimResponse() throws IOException {
+		server.respond("HTTP/1.1 100 Continue\r\n\r\n" + response("HTTP/1.1 201 Created", "ok"));
+		assertEquals("ok", get("GET", "/interim", 201));
+	}
+
+	@Test
+	public void testNoBody() throws IOException {
+		server.respond("HTTP/1.1 204 No Content\r\n\r\n");
+		server.respond("HTTP/1.1 304 Not Modified\r\nETag: \"1\"\r\n\r\n");
+		server.respond("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n");
+		server.respond(response("HTTP/1.1 200 OK", "last"));
+		assertEquals("", get("GET", "/204", 204));
+		assertEquals("", get("GET", "/304", 304));
+		assertEquals("", get("HEAD", "/head", 200));
+		assertEquals("last", get("GET", "/last", 200));
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void testBodyUntilClose() throws IOException {
+		server.respond("HTTP/1.0 200 OK\r\nConnection: close\r\n\r\nuntil the end");
+		server.respond(response("HTTP/1.1 200 OK", "new"));
+		assertEquals("until the end", get("GET", "/close", 200));
+		assertEquals("new", get("GET", "/new", 200));
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	@Test
+	public void testKeepAlive() throws IOException {
+		for (int i = 0; i < 3; i++) {
+			server.respond(response("HTTP/1.1 200 OK", "r" + i));
+		}
+		for (int i = 0; i < 3; i++) {
+			assertEquals("r" + i, get("GET", "/r" + i, 200));
+		}
+		assertEquals(1, server.getConnectionCount());
+		HttpConnectionPool.RouteStats stats = pool.getStats().get(0);
+		assertEquals(1, stats.getCreated());
+		assertEquals(2, stats.getReused());
+		assertEquals(1, stats.getIdle());
+		assertEquals(0, stats.getLeased());
+	}
+
+	@Test
+	public void testConnectionClose() throws IOException {
+		server.respond(response("HTTP/1.1 200 OK\r\nConnection: close", "a"));
+		server.respond(response("HTTP/1.1 200 OK", "b"));
+		assertEquals("a", get("GET", "/a", 200));
+		assertEquals("b", get("GET", "/b", 200));
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	@Test
+	public void testRequestBody() throws IOException {
+		server.respond(response("HTTP/1.1 200 OK", "fixed"));
+		server.respond(response("HTTP/1.1 200 OK", "chunked"));
+		assertEquals("fixed", post("{\"a\":\"ä\"}", false));
+		assertEquals("chunked", post("{\"b\":2}", true));
+		List<HttpTestServer.Request> requests = server.getRequests();
+		assertEquals("{\"a\":\"ä\"}", requests.get(0).getBody());
+		assertNull(requests.get(0).getHeader("Transfer-Encoding"));
+		assertEquals("{\"b\":2}", requests.get(1).getBody());
+		assertEquals("chunked", requests.get(1).getHeader("Transfer-Encoding"));
+	}
+
+	@Test
+	public void testPostWithoutBody() throws IOException {
+		server.respond(response("HTTP/1.1 200 OK", "ok"));
+		assertEquals("ok", get("POST", "/empty", 200));
+		assertEquals("0", server.getRequests().get(0).getHeader("Content-Length"));
+	}
+
+	@Test
+	public void testRedirectPostAsGet() throws IOException {
+		server.respond("HTTP/1.1 302 Found\r\nLocation: /target\r\nContent-Length: 0\r\n\r\n");
+		server.respond(response("HTTP/1.1 200 OK", "target"));
+		assertEquals("target", post("{\"c\":3}", false));
+		List<HttpTestServer.Request> requests = server.getRequests();
+		assertEquals(2, requests.size());
+		assertEquals("GET", requests.get(1).method);
+		assertEquals("/target", requests.get(1).path);
+		assertNull(requests.get(1).getHeader("Content-Length"));
+	}
+
+	@Test
+	public void testRetryIdempotentOnReusedConnection() throws IOException {
+		server.respond(response("HTTP/1.1 200 OK", "first"));
+		// The server closes the kept connection after it has read the next request.
+		server.respond(HttpTestServer.CLOSE);
+		server.respond(response("HTTP/1.1 200 OK", "again"));
+		assertEquals("first", get("GET", "/first", 200));
+		assertEquals("again", get("GET", "/second", 200));
+		List<HttpTestServer.Request> requests = server.getRequests();
+		assertEquals(3, requests.size());
+		assertEquals("/second", requests.get(2).path);
+		assertEquals(2, requests.get(2).connection);
+	}
+
+	@Test
+	public void testNoRetryForPostOnReusedConnection() throws IOException {
+		server.respond(response("HTTP/1.1 200 OK", "first"));
+		server.respond(HttpTestServer.CLOSE);
+		assertEquals("first", get("GET", "/first", 200));
+		HttpExchange exchange = transport.open(makeRequest("POST", "/post", null));
+		try {
+			exchange.getStatus();
+			fail("POST must not be sent again");
+		}
+		catch (IOException expected) {
+		}
+		finally {
+			exchange.close();
+		}
+		List<HttpTestServer.Request> requests = server.getRequests();
+		assertEquals(2, requests.size());
+		assertEquals("POST", requests.get(1).method);
+		assertFalse(pool.getStats().get(0).getLeased() > 0);
+	}
+}
@@ -0,0 +1,174 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests of the packed and hashed storage of JSONMap.
+ */
+public class JSONMapTest {
+
+    private static List<String> keys(Map<String, Object> map) {
+        return new ArrayList<String>(map.keySet());
+    }
+
+    private static JSONMap makeMap(int n) {
+        JSONMap map = new JSONMap();
+        for (int i = 0; i < n; i++) {
+            map.put("k" + i, i);
+        }
+        return map;
+    }
+
+    @Test
+    public void testEmpty() {
+        JSONMap map = new JSONMap();
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertNull(map.get("a"));
+        assertFalse(map.containsKey("a"));
+        assertNull(map.remove("a"));
+        assertFalse(map.entrySet().iterator().hasNext());
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        JSONMap map = new JSONMap();
+        map.put("b", 1);
+        map.put("a", 2);
+        map.put("c", 3);
+        assertEquals(Arrays.asList("b", "a", "c"), keys(map));
+        assertEquals(2, map.get("a"));
+    }
+
+    @Test
+    public void testInsertionOrderAfterGrowth() {
+        for (int n = JSONMap.MAX_PACKED - 1; n <= JSONMap.MAX_PACKED + 2; n++) {
+            JSONMap map = makeMap(n);
+            assertEquals(n, map.size());
+            List<String> expected = new ArrayList<String>();
+            for (int i = 0; i < n; i++) {
+                expected.add("k" + i);
+                assertEquals(i, map.get("k" + i));
+            }
+            assertEquals(expected, keys(map));
+        }
+    }
+
+    @Test
+    public void testExpectedSize() {
+        JSONMap map = new JSONMap(JSONMap.MAX_PACKED * 2);
+        map.put("x", 1);
+        map.put("y", 2);
+        assertEquals(Arrays.asList("x", "y"), keys(map));
+
+        map = new JSONMap(0);
+        assertNull(map.put("x", 1));
+        assertEquals(1, map.get("x"));
+    }
+
+    @Test
+    public void testReplaceKeepsPosition() {
+        for (int n : new int[] { 3, JSONMap.MAX_PACKED + 3 }) {
+            JSONMap map = makeMap(n);
+            assertEquals(1, map.put("k1", "one"));
+            assertEquals(n, map.size());
+            assertEquals("one", map.get("k1"));
+            assertEquals("k1", keys(map).get(1));
+        }
+    }
+
+    @Test
+    public void testKeyEquality() {
+        JSONMap map = new JSONMap();
+        map.put(new String("key"), 1);
+        assertTrue(map.containsKey(new String("key")));
+        assertEquals(1, map.get(new String("key")));
+        assertFalse(map.containsKey(null));
+        assertFalse(map.containsKey(Integer.valueOf(1)));
+    }
+
+    @Test
+    public void testRemove() {
+        JSONMap map = makeMap(4);
+        assertEquals(1, map.remove("k1"));
+        assertNull(map.remove("k1"));
+        assertEquals(Arrays.asList("k0", "k2", "k3"), keys(map));
+        map.put("k1", 1);
+        assertEquals(Arrays.asList("k0", "k2", "k3", "k1"), keys(map));
+
+        map = makeMap(JSONMap.MAX_PACKED + 1);
+        assertEquals(0, map.remove("k0"));
+        assertEquals(JSONMap.MAX_PACKED, map.size());
+        assertEquals("k1", keys(map).get(0));
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        JSONMap map = makeMap(5);
+        Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Object> e = it.next();
+            if (((Integer) e.getValue()) % 2 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(Arrays.asList("k1", "k3"), keys(map));
+        assertEquals(2, map.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIteratorRemoveTwice() {
+        Iterator<Map.Entry<String, Object>> it = makeMap(2).entrySet().iterator();
+        it.next();
+        it.remove();
+        it.remove();
+    }
+
+    @Test
+    public void testEntrySetValue() {
+        JSONMap map = makeMap(2);
+        Map.Entry<String, Object> e = map.entrySet().iterator().next();
+        assertEquals(0, e.setValue("zero"));
+        assertEquals("zero", map.get("k0"));
+        assertEquals("zero", e.getValue());
+    }
+
+    @Test
+    public void testEqualsHashCode() {
+        for (int n : new int[] { 0, 3, JSONMap.MAX_PACKED + 3 }) {
+            JSONMap map = makeMap(n);
+            Map<String, Object> expected = new HashMap<String, Object>();
+            for (int i = n - 1; i >= 0; i--) {
+                expected.put("k" + i, i);
+            }
+            assertEquals(expected, map);
+            assertEquals(map, expected);
+            assertEquals(expected.hashCode(), map.hashCode());
+            assertEquals(expected.entrySet(), map.entrySet());
+        }
+    }
+
+    @Test
+    public void testClear() {
+        for (int n : new int[] { 3, JSONMap.MAX_PACKED + 3 }) {
+            JSONMap map = makeMap(n);
+            map.clear();
+            assertEquals(0, map.size());
+            assertNull(map.get("k0"));
+            map.put("a", 1);
+            assertEquals(Arrays.asList("a"), keys(map));
+        }
+    }
+}
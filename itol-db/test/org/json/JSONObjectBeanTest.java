@@ -0,0 +1,91 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of the conversion of beans into JSONObjects.
+ */
+public class JSONObjectBeanTest {
+
+    public static class Bean {
+        public String name = "bug";
+        public double ratio = Double.NaN;
+        public int count = 3;
+
+        public String getName() {
+            return this.name;
+        }
+
+        public boolean isClosed() {
+            return true;
+        }
+
+        public String getNothing() {
+            return null;
+        }
+
+        public String getFailure() {
+            throw new IllegalStateException("failure");
+        }
+
+        public String getError() {
+            throw new AssertionError("error");
+        }
+
+        public String getWithParameter(int i) {
+            return "p" + i;
+        }
+    }
+
+    @Test
+    public void testGetters() {
+        JSONObject obj = new JSONObject(new Bean());
+        assertEquals("bug", obj.getString("name"));
+        assertTrue(obj.getBoolean("closed"));
+        assertFalse(obj.has("nothing"));
+        assertFalse(obj.has("withParameter"));
+        assertFalse(obj.has("class"));
+    }
+
+    @Test
+    public void testFailingGettersAreSkipped() {
+        JSONObject obj = new JSONObject(new Bean());
+        assertFalse(obj.has("failure"));
+        assertFalse(obj.has("error"));
+        assertEquals("bug", obj.getString("name"));
+    }
+
+    @Test
+    public void testSameClassTwice() {
+        Bean bean = new Bean();
+        JSONObject first = new JSONObject(bean);
+        bean.name = "feature";
+        JSONObject second = new JSONObject(bean);
+        assertEquals("bug", first.getString("name"));
+        assertEquals("feature", second.getString("name"));
+        assertEquals(first.keySet(), second.keySet());
+    }
+
+    @Test
+    public void testNamesConstructor() {
+        JSONObject obj = new JSONObject(new Bean(), new String[] { "count", "missing", "name" });
+        assertEquals("{\"count\":3,\"name\":\"bug\"}", obj.toString());
+    }
+
+    @Test
+    public void testNamesConstructorSkipsNonFiniteNumbers() {
+        Bean bean = new Bean();
+        JSONObject obj = new JSONObject(bean, new String[] { "ratio", "name" });
+        assertFalse(obj.has("ratio"));
+        assertEquals("bug", obj.getString("name"));
+
+        bean.ratio = Double.POSITIVE_INFINITY;
+        assertFalse(new JSONObject(bean, new String[] { "ratio" }).has("ratio"));
+        bean.ratio = 0.5;
+        assertEquals(0.5, new JSONObject(bean, new String[] { "ratio" }).getDouble("ratio"), 0);
+    }
+}
@@ -0,0 +1,111 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests of the JSONObject properties stored in a JSONMap.
+ */
+public class JSONObjectTest {
+
+    private static List<String> keys(JSONObject obj) {
+        return new ArrayList<String>(obj.keySet());
+    }
+
+    @Test
+    public void testPutKeepsInsertionOrder() {
+        JSONObject obj = new JSONObject().put("b", 1).put("a", "x").put("c", true);
+        assertEquals(Arrays.asList("b", "a", "c"), keys(obj));
+        assertEquals("{\"b\":1,\"a\":\"x\",\"c\":true}", obj.toString());
+    }
+
+    @Test
+    public void testParseKeepsOrder() {
+        String source = "{\"z\":1,\"y\":{\"b\":2,\"a\":3},\"x\":[1,2]}";
+        JSONObject obj = new JSONObject(source);
+        assertEquals(Arrays.asList("z", "y", "x"), keys(obj));
+        assertEquals(source, obj.toString());
+    }
+
+    @Test
+    public void testManyProperties() {
+        JSONObject obj = new JSONObject();
+        StringBuilder expected = new StringBuilder("{");
+        for (int i = 0; i < 3 * JSONMap.MAX_PACKED; i++) {
+            obj.put("p" + i, i);
+            if (i != 0) {
+                expected.append(',');
+            }
+            expected.append("\"p").append(i).append("\":").append(i);
+        }
+        expected.append('}');
+        assertEquals(3 * JSONMap.MAX_PACKED, obj.length());
+        assertEquals(expected.toString(), obj.toString());
+        assertEquals(JSONMap.MAX_PACKED, obj.getInt("p" + JSONMap.MAX_PACKED));
+    }
+
+    @Test
+    public void testPutNullRemoves() {
+        JSONObject obj = new JSONObject().put("a", 1).put("b", 2);
+        obj.put("a", (Object) null);
+        assertFalse(obj.has("a"));
+        assertEquals(Arrays.asList("b"), keys(obj));
+    }
+
+    @Test
+    public void testReplaceKeepsPosition() {
+        JSONObject obj = new JSONObject().put("a", 1).put("b", 2);
+        obj.put("a", 3);
+        assertEquals("{\"a\":3,\"b\":2}", obj.toString());
+    }
+
+    @Test
+    public void testMapConstructor() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("b", 1);
+        map.put("n", null);
+        map.put("a", 2);
+        JSONObject obj = new JSONObject(map);
+        assertEquals(Arrays.asList("b", "a"), keys(obj));
+    }
+
+    @Test
+    public void testSimilarIgnoresOrder() {
+        JSONObject a = new JSONObject("{\"x\":1,\"y\":{\"p\":\"q\"}}");
+        JSONObject b = new JSONObject("{\"y\":{\"p\":\"q\"},\"x\":1}");
+        assertTrue(a.similar(b));
+        b.put("x", 2);
+        assertFalse(a.similar(b));
+    }
+
+    @Test
+    public void testNamesConstructor() {
+        JSONObject src = new JSONObject("{\"a\":1,\"b\":2,\"c\":3}");
+        JSONObject obj = new JSONObject(src, new String[] { "c", "a", "missing" });
+        assertEquals(Arrays.asList("c", "a"), keys(obj));
+    }
+
+    @Test
+    public void testWriteMatchesToString() {
+        JSONObject obj = new JSONObject("{\"s\":\"ä\\\"\",\"n\":1.5,\"a\":[true,null]}");
+        StringWriter writer = new StringWriter();
+        obj.write(writer);
+        assertEquals(obj.toString(), writer.toString());
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        obj.write(os, 0);
+        assertEquals(obj.toString(), new String(os.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
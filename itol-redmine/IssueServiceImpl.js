@@ -47,6 +47,30 @@ var MAX_PROJECTS = 1000;
  */
 var MAX_USERS = 1000;
 
+/**
+ * Maximum number of requests sent at the same time when reading pages or
+ * several objects from Redmine.
+ */
+var MAX_PARALLEL_REQUESTS = 4;
+
+/**
+ * Maximum duration of IssueService functions in seconds. HTTP requests are
+ * aborted when the time has elapsed. 0 means no limit, e.g. for uploads of
+ * large attachments. Stalled connections are detected by the read timeout of
+ * HttpClient in any case.
+ */
+var READ_TIMEOUT_SECONDS = 60;
+var UPDATE_TIMEOUT_SECONDS = 0;
+var TRANSFER_TIMEOUT_SECONDS = 0;
+
+/**
+ * initialize() reads the current user, the configuration project and several
+ * lists of Redmine objects. Its maximum duration is this number of HttpClient
+ * read timeouts (Property.HTTP_READ_TIMEOUT_SECONDS), see
+ * getInitializeTimeoutSeconds.
+ */
+var INITIALIZE_READ_TIMEOUTS = 5;
+
 /**
  * Name and description of the ITOL configuration project.
  */
@@ -66,6 +90,13 @@ var PropertyClasses = Java.type("com.wilutions.itol.db.PropertyClasses");
 var IdName = Java.type("com.wilutions.itol.db.IdName");
 var JHttpClient = Java.type("com.wilutions.itol.db.HttpClient");
 var HttpResponse = Java.type("com.wilutions.itol.db.HttpResponse");
+var JHttpRequest = Java.type("com.wilutions.itol.db.HttpRequest");
+var JHttpSession = Java.type("com.wilutions.itol.db.HttpSession");
+var JHttpOperation = Java.type("com.wilutions.itol.db.HttpOperation");
+var JHttpBodyWriter = Java.type("com.wilutions.itol.db.HttpBodyWriter");
+var JSONWriter = Java.type("org.json.JSONWriter");
+var OutputStreamWriter = Java.type("java.io.OutputStreamWriter");
+var ArrayList = Java.type("java.util.ArrayList");
 var Issue = Java.type("com.wilutions.itol.db.Issue");
 var IssueUpdate = Java.type("com.wilutions.itol.db.IssueUpdate");
 var Attachment = Java.type("com.wilutions.itol.db.Attachment");
@@ -102,6 +133,73 @@ function idump(name, obj) {
 
 }
 
+/**
+ * Write a JavaScript value like JSON.stringify does, but into a JSONWriter.
+ * Strings are written into the stream without being copied.
+ * 
+ * @param jsonWriter
+ *            org.json.JSONWriter
+ * @param value
+ *            Value to be written.
+ */
+function writeJSON(jsonWriter, value) {
+	if (value === null || value === undefined) {
+		jsonWriter["value(java.lang.Object)"](null);
+	}
+	else if (Array.isArray(value)) {
+		jsonWriter.array();
+		for (var i = 0; i < value.length; i++) {
+			var elm = value[i];
+			writeJSON(jsonWriter, (elm === undefined || typeof elm == "function") ? null : elm);
+		}
+		jsonWriter.endArray();
+	}
+	else if (typeof value == "string") {
+		jsonWriter["value(java.lang.Object)"](value);
+	}
+	else if (typeof value == "number") {
+		if (isFinite(value)) {
+			jsonWriter["value(double)"](value);
+		}
+		else {
+			jsonWriter["value(java.lang.Object)"](null);
+		}
+	}
+	else if (typeof value == "boolean") {
+		jsonWriter["value(boolean)"](value);
+	}
+	else if (typeof value == "object" && !(value instanceof java.lang.Object)) {
+		jsonWriter.object();
+		for (var key in value) {
+			var v = value[key];
+			if (v !== undefined && typeof v != "function") {
+				jsonWriter.key(key);
+				writeJSON(jsonWriter, v);
+			}
+		}
+		jsonWriter.endObject();
+	}
+	else {
+		jsonWriter["value(java.lang.Object)"](value);
+	}
+}
+
+/**
+ * Make a request body that serializes a JavaScript object directly into the
+ * connection.
+ * 
+ * @param obj
+ *            JavaScript object
+ * @return com.wilutions.itol.db.HttpBodyWriter
+ */
+function makeJSONBody(obj) {
+	return new JHttpBodyWriter(function(os) {
+		var writer = new OutputStreamWriter(os, "UTF-8");
+		writeJSON(new JSONWriter(writer), obj);
+		writer.flush();
+	});
+}
+
 /**
  * Configuration values. This values can be edited in the configuration page
  * "Issue Tracker" in the backstage view of Outlook's main window. If you want
@@ -205,6 +303,12 @@ var config = {
  * Execute HTTP requests. JavaScript wrapper around the Java class JHttpClient.
  */
 var httpClient = {
+
+	/**
+	 * Java object JHttpSession. Holds the authentication header and the
+	 * cookies received from Redmine.
+	 */
+	session : null,
 		
 	/**
 	 * Send a request.
@@ -236,8 +340,7 @@ var httpClient = {
 	 */
 	post : function(params, content, progressCallback) {
 		var headers = [ "Content-Type: application/json" ];
-		var jsonStr = JSON.stringify(content);
-		var ret = this.send("POST", headers, params, jsonStr, progressCallback);
+		var ret = this.send("POST", headers, params, makeJSONBody(content), progressCallback);
 		return JSON.parse(ret.content);
 	},
 
@@ -253,8 +356,7 @@ var httpClient = {
 	 */
 	put : function(params, content, progressCallback) {
 		var headers = [ "Content-Type: application/json" ];
-		var jsonStr = JSON.stringify(content);
-		this.send("PUT", headers, params, jsonStr, progressCallback);
+		this.send("PUT", headers, params, makeJSONBody(content), progressCallback);
 	},
 
 	/**
@@ -291,6 +393,31 @@ var httpClient = {
 		return JSON.parse(this.send("GET", headers, params, null).content);
 	},
 
+	/**
+	 * Send GET requests in parallel to receive JSON objects.
+	 * 
+	 * @param arrOfParams
+	 *            Array of URL parameters, e.g. ["/roles/1.json", "/roles/2.json"]
+	 * @param progressCallback
+	 *            Listener object to watch progress.
+	 * @return Array of JSON objects in the order of arrOfParams.
+	 * @throws IOException
+	 *             if one of the requests fails.
+	 */
+	getAll : function(arrOfParams, progressCallback) {
+		var requests = new ArrayList(arrOfParams.length);
+		for (var i = 0; i < arrOfParams.length; i++) {
+			requests.add(new JHttpRequest(config.url + arrOfParams[i], "GET", [], null));
+		}
+		var responses = this._getSession().sendAll(requests, MAX_PARALLEL_REQUESTS,
+				progressCallback ? progressCallback : null);
+		var ret = [];
+		for (var i = 0; i < responses.size(); i++) {
+			ret.push(JSON.parse(this._checkResponse(responses.get(i)).content));
+		}
+		return ret;
+	},
+
 	/**
 	 * Send GET request to receive a file object.
 	 * 
@@ -299,27 +426,41 @@ var httpClient = {
 	 * @return File in temporary directory. Extension .tmp.
 	 */
 	download : function(url, progressCallback) {
-		var headers = [];
-		return this._internalSend("GET", headers, url, null, progressCallback).file;
+		var response = this._getSession().downloadResumable(url, [], progressCallback ? progressCallback : null);
+		return this._checkResponse(response).file;
 	},
 
 	/**
-	 * Add the Redmine API key in header X-Redmine-API-Key for authentication.
+	 * Get the session for the configured URL. Authenticate by the Redmine API
+	 * key in header X-Redmine-API-Key or by user name and password. The
+	 * session decrypts the password only if it has changed.
 	 */
-	_addAuthHeader : function(headers) {
+	_getSession : function() {
+		if (!this.session || this.session.url != config.url) {
+			this.session = new JHttpSession(config.url);
+		}
 		if (config.apiKey) {
-			headers.push("X-Redmine-API-Key: " + config.apiKey);
+			this.session.setAuthenticationHeader("X-Redmine-API-Key", config.apiKey);
 		}
 		else if (config.userName) {
-			var auth = JHttpClient.makeBasicAuthenticationHeader(config.userName, config.userPwd);
-			headers.push("Authorization: Basic " + auth);
+			this.session.setBasicAuthentication(config.userName, config.userPwd);
 		}
+		else {
+			this.session.clearCredentials();
+		}
+		return this.session;
 	},
 
 	_internalSend : function(method, headers, destUrl, content, progressCallback) {
-		this._addAuthHeader(headers);
-		var response = JHttpClient.send(destUrl, method, headers, content, progressCallback ? progressCallback : null);
-		
+		var response = this._getSession().send(destUrl, method, headers, content,
+				progressCallback ? progressCallback : null);
+		return this._checkResponse(response);
+	},
+
+	/**
+	 * Throw an IOException, if the response has an error status.
+	 */
+	_checkResponse : function(response) {
 		if (response.status < 200 || response.status > 299) {
 			var msg = "";
 			if (response.status) {
@@ -416,20 +557,60 @@ function arrayIndexOf(arr, elm) {
 	return -1;
 }
 
+/**
+ * Read all pages of a Redmine collection.
+ * The first page tells the total number of elements. The remaining pages are
+ * requested in parallel. If the server does not send total_count, pages are
+ * requested one after another until an empty page is received.
+ * 
+ * @param params
+ *            URL parameters without offset and limit, e.g. "/projects.json?include=trackers"
+ * @param arrayName
+ *            Name of the array in the response, e.g. "projects"
+ * @param maxCount
+ *            Maximum number of elements to read.
+ * @return Array of pages, each page is an array of elements.
+ */
+function readPages(params, arrayName, maxCount) {
+	var sep = params.indexOf("?") >= 0 ? "&" : "?";
+	var firstPage = httpClient.get(params + sep + "offset=0&limit=100");
+	var pages = [ firstPage[arrayName] ];
+	// The server might return less elements than requested.
+	var pageSize = pages[0].length;
+	var count = pageSize;
+	if (pageSize != 0 && typeof firstPage.total_count == "number") {
+		var total = Math.min(firstPage.total_count, maxCount);
+		var arrOfParams = [];
+		for (var offset = pageSize; offset < total; offset += pageSize) {
+			arrOfParams.push(params + sep + "offset=" + offset + "&limit=" + pageSize);
+		}
+		if (arrOfParams.length != 0) {
+			var responses = httpClient.getAll(arrOfParams);
+			for (var i = 0; i < responses.length; i++) {
+				pages.push(responses[i][arrayName]);
+			}
+		}
+	}
+	else {
+		while (pageSize != 0 && count < maxCount) {
+			var page = httpClient.get(params + sep + "offset=" + count + "&limit=100")[arrayName];
+			pageSize = page.length;
+			if (pageSize != 0) {
+				pages.push(page);
+				count += pageSize;
+			}
+		}
+	}
+	return pages;
+}
+
 function readProjects(data) {
 	if (islfine) log.log(Level.FINE, "readProjects(");
 
 	var projectCount = 0;
-	var offset = 0;
-	while (projectCount < MAX_PROJECTS) {
-
-		var projectsResponse = httpClient.get("/projects.json?" + "include=trackers,issue_categories,enabled_modules&"
-				+ "offset=" + offset + "&limit=100");
-		var arrOfProjects = projectsResponse.projects;
-		if (arrOfProjects.length == 0) {
-			break;
-		}
-
+	var pages = readPages("/projects.json?include=trackers,issue_categories,enabled_modules", "projects", MAX_PROJECTS);
+	for (var p = 0; p < pages.length; p++) {
+		var arrOfProjects = pages[p];
 		for (var i = 0; i < arrOfProjects.length && projectCount < MAX_PROJECTS; i++) {
 			var project = arrOfProjects[i];
 			data.projects[project.id] = project;
@@ -437,8 +618,6 @@ function readProjects(data) {
 			if (islinfo) log.log(Level.INFO, "project.id=" + project.id + ", .name=" + project.name);
 			projectCount++;
 		}
-
-		offset += arrOfProjects.length;
 	}
 
 	// Add parent project names to project names.
@@ -498,16 +677,10 @@ function readProjectIssueCategories(project) {
 function readProjectMembers(project) {
 	if (islfine) log.log(Level.FINE, "readProjectMembers(project.id=" + project.id);
 	project.memberships = [];
-	var offset = 0;
-	while (project.memberships.length < MAX_USERS) {
-
-		var arrOfMemberships = httpClient.get("/projects/" + project.id + "/memberships.json?" + "offset=" + offset
-				+ "&limit=100").memberships;
-
-		if (arrOfMemberships.length == 0) {
-			break;
-		}
+	var pages = readPages("/projects/" + project.id + "/memberships.json", "memberships", MAX_USERS);
+	for (var p = 0; p < pages.length && project.memberships.length < MAX_USERS; p++) {
 
+		var arrOfMemberships = pages[p];
 		ddump("arrOfMemberships", arrOfMemberships);
 
 		for (var i = 0; i < arrOfMemberships.length; i++) {
@@ -519,8 +692,6 @@ function readProjectMembers(project) {
 						+ ", .name=" + membership.user.name);
 			}
 		}
-
-		offset += arrOfMemberships.length;
 	}
 	ddump("project.memberships", project.memberships);
 	if (islfine) log.log(Level.FINE, ")readProjectMembers");
@@ -665,7 +836,39 @@ function readOrUpdateConfigurationProject() {
 	if (islfine) log.log(Level.FINE, ")readOrUpdateConfigurationProject");
 }
 
+/**
+ * Call a function as HttpOperation. HTTP requests sent by the function observe
+ * the deadline and the cancellation of the progress callback, even if they are
+ * sent without callback.
+ * 
+ * @param progressCallback
+ *            Callback of the IssueService function or null.
+ * @param timeoutSeconds
+ *            Maximum duration or 0.
+ * @param fn
+ *            Function to be called.
+ * @return Return value of fn.
+ */
+function withOperation(progressCallback, timeoutSeconds, fn) {
+	var op = JHttpOperation.begin(progressCallback ? progressCallback : null, timeoutSeconds * 1000);
+	try {
+		return fn();
+	}
+	finally {
+		op.close();
+	}
+}
+
 function initialize() {
+	withOperation(null, getInitializeTimeoutSeconds(), internalInitialize);
+}
+
+function getInitializeTimeoutSeconds() {
+	var readTimeoutSeconds = JHttpClient.getReadTimeoutSeconds();
+	return readTimeoutSeconds > 0 ? INITIALIZE_READ_TIMEOUTS * readTimeoutSeconds : 0;
+}
+
+function internalInitialize() {
 	if (islfine) log.log(Level.FINE, "initialize(");
 	config.valid = false;
 
@@ -782,10 +985,13 @@ function readRoles(data) {
 	var rolesResponse = httpClient.get("/roles.json");
 	ddump("rolesResponse", rolesResponse);
 	data.roles = {};
+	var arrOfParams = [];
 	for (var i = 0; i < rolesResponse.roles.length; i++) {
-		var role = rolesResponse.roles[i];
-		
-		role = httpClient.get("/roles/" + role.id + ".json").role;
+		arrOfParams.push("/roles/" + rolesResponse.roles[i].id + ".json");
+	}
+	var roleResponses = httpClient.getAll(arrOfParams);
+	for (var i = 0; i < roleResponses.length; i++) {
+		var role = roleResponses[i].role;
 		data.roles[role.id] = role;
 		
 		role.canAssigneIssuesToThisRole = !dontAssignIssuesToThisRoles[role.name];
@@ -941,6 +1147,12 @@ function getPropertyClasses() {
 };
 
 function getPropertyClass(propertyId, issue) {
+	return withOperation(null, READ_TIMEOUT_SECONDS, function() {
+		return internalGetPropertyClass(propertyId, issue);
+	});
+}
+
+function internalGetPropertyClass(propertyId, issue) {
 	var ret = getPropertyClasses().getCopy(propertyId);
 	idump("propertyClass " + propertyId, ret);
 	if (!ret) return null;
@@ -973,6 +1185,12 @@ function getPropertyClass(propertyId, issue) {
 }
 
 function getPropertyAutoCompletion(propertyId, issue, filter) {
+	return withOperation(null, READ_TIMEOUT_SECONDS, function() {
+		return internalGetPropertyAutoCompletion(propertyId, issue, filter);
+	});
+}
+
+function internalGetPropertyAutoCompletion(propertyId, issue, filter) {
 	return null;
 }
 
@@ -1203,6 +1421,12 @@ function getShowIssueUrl(issueId) {
 }
 
 function getPropertyDisplayOrder(issue) {
+	return withOperation(null, READ_TIMEOUT_SECONDS, function() {
+		return internalGetPropertyDisplayOrder(issue);
+	});
+}
+
+function internalGetPropertyDisplayOrder(issue) {
 	if (islfine) log.log(Level.FINE, "getPropertyDisplayOrder(");
 	var propertyIds = [ Property.ASSIGNEE ];
 
@@ -1310,6 +1534,12 @@ function getCurrentUsersRolesForIssueProject(issue) {
 }
 
 function getDefaultIssueAsString(issue) {
+	return withOperation(null, READ_TIMEOUT_SECONDS, function() {
+		return internalGetDefaultIssueAsString(issue);
+	});
+}
+
+function internalGetDefaultIssueAsString(issue) {
 	var defaultProps = {};
 	if (issue) {
 		defaultProps.project = issue.project;
@@ -1340,6 +1570,12 @@ function makeDefaultProperties(defaultIssueAsString) {
 }
 
 function createIssue(subject, description, defaultIssueAsString) {
+	return withOperation(null, READ_TIMEOUT_SECONDS, function() {
+		return internalCreateIssue(subject, description, defaultIssueAsString);
+	});
+}
+
+function internalCreateIssue(subject, description, defaultIssueAsString) {
 	if (islfine) log.log(Level.FINE, "createIssue(");
 
 	config.checkValid();
@@ -1383,6 +1619,12 @@ function createIssue(subject, description, defaultIssueAsString) {
 };
 
 function updateIssue(trackerIssue, modifiedProperties, progressCallback) {
+	return withOperation(progressCallback, UPDATE_TIMEOUT_SECONDS, function() {
+		return internalUpdateIssue(trackerIssue, modifiedProperties, progressCallback);
+	});
+}
+
+function internalUpdateIssue(trackerIssue, modifiedProperties, progressCallback) {
 	if (islfine) log.log(Level.FINE, "updateIssue(modifiedProperties=" + modifiedProperties);
 	config.checkValid();
 	
@@ -1575,6 +1817,12 @@ function getIssuePropertyValue(issue, propId) {
 }
 
 function deleteAttachment(attId) {
+	return withOperation(null, READ_TIMEOUT_SECONDS, function() {
+		return internalDeleteAttachment(attId);
+	});
+}
+
+function internalDeleteAttachment(attId) {
 	log.warn("Removing attachments is not supported.");
 }
 
@@ -1701,6 +1949,12 @@ function injectIssueIdIntoMailSubject(subject, iss) {
 };
 
 function writeAttachment(trackerAttachment, progressCallback) {
+	return withOperation(progressCallback, TRANSFER_TIMEOUT_SECONDS, function() {
+		return internalWriteAttachment(trackerAttachment, progressCallback);
+	});
+}
+
+function internalWriteAttachment(trackerAttachment, progressCallback) {
 	if (islfine) log.log(Level.FINE, "writeAttachment(" + trackerAttachment + ", progressCallback=" + progressCallback);
 	var content = trackerAttachment.getStream();
 
@@ -1729,7 +1983,13 @@ function toRedmineAttachment(trackerAttachment) {
 	return redmineAttachment;
 }
 
-function readIssue(issueId) {
+function readIssue(issueId, progressCallback) {
+	return withOperation(progressCallback, READ_TIMEOUT_SECONDS, function() {
+		return internalReadIssue(issueId);
+	});
+}
+
+function internalReadIssue(issueId) {
 	if (islfine) log.log(Level.FINE, "readIssue(" + issueId);
 	var response = httpClient.get("/issues/" + issueId + ".json?"
 			+ "include=children,attachments,relations,changesets,journals,watchers");
@@ -1876,7 +2136,9 @@ function getIssueHistoryUrl(issueId) {
 }
 
 function downloadAttachment(url, progressCallback) {
-	return httpClient.download(url, progressCallback);
+	return withOperation(progressCallback, TRANSFER_TIMEOUT_SECONDS, function() {
+		return httpClient.download(url, progressCallback);
+	});
 }
 
 initializePropertyClasses();